@@ -0,0 +1,81 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * One entry of a BTreeFile: a key and the page and slot of the tuple of
+ * the indexed table that holds it. Entries are ordered by key and then by
+ * position, so that every entry is distinct even where keys repeat.
+ */
+public class BTreeEntry implements Comparable<BTreeEntry> {
+
+    private final Field key;
+    private final int pageNo;
+    private final int slot;
+
+    public BTreeEntry(Field key, int pageNo, int slot) {
+        this.key = key;
+        this.pageNo = pageNo;
+        this.slot = slot;
+    }
+
+    /** The entry for tuple t, whose field keyField is the key. */
+    public BTreeEntry(Tuple t, int keyField) {
+        this(t.getField(keyField), t.getRecordId().getPageId().pageNumber(),
+                t.getRecordId().tupleno());
+    }
+
+    public Field getKey() {
+        return key;
+    }
+
+    /** @return the RecordId of the entry's tuple in the given table */
+    public RecordId getRecordId(int tableId) {
+        return new RecordId(new HeapPageId(tableId, pageNo), slot);
+    }
+
+    /** @return the number of bytes an entry with a key of the given type takes */
+    static int size(Type keyType) {
+        return keyType.getLen() + 8;
+    }
+
+    static BTreeEntry parse(Type keyType, byte[] data, int offset) {
+        int keyLen = keyType.getLen();
+        return new BTreeEntry(keyType.parse(data, offset),
+                Type.readInt(data, offset + keyLen), Type.readInt(data, offset + keyLen + 4));
+    }
+
+    void serialize(DataOutputStream dos) throws IOException {
+        key.serialize(dos);
+        dos.writeInt(pageNo);
+        dos.writeInt(slot);
+    }
+
+    /** Compares two keys of the same type. */
+    static int compareKeys(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b))
+            return -1;
+        return a.compare(Predicate.Op.EQUALS, b) ? 0 : 1;
+    }
+
+    public int compareTo(BTreeEntry other) {
+        int c = compareKeys(key, other.key);
+        if (c != 0)
+            return c;
+        if (pageNo != other.pageNo)
+            return pageNo < other.pageNo ? -1 : 1;
+        return slot < other.slot ? -1 : (slot == other.slot ? 0 : 1);
+    }
+
+    public boolean equals(Object o) {
+        return o instanceof BTreeEntry && compareTo((BTreeEntry) o) == 0;
+    }
+
+    public int hashCode() {
+        return key.hashCode() * 31 + pageNo * 17 + slot;
+    }
+
+    public String toString() {
+        return key + "@" + pageNo + "." + slot;
+    }
+}
@@ -0,0 +1,503 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+ tree index on one field of a table. Each tuple of the
+ * table has an entry in the tree: its key and its page and slot number.
+ * The file is a sequence of BufferPool.PAGE_SIZE pages, identified by
+ * HeapPageIds: page 0 is a BTreeHeaderPage pointing at the root, and the
+ * rest are BTreeInternalPages and BTreeLeafPages. Pages are read through
+ * the BufferPool like those of any other DbFile.
+ * <p>
+ * Indexes are registered with {@link Catalog#addIndex}, or declared in
+ * the catalog file, and are kept up to date by BufferPool.insertTuple and
+ * deleteTuple. {@link IndexScan} looks tuples up through them.
+ * <p>
+ * Locking is strict two-phase at page level. Readers and writers read
+ * lock the header and the internal pages they pass, and writers write
+ * lock the leaf they change, so writers to different leaves do not wait
+ * for each other. An insert that splits its leaf write locks the pages
+ * on its path, and the header too if the root splits. Deletes never merge
+ * pages: an emptied leaf stays in the tree until inserts fill it again.
+ *
+ * @see BTreePage
+ */
+public class BTreeFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File f;
+    private final int tableId;
+    private final int keyField;
+    private final Type keyType;
+    private final TupleDesc td;
+    private transient FileChannel channel;
+
+    /** A page that split, and what its parent must now point at. */
+    private static class Split {
+        final BTreeEntry key;
+        final int right;
+
+        Split(BTreeEntry key, int right) {
+            this.key = key;
+            this.right = right;
+        }
+    }
+
+    /**
+     * Opens the index stored in f on field keyField of table, creating an
+     * empty index if f is empty. A new index may be filled from the table
+     * with {@link #build}.
+     *
+     * @throws IllegalArgumentException if table is not a HeapFile
+     */
+    public BTreeFile(File f, DbFile table, int keyField) {
+        if (!(table instanceof HeapFile))
+            throw new IllegalArgumentException("only heap files can be indexed");
+        this.f = f;
+        this.tableId = table.getId();
+        this.keyField = keyField;
+        TupleDesc tableTd = table.getTupleDesc();
+        this.keyType = tableTd.getFieldType(keyField);
+        this.td = new TupleDesc(new Type[] {keyType, Type.INT_TYPE, Type.INT_TYPE},
+                new String[] {tableTd.getFieldName(keyField), "page", "slot"});
+        if (f.length() == 0) {
+            try {
+                writeFully(ByteBuffer.wrap(BTreeHeaderPage.createPageData(1)), 0);
+                writeFully(ByteBuffer.wrap(BTreeLeafPage.createEmptyPageData()),
+                        BufferPool.PAGE_SIZE);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    /** @return the id of the indexed table */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the indexed field of the table */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * Returns the TupleDesc of the entries of this index, as returned by
+     * iterator: the key, then the page and slot number of its tuple.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the channel pages are read and written through, opening it
+     * if needed. Every read and write gives its own position, so the
+     * channel is shared without holding a lock around the I/O.
+     */
+    private synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen())
+            channel = new RandomAccessFile(f, "rw").getChannel();
+        return channel;
+    }
+
+    /**
+     * Fills buf from the given file position. As in HeapFile, a channel
+     * closed underneath the read by an interrupted thread is reopened and
+     * the read retried once.
+     */
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                while (buf.hasRemaining()) {
+                    if (getChannel().read(buf, position + buf.position()) < 0)
+                        throw new EOFException();
+                }
+                return;
+            } catch (ClosedChannelException e) {
+                if (attempt > 0 || Thread.currentThread().isInterrupted())
+                    throw e;
+            }
+        }
+    }
+
+    /** Writes all of buf at the given file position, like readFully. */
+    private void writeFully(ByteBuffer buf, long position) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                while (buf.hasRemaining())
+                    getChannel().write(buf, position + buf.position());
+                return;
+            } catch (ClosedChannelException e) {
+                if (attempt > 0 || Thread.currentThread().isInterrupted())
+                    throw e;
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        try {
+            readFully(ByteBuffer.wrap(data), (long) pid.pageNumber() * BufferPool.PAGE_SIZE);
+            return BTreePage.create(new HeapPageId(pid.getTableId(), pid.pageNumber()), data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writeFully(ByteBuffer.wrap(page.getPageData()),
+                (long) page.getId().pageNumber() * BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Writes data as a new page at the end of the file. Synchronized so
+     * that concurrent appends get different page numbers.
+     */
+    private synchronized int appendPage(byte[] data) throws IOException {
+        int pgNo = numPages();
+        writeFully(ByteBuffer.wrap(data), (long) pgNo * BufferPool.PAGE_SIZE);
+        return pgNo;
+    }
+
+    private BTreePage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(getId(), pgNo), perm);
+    }
+
+    /**
+     * Adds the entry for t, a tuple of the indexed table that has been
+     * given its RecordId.
+     *
+     * @return the pages that were changed
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeEntry e = new BTreeEntry(t, keyField);
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, 0, Permissions.READ_ONLY);
+        int root = header.getRoot();
+
+        // most inserts fit in their leaf and change nothing above it
+        BTreeLeafPage leaf = findLeaf(tid, root, e);
+        if (leaf.getNumEntries() < BTreeLeafPage.capacity(keyType)) {
+            leaf.insert(e);
+            dirtied.add(leaf);
+            return dirtied;
+        }
+
+        Split split = insert(tid, root, e, dirtied);
+        if (split != null) {
+            header = (BTreeHeaderPage) getPage(tid, 0, Permissions.READ_WRITE);
+            int newRoot = appendPage(
+                    BTreeInternalPage.createPageData(keyType, root, split.key, split.right));
+            dirtied.add(getPage(tid, newRoot, Permissions.READ_WRITE));
+            header.setRoot(newRoot);
+            dirtied.add(header);
+        }
+        return dirtied;
+    }
+
+    /**
+     * Read locks the internal pages from page pgNo down to the leaf where
+     * e belongs, and returns that leaf write locked.
+     */
+    private BTreeLeafPage findLeaf(TransactionId tid, int pgNo, BTreeEntry e)
+            throws DbException, TransactionAbortedException {
+        BTreePage page = getPage(tid, pgNo, Permissions.READ_ONLY);
+        while (page instanceof BTreeInternalPage) {
+            BTreeInternalPage node = (BTreeInternalPage) page;
+            page = getPage(tid, node.getChild(node.childFor(e)), Permissions.READ_ONLY);
+        }
+        return (BTreeLeafPage) getPage(tid, page.getId().pageNumber(),
+                Permissions.READ_WRITE);
+    }
+
+    /**
+     * Inserts e into the subtree under page pgNo.
+     *
+     * @return how the page split, or null if it did not
+     */
+    private Split insert(TransactionId tid, int pgNo, BTreeEntry e, List<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePage page = getPage(tid, pgNo, Permissions.READ_WRITE);
+        if (page instanceof BTreeLeafPage) {
+            BTreeLeafPage leaf = (BTreeLeafPage) page;
+            leaf.insert(e);
+            dirtied.add(leaf);
+            if (leaf.getNumEntries() <= BTreeLeafPage.capacity(keyType))
+                return null;
+            int right = appendPage(BTreeLeafPage.createEmptyPageData());
+            BTreeLeafPage rightPage = (BTreeLeafPage) getPage(tid, right, Permissions.READ_WRITE);
+            dirtied.add(rightPage);
+            return new Split(leaf.splitInto(rightPage), right);
+        }
+
+        BTreeInternalPage node = (BTreeInternalPage) page;
+        int i = node.childFor(e);
+        Split split = insert(tid, node.getChild(i), e, dirtied);
+        if (split == null)
+            return null;
+        node.insert(i, split.key, split.right);
+        dirtied.add(node);
+        if (node.getNumKeys() <= BTreeInternalPage.capacity(keyType))
+            return null;
+        int right = appendPage(BTreeInternalPage.createEmptyPageData(-1));
+        BTreeInternalPage rightPage = (BTreeInternalPage) getPage(tid, right, Permissions.READ_WRITE);
+        dirtied.add(rightPage);
+        return new Split(node.splitInto(rightPage), right);
+    }
+
+    /**
+     * Removes the entry for t, a tuple of the indexed table.
+     *
+     * @return the leaf page that was changed
+     * @throws DbException if the index has no entry for t
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        BTreeEntry e = new BTreeEntry(t, keyField);
+        BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, 0, Permissions.READ_ONLY);
+        BTreeLeafPage leaf = findLeaf(tid, header.getRoot(), e);
+        leaf.remove(e);
+        return leaf;
+    }
+
+    /**
+     * Fills this index, which must be empty, with an entry for every tuple
+     * of its table. The entries are sorted and the tree is written bottom
+     * up with full pages, straight to the file, so the index must not be
+     * in use yet.
+     */
+    public void build() throws DbException, IOException, TransactionAbortedException {
+        if (numPages() != 2)
+            throw new DbException("index is not empty");
+        ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = Database.getCatalog().getDbFile(tableId).iterator(tid);
+        it.open();
+        while (it.hasNext())
+            entries.add(new BTreeEntry(it.next(), keyField));
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        if (entries.isEmpty())
+            return;
+        Collections.sort(entries);
+
+        // the leaves, linked left to right
+        ArrayList<Integer> level = new ArrayList<Integer>();
+        ArrayList<BTreeEntry> mins = new ArrayList<BTreeEntry>();
+        int perLeaf = BTreeLeafPage.capacity(keyType);
+        int numLeaves = (entries.size() + perLeaf - 1) / perLeaf;
+        synchronized (this) {
+            getChannel().truncate(BufferPool.PAGE_SIZE);
+            for (int i = 0; i < numLeaves; i++) {
+                List<BTreeEntry> run = entries.subList(i * perLeaf,
+                        Math.min(entries.size(), (i + 1) * perLeaf));
+                int pgNo = i + 1;
+                BTreeLeafPage leaf = new BTreeLeafPage(new HeapPageId(getId(), pgNo),
+                        BTreeLeafPage.createEmptyPageData());
+                leaf.entries.addAll(run);
+                leaf.rightSibling = i + 1 < numLeaves ? pgNo + 1 : -1;
+                writePage(leaf);
+                level.add(pgNo);
+                mins.add(run.get(0));
+            }
+
+            // internal levels, until one page is left to be the root
+            int perNode = BTreeInternalPage.capacity(keyType) + 1;
+            while (level.size() > 1) {
+                ArrayList<Integer> up = new ArrayList<Integer>();
+                ArrayList<BTreeEntry> upMins = new ArrayList<BTreeEntry>();
+                for (int i = 0; i < level.size(); i += perNode) {
+                    int end = Math.min(level.size(), i + perNode);
+                    int pgNo = numPages();
+                    BTreeInternalPage node = new BTreeInternalPage(new HeapPageId(getId(), pgNo),
+                            BTreeInternalPage.createEmptyPageData(level.get(i)));
+                    for (int j = i + 1; j < end; j++)
+                        node.insert(j - i - 1, mins.get(j), level.get(j));
+                    writePage(node);
+                    up.add(pgNo);
+                    upMins.add(mins.get(i));
+                }
+                level = up;
+                mins = upMins;
+            }
+            writeFully(ByteBuffer.wrap(BTreeHeaderPage.createPageData(level.get(0))), 0);
+        }
+    }
+
+    /**
+     * Iterates over the entries of an index in key order, optionally only
+     * those whose key satisfies a predicate. The scan starts at the first
+     * leaf that can hold a match and stops once no later entry can match.
+     */
+    class EntryIterator {
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field value;
+        private BTreeLeafPage leaf;
+        private int pos;
+        private BTreeEntry next;
+
+        /**
+         * @param op the comparison the key must pass, or null for all entries
+         * @param value the value the key is compared with
+         */
+        EntryIterator(TransactionId tid, Predicate.Op op, Field value) {
+            this.tid = tid;
+            this.op = op;
+            this.value = value;
+        }
+
+        private boolean hasLowerBound() {
+            return op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+        }
+
+        /** @return true if no entry at or after one with this key can match */
+        private boolean pastUpperBound(Field key) {
+            if (op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN_OR_EQ)
+                return BTreeEntry.compareKeys(key, value) > 0;
+            if (op == Predicate.Op.LESS_THAN)
+                return BTreeEntry.compareKeys(key, value) >= 0;
+            return false;
+        }
+
+        void open() throws DbException, TransactionAbortedException {
+            BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, 0, Permissions.READ_ONLY);
+            BTreePage page = getPage(tid, header.getRoot(), Permissions.READ_ONLY);
+            while (page instanceof BTreeInternalPage) {
+                BTreeInternalPage node = (BTreeInternalPage) page;
+                int i = hasLowerBound() ? node.childFor(value) : 0;
+                page = getPage(tid, node.getChild(i), Permissions.READ_ONLY);
+            }
+            leaf = (BTreeLeafPage) page;
+            pos = hasLowerBound() ? leaf.lowerBound(value) : 0;
+            next = null;
+        }
+
+        boolean hasNext() throws DbException, TransactionAbortedException {
+            while (next == null && leaf != null) {
+                if (pos >= leaf.getNumEntries()) {
+                    int right = leaf.getRightSibling();
+                    leaf = right < 0 ? null
+                        : (BTreeLeafPage) getPage(tid, right, Permissions.READ_ONLY);
+                    pos = 0;
+                    continue;
+                }
+                BTreeEntry e = leaf.getEntry(pos++);
+                if (op != null && pastUpperBound(e.getKey())) {
+                    leaf = null;
+                } else if (op == null || e.getKey().compare(op, value)) {
+                    next = e;
+                }
+            }
+            return next != null;
+        }
+
+        BTreeEntry next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            BTreeEntry e = next;
+            next = null;
+            return e;
+        }
+
+        void close() {
+            leaf = null;
+            next = null;
+        }
+    }
+
+    /**
+     * Returns an iterator over the entries whose key satisfies op against
+     * value, in key order.
+     */
+    EntryIterator entries(TransactionId tid, Predicate.Op op, Field value) {
+        return new EntryIterator(tid, op, value);
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+
+    /**
+     * Returns an iterator over all entries of this index in key order, as
+     * tuples of getTupleDesc().
+     */
+    public DbFileIterator iterator(final TransactionId tid) {
+        return new DbFileIterator() {
+            private static final long serialVersionUID = 1L;
+
+            private EntryIterator it;
+
+            public void open() throws DbException, TransactionAbortedException {
+                it = entries(tid, null, null);
+                it.open();
+            }
+
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                return it != null && it.hasNext();
+            }
+
+            public Tuple next() throws DbException, TransactionAbortedException {
+                if (it == null)
+                    throw new NoSuchElementException();
+                BTreeEntry e = it.next();
+                RecordId rid = e.getRecordId(tableId);
+                Tuple t = new Tuple(td);
+                t.setField(0, e.getKey());
+                t.setField(1, new IntField(rid.getPageId().pageNumber()));
+                t.setField(2, new IntField(rid.tupleno()));
+                return t;
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                open();
+            }
+
+            public void close() {
+                if (it != null)
+                    it.close();
+                it = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,38 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Page 0 of a BTreeFile, which records where the root of the tree is.
+ */
+public class BTreeHeaderPage extends BTreePage {
+
+    int root;
+
+    public BTreeHeaderPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        if (data[0] != HEADER)
+            throw new IOException("not a B+ tree header page");
+        root = Type.readInt(data, 1);
+    }
+
+    /** Page data for a header page pointing at the given root. */
+    static byte[] createPageData(int root) {
+        return ByteBuffer.allocate(BufferPool.PAGE_SIZE).put((byte) HEADER).putInt(root).array();
+    }
+
+    void write(DataOutputStream dos) throws IOException {
+        dos.writeByte(HEADER);
+        dos.writeInt(root);
+    }
+
+    /** @return the page number of the root page */
+    public synchronized int getRoot() {
+        return root;
+    }
+
+    synchronized void setRoot(int root) {
+        this.root = root;
+    }
+}
@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * An internal page of a BTreeFile: n separator entries and n + 1 child
+ * page numbers. Every entry under child i is at least separator i - 1 and
+ * less than separator i.
+ * <p>
+ * The page starts with its kind byte and a four-byte separator count,
+ * followed by the four-byte child page numbers and then the separators.
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    final ArrayList<BTreeEntry> keys;
+    final ArrayList<Integer> children;
+
+    public BTreeInternalPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        if (data[0] != INTERNAL)
+            throw new IOException("not a B+ tree internal page");
+        int n = Type.readInt(data, 1);
+        keys = new ArrayList<BTreeEntry>(n + 1);
+        children = new ArrayList<Integer>(n + 2);
+        for (int i = 0; i <= n; i++)
+            children.add(Type.readInt(data, 5 + 4 * i));
+        int start = 5 + 4 * (n + 1);
+        int size = BTreeEntry.size(keyType);
+        for (int i = 0; i < n; i++)
+            keys.add(BTreeEntry.parse(keyType, data, start + i * size));
+    }
+
+    /** Page data for an internal page with one separator and two children. */
+    static byte[] createPageData(Type keyType, int left, BTreeEntry key, int right) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(INTERNAL);
+            dos.writeInt(1);
+            dos.writeInt(left);
+            dos.writeInt(right);
+            key.serialize(dos);
+            dos.write(new byte[BufferPool.PAGE_SIZE - baos.size()]);
+        } catch (IOException e) {
+            // writing to memory cannot fail
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /** Page data for an internal page with no separators and one child. */
+    static byte[] createEmptyPageData(int child) {
+        return ByteBuffer.allocate(BufferPool.PAGE_SIZE).put((byte) INTERNAL)
+            .putInt(0).putInt(child).array();
+    }
+
+    /** @return the most separators a page with keys of the given type holds */
+    static int capacity(Type keyType) {
+        return (BufferPool.PAGE_SIZE - 9) / (BTreeEntry.size(keyType) + 4);
+    }
+
+    void write(DataOutputStream dos) throws IOException {
+        dos.writeByte(INTERNAL);
+        dos.writeInt(keys.size());
+        for (int child : children)
+            dos.writeInt(child);
+        for (BTreeEntry e : keys)
+            e.serialize(dos);
+    }
+
+    /** @return the number of separators on this page */
+    public synchronized int getNumKeys() {
+        return keys.size();
+    }
+
+    /** @return the page number of child i */
+    public synchronized int getChild(int i) {
+        return children.get(i);
+    }
+
+    /** @return the child whose subtree e belongs in */
+    synchronized int childFor(BTreeEntry e) {
+        int lo = 0, hi = keys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys.get(mid).compareTo(e) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** @return the leftmost child whose subtree may hold entries with key */
+    synchronized int childFor(Field key) {
+        int lo = 0, hi = keys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (BTreeEntry.compareKeys(keys.get(mid).getKey(), key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Records that child i has split, with the entries from key on moved
+     * to page right. The page may be left one separator over capacity,
+     * for the caller to split.
+     */
+    synchronized void insert(int i, BTreeEntry key, int right) {
+        keys.add(i, key);
+        children.add(i + 1, right);
+    }
+
+    /**
+     * Moves the separators above the middle one, and their children, to
+     * right, an internal page with no separators.
+     *
+     * @return the middle separator, which belongs in the parent
+     */
+    synchronized BTreeEntry splitInto(BTreeInternalPage right) {
+        int mid = keys.size() / 2;
+        BTreeEntry up = keys.get(mid);
+        synchronized (right) {
+            right.keys.clear();
+            right.children.clear();
+            right.keys.addAll(keys.subList(mid + 1, keys.size()));
+            right.children.addAll(children.subList(mid + 1, children.size()));
+        }
+        keys.subList(mid, keys.size()).clear();
+        children.subList(mid + 1, children.size()).clear();
+        return up;
+    }
+}
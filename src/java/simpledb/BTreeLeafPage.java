@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * A leaf page of a BTreeFile. It holds a sorted run of entries and the
+ * page number of the leaf to its right, so that range scans can walk the
+ * leaves in key order without going back up the tree.
+ * <p>
+ * The page starts with its kind byte, a four-byte entry count and the
+ * four-byte right sibling page number (-1 for the last leaf), followed by
+ * the entries.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    final ArrayList<BTreeEntry> entries;
+    int rightSibling;
+
+    public BTreeLeafPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        if (data[0] != LEAF)
+            throw new IOException("not a B+ tree leaf page");
+        int n = Type.readInt(data, 1);
+        rightSibling = Type.readInt(data, 5);
+        entries = new ArrayList<BTreeEntry>(n + 1);
+        int size = BTreeEntry.size(keyType);
+        for (int i = 0; i < n; i++)
+            entries.add(BTreeEntry.parse(keyType, data, 9 + i * size));
+    }
+
+    /** Page data for an empty leaf with no right sibling. */
+    static byte[] createEmptyPageData() {
+        return ByteBuffer.allocate(BufferPool.PAGE_SIZE).put((byte) LEAF)
+            .putInt(0).putInt(-1).array();
+    }
+
+    /** @return the most entries a leaf with keys of the given type holds */
+    static int capacity(Type keyType) {
+        return (BufferPool.PAGE_SIZE - 9) / BTreeEntry.size(keyType);
+    }
+
+    void write(DataOutputStream dos) throws IOException {
+        dos.writeByte(LEAF);
+        dos.writeInt(entries.size());
+        dos.writeInt(rightSibling);
+        for (BTreeEntry e : entries)
+            e.serialize(dos);
+    }
+
+    /** @return the number of entries on this page */
+    public synchronized int getNumEntries() {
+        return entries.size();
+    }
+
+    /** @return entry i of this page, in key order */
+    public synchronized BTreeEntry getEntry(int i) {
+        return entries.get(i);
+    }
+
+    /** @return the page number of the next leaf, or -1 */
+    public synchronized int getRightSibling() {
+        return rightSibling;
+    }
+
+    /**
+     * @return the position of the first entry whose key is at least key
+     */
+    synchronized int lowerBound(Field key) {
+        int lo = 0, hi = entries.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (BTreeEntry.compareKeys(entries.get(mid).getKey(), key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Adds e in key order; the page may be left one entry over capacity,
+     * for the caller to split.
+     *
+     * @throws DbException if the page already holds e
+     */
+    synchronized void insert(BTreeEntry e) throws DbException {
+        int i = Collections.binarySearch(entries, e);
+        if (i >= 0)
+            throw new DbException("duplicate index entry " + e);
+        entries.add(-i - 1, e);
+    }
+
+    /**
+     * @throws DbException if the page does not hold e
+     */
+    synchronized void remove(BTreeEntry e) throws DbException {
+        int i = Collections.binarySearch(entries, e);
+        if (i < 0)
+            throw new DbException("index entry " + e + " not found");
+        entries.remove(i);
+    }
+
+    /**
+     * Moves the upper half of this page's entries to right, an empty leaf,
+     * and links right in after this page.
+     *
+     * @return the first entry of right
+     */
+    synchronized BTreeEntry splitInto(BTreeLeafPage right) {
+        List<BTreeEntry> upper = entries.subList(entries.size() / 2, entries.size());
+        synchronized (right) {
+            right.entries.addAll(upper);
+            right.rightSibling = rightSibling;
+        }
+        upper.clear();
+        rightSibling = right.getId().pageNumber();
+        return right.entries.get(0);
+    }
+}
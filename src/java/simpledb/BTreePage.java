@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Common part of the pages of a BTreeFile. Every page starts with a byte
+ * giving its kind, so that BTreeFile.readPage knows which class to build.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage implements Page {
+
+    /** Page kind bytes. */
+    static final int HEADER = 1;
+    static final int INTERNAL = 2;
+    static final int LEAF = 3;
+
+    final HeapPageId pid;
+    final Type keyType;
+    boolean dirty;
+    TransactionId tid;
+    byte[] oldData;
+
+    BTreePage(HeapPageId id, byte[] data) {
+        this.pid = id;
+        this.keyType = Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(0);
+        this.oldData = data;
+    }
+
+    /**
+     * Builds the page of the kind given by the first byte of data.
+     *
+     * @throws IOException if data is not a BTreeFile page
+     */
+    static BTreePage create(HeapPageId id, byte[] data) throws IOException {
+        switch (data[0]) {
+        case HEADER:
+            return new BTreeHeaderPage(id, data);
+        case INTERNAL:
+            return new BTreeInternalPage(id, data);
+        case LEAF:
+            return new BTreeLeafPage(id, data);
+        default:
+            throw new IOException("page " + id.pageNumber() + " is not a B+ tree page");
+        }
+    }
+
+    /** Serializes a page, which starts with the given kind byte. */
+    abstract void write(DataOutputStream dos) throws IOException;
+
+    public synchronized byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            write(dos);
+            dos.write(new byte[BufferPool.PAGE_SIZE - baos.size()]);
+        } catch (IOException e) {
+            // writing to memory cannot fail
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public synchronized BTreePage getBeforeImage() {
+        try {
+            return create(pid, oldData);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    public synchronized void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+    public synchronized void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = tid;
+    }
+
+    public synchronized TransactionId isDirty() {
+        return dirty ? tid : null;
+    }
+}
@@ -4,6 +4,7 @@ import java.io.*;
 import java.util.*;
 import java.util.concurrent.locks.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -13,11 +14,18 @@ import java.util.concurrent.*;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Cached pages are spread over several shards by PageId hash, each with its
+ * own monitor and replacement policy state, so that threads reading
+ * different pages do not contend on a single lock. The pool's size is a
+ * number of bytes, since HeapFiles may have pages of different sizes; the
+ * limit is shared by all shards and is never exceeded, except that an
+ * empty pool always takes one page.
  */
 public class BufferPool {
 
 
-    /** Bytes per page, including header. */
+    /** Bytes per page, including header, unless a file says otherwise. */
     public static final int PAGE_SIZE = 4096;
 
     /** Default number of pages passed to the constructor. This is used by
@@ -25,9 +33,85 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Upper bound on the number of shards the pool is split into. */
+    public static final int DEFAULT_SHARDS = 16;
+
+    /** Fewest pages a shard should hold on average. */
+    private static final int MIN_PAGES_PER_SHARD = 8;
+
+    /** Default number of pages a sequential scan reads ahead. */
+    public static final int DEFAULT_PREFETCH_PAGES = 8;
+
+    /**
+     * Background thread that performs read-ahead for every pool. A single
+     * thread keeps the reads of a scan in file order.
+     */
+    private static final ExecutorService prefetcher =
+        Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "BufferPool prefetcher");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    private long maxBytes;
+    // the pool's size in PAGE_SIZE pages, for sizing shards and read-ahead
     private int maxPages;
-    private Map<PageId, Page> pool;
+    private ReplacementPolicy.Kind policyKind;
+    private Shard[] shards;
+    private AtomicLong cachedBytes = new AtomicLong();
+    private AtomicLong hitCount = new AtomicLong();
+    private AtomicLong missCount = new AtomicLong();
+    private AtomicLong prefetchCount = new AtomicLong();
+    private volatile int prefetchDepth;
+    private volatile boolean steal;
+    private Flusher flusher;
+    /** Reads in progress on the prefetch thread, so that nobody reads twice. */
+    private ConcurrentHashMap<PageId, Future<?>> pendingReads =
+        new ConcurrentHashMap<PageId, Future<?>>();
     private LockManager lm;
+    /** Changes made under record locks, per transaction, for undoing on abort. */
+    private ConcurrentHashMap<TransactionId, List<Undo>> undoLogs =
+        new ConcurrentHashMap<TransactionId, List<Undo>>();
+
+    /** One tuple inserted or deleted under a record lock. */
+    private static class Undo {
+        final RecordId rid;
+        final Tuple tuple;
+        final boolean inserted;
+
+        Undo(RecordId rid, Tuple tuple, boolean inserted) {
+            this.rid = rid;
+            this.tuple = tuple;
+            this.inserted = inserted;
+        }
+    }
+
+    /**
+     * One slice of the pool, guarded by its own monitor. A page always lives
+     * in the shard chosen by the hash of its PageId, and each shard has its
+     * own replacement policy instance.
+     * <p>
+     * Pages brought in by sequential requests are not handed to the policy
+     * but kept on a probation FIFO. They are the first candidates for
+     * eviction and only join the policy's pages once a non-sequential
+     * request hits them. Pages read ahead by the prefetcher start out on
+     * probation too, and are remembered until their first use.
+     */
+    private static class Shard {
+        final HashMap<PageId, Page> pages = new HashMap<PageId, Page>();
+        final LinkedHashMap<PageId, PageId> probation =
+            new LinkedHashMap<PageId, PageId>();
+        final HashSet<PageId> prefetched = new HashSet<PageId>();
+        final ReplacementPolicy policy;
+        /** Bumped whenever a page of this shard is written or discarded. */
+        long writeEpoch;
+
+        Shard(ReplacementPolicy policy) {
+            this.policy = policy;
+        }
+    }
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -35,30 +119,184 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, ReplacementPolicy.Kind.LRU);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * according to the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policyKind the replacement policy to use
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind policyKind) {
+        this((long) numPages * PAGE_SIZE, policyKind);
+    }
+
+    /**
+     * Creates a BufferPool that caches pages up to maxBytes bytes in all.
+     *
+     * @param maxBytes the size of this buffer pool in bytes
+     * @param policyKind the replacement policy to use
+     */
+    public static BufferPool withBytes(long maxBytes, ReplacementPolicy.Kind policyKind) {
+        return new BufferPool(maxBytes, policyKind);
+    }
+
+    private BufferPool(long maxBytes, ReplacementPolicy.Kind policyKind) {
         // some code goes here
+        int numPages = (int) Math.min(Integer.MAX_VALUE, maxBytes / PAGE_SIZE);
+        this.maxBytes = maxBytes;
         this.maxPages = numPages;
-        // This LinkedHashMap behaives like and LRU
-        this.pool = Collections.synchronizedMap(new LinkedHashMap<PageId, Page>(maxPages + 1, .75F, true) {
-            public synchronized boolean removeEldestEntry(Map.Entry eldest) {
-                boolean removeEldest = size() > maxPages;
+        this.policyKind = policyKind;
+        int numShards = Math.max(1,
+                Math.min(DEFAULT_SHARDS, numPages / MIN_PAGES_PER_SHARD));
+        this.shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            int capacity = (numPages + numShards - 1) / numShards;
+            shards[i] = new Shard(policyKind.create(capacity));
+        }
+        this.lm = new LockManager();
+        setPrefetchDepth(DEFAULT_PREFETCH_PAGES);
 
-                if (((Page) eldest.getValue()).isDirty() != null)
-                    return false;
+    }
 
-                if (removeEldest) {
-                    // if we remove the page, flush it
-                    try {
-                        flushPage((PageId) eldest.getKey());
-                    } catch (IOException e) {
-                        System.err.println(e);
-                    }
-                }
+    /** @return the size of this pool in bytes */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** @return the replacement policy this pool was built with */
+    public ReplacementPolicy.Kind getPolicyKind() {
+        return policyKind;
+    }
+
+    /**
+     * @return the number of getPage calls answered from the pool, not
+     *   counting first uses of pages that were read ahead
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of getPage calls for pages that were not in the
+     *   pool, or that were only there because they had been read ahead
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /** @return the number of misses that were served by read-ahead */
+    public long getPrefetchCount() {
+        return prefetchCount.get();
+    }
+
+    /** @return the number of deadlocks broken by aborting a transaction */
+    public long getDeadlockCount() {
+        return lm.getDeadlockCount();
+    }
 
-                return removeEldest;
+    /**
+     * Sets how many pages sequential scans read ahead. The depth is capped
+     * at a quarter of the pool so that read-ahead cannot crowd out the
+     * pages it was meant for; 0 turns read-ahead off. Scans of files with
+     * larger pages read ahead as many bytes rather than as many pages.
+     *
+     * @param pages the number of PAGE_SIZE pages to read ahead
+     */
+    public void setPrefetchDepth(int pages) {
+        prefetchDepth = Math.max(0, Math.min(pages, maxPages / 4));
+    }
+
+    /** @return the number of pages sequential scans read ahead */
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    /**
+     * Turns STEAL mode on or off. In STEAL mode, pages dirtied by running
+     * transactions may be written out before commit: by the background
+     * flusher, or when every page in the pool is dirty and room is needed.
+     * Every such write is preceded by an UPDATE record in the log, which
+     * LogFile.rollback uses to undo the transaction if it aborts, so
+     * transactions must then be run through Transaction.
+     * <p>
+     * Commit still forces the transaction's remaining dirty pages to disk.
+     *
+     * @param steal true to allow uncommitted pages to be written
+     */
+    public void setSteal(boolean steal) {
+        this.steal = steal;
+    }
+
+    /** @return true if uncommitted pages may be written to disk */
+    public boolean isSteal() {
+        return steal;
+    }
+
+    /**
+     * Starts a background thread that writes out all dirty pages every
+     * intervalMillis milliseconds, so that commits find little left to
+     * flush. Only has an effect in STEAL mode; replaces any flusher that
+     * is already running.
+     *
+     * @param intervalMillis time between flushes
+     */
+    public synchronized void startFlusher(long intervalMillis) {
+        stopFlusher();
+        flusher = new Flusher(intervalMillis);
+        flusher.start();
+    }
+
+    /** Stops the background flusher, if one is running. */
+    public synchronized void stopFlusher() {
+        if (flusher != null) {
+            flusher.shutdown();
+            flusher = null;
+        }
+    }
+
+    /** Writes the pool's dirty pages in the background, in STEAL mode. */
+    private class Flusher extends Thread {
+        private final long intervalMillis;
+        private volatile boolean running = true;
+
+        Flusher(long intervalMillis) {
+            super("BufferPool flusher");
+            this.intervalMillis = intervalMillis;
+            setDaemon(true);
+        }
+
+        void shutdown() {
+            running = false;
+            interrupt();
+        }
+
+        public void run() {
+            while (running) {
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (!steal)
+                    continue;
+                try {
+                    writeDirtyPages(dirtyPages(null));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
-        });
-        this.lm = new LockManager();
+        }
+    }
 
+    private Shard shardFor(PageId pid) {
+        // pick the shard from the high bits of a scrambled hash; the low
+        // bits are what the shard's HashMap uses, and keys that all share
+        // them would pile up in a few buckets
+        int h = pid.hashCode() * 0x9E3779B9;
+        return shards[(h >>> 16) % shards.length];
     }
 
     /**
@@ -78,35 +316,306 @@ public class BufferPool {
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, false);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, noting
+     * whether the request is part of a sequential scan. Pages read for a
+     * sequential request are kept apart from the rest of the pool and are
+     * evicted first, so a large scan does not push out the pages other
+     * queries keep coming back to.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param sequential true if the page is requested by a sequential scan
+     * @see #getPage(TransactionId, PageId, Permissions)
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm,
+            boolean sequential)
+        throws TransactionAbortedException, DbException {
         // some code goes here
-        
-        // we dont need to check this anymore becuase have an eviction policy
-        //if (pool.size() >= maxPages)
-        //    throw new DbException("BufferPool has reached limit of " + maxPages);
         try {
             if(perm == Permissions.READ_WRITE)
                 lm.writeLock(tid, pid);
             else
                 lm.readLock(tid,pid);
         } catch (InterruptedException e) {
-            e.printStackTrace();
-            return null;
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
         }
+        return fetchPage(pid, sequential);
+    }
 
-        Page page = pool.get(pid);
+    /**
+     * Retrieve the page holding a record, locking just that record (and
+     * taking intention locks on its page and table) rather than the whole
+     * page, so that transactions working on different records of a page
+     * can run side by side. Past LockManager.ESCALATION_THRESHOLD record
+     * locks on one page, the page is locked instead. In STEAL mode, which
+     * undoes aborted transactions page by page from the log, the whole
+     * page is locked as by getPage(TransactionId, PageId, Permissions).
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param rid the record the transaction is going to read or change
+     * @param perm the requested permissions on the record
+     */
+    public Page getPage(TransactionId tid, RecordId rid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        if (steal)
+            return getPage(tid, rid.getPageId(), perm);
+        try {
+            lm.lockRecord(tid, rid, perm == Permissions.READ_WRITE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        }
+        return fetchPage(rid.getPageId(), false);
+    }
 
-        if (page != null) {
-            return page;
+    /**
+     * Retrieve a page to insert a tuple into. Only an intention lock is
+     * taken on the page; the slot to fill must then be claimed with
+     * lockFreeSlot. In STEAL mode the page is write locked instead.
+     *
+     * @param tid the ID of the inserting transaction
+     * @param pid the ID of the requested page
+     */
+    public Page getPageForInsert(TransactionId tid, PageId pid)
+        throws TransactionAbortedException, DbException {
+        if (steal)
+            return getPage(tid, pid, Permissions.READ_WRITE);
+        try {
+            lm.lockPage(tid, pid, LockManager.Mode.IX);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
         }
+        return fetchPage(pid, false);
+    }
 
+    /**
+     * Claims an empty slot for an insert by write locking its record,
+     * without waiting. A slot that looks empty may still belong to a
+     * transaction that deleted its tuple and has not finished yet.
+     *
+     * @return true if the slot may be filled by this transaction
+     */
+    public boolean lockFreeSlot(TransactionId tid, RecordId rid)
+        throws TransactionAbortedException {
+        if (steal)
+            return true;
+        try {
+            return lm.tryLockRecord(tid, rid);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        }
+    }
+
+    /** Returns the page from the pool, reading it in if needed; takes no locks. */
+    private Page fetchPage(PageId pid, boolean sequential) throws DbException {
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            Page page = shard.pages.get(pid);
+            if (page != null) {
+                recordHit(shard, pid);
+                touch(shard, pid, sequential);
+                return page;
+            }
+        }
+
+        // the page may be on its way in from the prefetcher
+        Future<?> pending = pendingReads.get(pid);
+        if (pending != null) {
+            try {
+                pending.get();
+            } catch (Exception e) {
+                // fall back to reading the page ourselves
+            }
+            synchronized (shard) {
+                Page page = shard.pages.get(pid);
+                if (page != null) {
+                    recordHit(shard, pid);
+                    touch(shard, pid, sequential);
+                    return page;
+                }
+            }
+        }
+        missCount.incrementAndGet();
+
+        // read outside the shard lock so that other pages of the shard stay
+        // available; if another thread raced us here its copy wins
         Catalog catalog = Database.getCatalog();
-        page = catalog.getDbFile(pid.getTableId()).readPage(pid);
-        if (!canEvictPage()) 
-            throw new DbException("Connot evict any pages");
-        pool.put(page.getId(), page);
+        Page page = catalog.getDbFile(pid.getTableId()).readPage(pid);
+        reserve(shard, sizeOf(page));
+        synchronized (shard) {
+            Page cached = shard.pages.get(pid);
+            if (cached != null) {
+                cachedBytes.addAndGet(-sizeOf(page));
+                shard.prefetched.remove(pid);
+                touch(shard, pid, sequential);
+                return cached;
+            }
+            shard.pages.put(pid, page);
+            if (sequential)
+                shard.probation.put(pid, pid);
+            else
+                shard.policy.pageAdded(pid);
+        }
         return page;
     }
 
+    /**
+     * Counts a getPage call answered from the pool. The first use of a page
+     * that was read ahead counts as a miss. The caller must hold the shard's
+     * monitor.
+     */
+    private void recordHit(Shard shard, PageId pid) {
+        if (shard.prefetched.remove(pid)) {
+            missCount.incrementAndGet();
+            prefetchCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a hit on a cached page. A non-sequential hit on a page that
+     * is on probation hands it over to the replacement policy. The caller
+     * must hold the shard's monitor.
+     */
+    private void touch(Shard shard, PageId pid, boolean sequential) {
+        if (shard.probation.containsKey(pid)) {
+            if (!sequential) {
+                shard.probation.remove(pid);
+                shard.policy.pageAdded(pid);
+            }
+        } else {
+            shard.policy.pageAccessed(pid);
+        }
+    }
+
+    /**
+     * Puts a page into the pool, replacing any cached copy of it.
+     */
+    private void cachePage(Page page) throws DbException {
+        PageId pid = page.getId();
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            if (shard.pages.containsKey(pid)) {
+                shard.pages.put(pid, page);
+                touch(shard, pid, false);
+                return;
+            }
+        }
+        reserve(shard, sizeOf(page));
+        synchronized (shard) {
+            Page old = shard.pages.put(pid, page);
+            if (old != null) {
+                cachedBytes.addAndGet(-sizeOf(old));
+                touch(shard, pid, false);
+            } else {
+                shard.policy.pageAdded(pid);
+            }
+        }
+    }
+
+    /** @return the number of bytes page takes up in the pool */
+    private static int sizeOf(Page page) {
+        return page instanceof HeapPage ? ((HeapPage) page).getPageSize() : PAGE_SIZE;
+    }
+
+    /**
+     * Claims room for a page of the given size, evicting until it fits.
+     *
+     * @param preferred the shard to try evicting from first
+     * @throws DbException if the pool is full of dirty pages
+     */
+    private void reserve(Shard preferred, int bytes) throws DbException {
+        while (true) {
+            long n = cachedBytes.get();
+            if (n + bytes <= maxBytes || n == 0) {
+                if (cachedBytes.compareAndSet(n, n + bytes))
+                    return;
+            } else {
+                evictPage(preferred, bytes);
+            }
+        }
+    }
+
+    /**
+     * Asks the prefetcher to read a page into the pool in the background.
+     * Does nothing if read-ahead is off or the page is cached or already
+     * being read. No locks are taken; the page is put on probation, and is
+     * dropped rather than cached if the pool has no room outside the pages
+     * of other sequential scans, or if a copy of the page was written or
+     * discarded while it was being read.
+     *
+     * @param pid the ID of the page to read
+     */
+    public void prefetch(final PageId pid) {
+        if (prefetchDepth == 0)
+            return;
+        final Shard shard = shardFor(pid);
+        final long epoch;
+        synchronized (shard) {
+            if (shard.pages.containsKey(pid))
+                return;
+            epoch = shard.writeEpoch;
+        }
+
+        FutureTask<Object> task = new FutureTask<Object>(new Runnable() {
+            public void run() {
+                try {
+                    Page page = Database.getCatalog().getDbFile(
+                            pid.getTableId()).readPage(pid);
+                    if (!reserveProbation(sizeOf(page)))
+                        return;
+                    synchronized (shard) {
+                        if (shard.writeEpoch != epoch || shard.pages.containsKey(pid)) {
+                            cachedBytes.addAndGet(-sizeOf(page));
+                            return;
+                        }
+                        shard.pages.put(pid, page);
+                        shard.probation.put(pid, pid);
+                        shard.prefetched.add(pid);
+                    }
+                } catch (RuntimeException e) {
+                    // the table went away or the page is past its end;
+                    // a demand read will report it if it matters
+                } finally {
+                    pendingReads.remove(pid);
+                }
+            }
+        }, null);
+        if (pendingReads.putIfAbsent(pid, task) == null)
+            prefetcher.execute(task);
+    }
+
+    /**
+     * Claims room for a prefetched page of the given size, evicting only
+     * pages on probation.
+     *
+     * @return false if there is no room to be had that way
+     */
+    private boolean reserveProbation(int bytes) {
+        while (true) {
+            long n = cachedBytes.get();
+            if (n + bytes <= maxBytes) {
+                if (cachedBytes.compareAndSet(n, n + bytes))
+                    return true;
+            } else {
+                boolean evicted = false;
+                for (int i = 0; i < shards.length && !evicted; i++)
+                    evicted = evictProbation(shards[i]);
+                if (!evicted)
+                    return false;
+            }
+        }
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -119,8 +628,7 @@ public class BufferPool {
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for proj1
-        lm.readUnlock(tid, pid);
-        lm.writeUnlock(tid, pid);
+        lm.unlock(tid, pid);
     }
 
     /**
@@ -138,7 +646,7 @@ public class BufferPool {
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for proj1
-        return (lm.holdsReadLock(tid, p) || lm.holdsWriteLock(tid, p));
+        return lm.heldMode(tid, p) != null;
     }
 
     /**
@@ -159,21 +667,94 @@ public class BufferPool {
             } catch (IOException e) {
                 e.printStackTrace();
             }
-        } else {
-            for(Page page : pool.values()) {
-                if (page.isDirty() == tid) {
-                    pool.put(page.getId(), page.getBeforeImage());
+        }
+
+        // changes made under record locks are undone tuple by tuple, since
+        // other transactions may have changed the same pages
+        List<Undo> undo = undoLogs.remove(tid);
+        HashSet<PageId> undone = new HashSet<PageId>();
+        if (!commit && undo != null) {
+            try {
+                undo(tid, undo, undone);
+            } catch (DbException e) {
+                throw new RuntimeException("cannot undo transaction " + tid.getId(), e);
+            }
+        }
+
+        // only pages the transaction holds write locks on can have been
+        // changed by it
+        for (PageId pid : lm.pagesLockedForWrite(tid)) {
+            Shard shard = shardFor(pid);
+            Page page;
+            synchronized (shard) {
+                page = shard.pages.get(pid);
+                if (page != null && !commit && tid.equals(page.isDirty())
+                    && !undone.contains(pid)) {
+                    Page before = page.getBeforeImage();
+                    shard.pages.put(pid, before);
                     page.markDirty(false, tid);
+                    noteFreeSpace(before);
                 }
             }
+            // the image just committed is what a later abort must go back to;
+            // under record locks, commitSlots has already folded in ours
+            if (page != null && commit && lm.heldMode(tid, pid) != LockManager.Mode.IX)
+                page.setBeforeImage();
         }
 
-        Iterator<Page> theIterator = this.pool.values().iterator();
-        while(theIterator.hasNext()) {
-            Page page = theIterator.next();
-            PageId pid = page.getId();
-            releasePage(tid, page.getId());
+        // release by what the lock manager recorded, not by what is cached:
+        // pages locked earlier may have been evicted since
+        lm.releaseAll(tid);
+    }
+
+    /**
+     * Reverses a transaction's inserts and deletes, newest first, and
+     * writes out the pages involved. Pages the transaction changed under
+     * record locks only get their committed image written, since other
+     * transactions may still have changes on them.
+     */
+    private void undo(TransactionId tid, List<Undo> undo, Set<PageId> undone)
+        throws DbException, IOException {
+        ArrayList<Page> pages = new ArrayList<Page>();
+        for (int i = undo.size() - 1; i >= 0; i--) {
+            Undo u = undo.get(i);
+            HeapPage page = (HeapPage) fetchPage(u.rid.getPageId(), false);
+            if (u.inserted) {
+                u.tuple.setRecordId(u.rid);
+                page.deleteTuple(u.tuple);
+            } else {
+                page.insertTuple(u.tuple, u.rid.tupleno());
+            }
+            page.markDirty(true, tid);
+            noteFreeSpace(page);
+            if (undone.add(page.getId()))
+                pages.add(page);
         }
+        HashMap<PageId, Collection<Integer>> committedOnly =
+            new HashMap<PageId, Collection<Integer>>();
+        for (Page page : pages) {
+            if (lm.heldMode(tid, page.getId()) == LockManager.Mode.IX)
+                committedOnly.put(page.getId(), Collections.<Integer>emptyList());
+        }
+        writeDirtyPages(pages, committedOnly);
+    }
+
+    /** Tells a HeapFile whether page has room after an abort changed it. */
+    private static void noteFreeSpace(Page page) {
+        DbFile file = Database.getCatalog().getDbFile(page.getId().getTableId());
+        if (file instanceof HeapFile)
+            ((HeapFile) file).noteFreeSpace((HeapPage) page);
+    }
+
+    private void logUndo(TransactionId tid, Undo u) {
+        List<Undo> undo = undoLogs.get(tid);
+        if (undo == null) {
+            undo = Collections.synchronizedList(new ArrayList<Undo>());
+            List<Undo> raced = undoLogs.putIfAbsent(tid, undo);
+            if (raced != null)
+                undo = raced;
+        }
+        undo.add(u);
     }
 
     /**
@@ -196,13 +777,21 @@ public class BufferPool {
         // not necessary for proj1
         assert tid != null;
         
-        ArrayList<Page> dirtyPages = Database.getCatalog().getDbFile(tableId).insertTuple(tid, t);
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        ArrayList<Page> dirtyPages = file.insertTuple(tid, t);
         for(Page page : dirtyPages) {
             assert tid != null;
             page.markDirty(true, tid);
             assert tid.equals(page.isDirty()) == true;
-            pool.put(page.getId(), page);
-            assert tid.equals(pool.get(page.getId()).isDirty()) == true;
+            cachePage(page);
+        }
+        if (!steal && file instanceof HeapFile)
+            logUndo(tid, new Undo(t.getRecordId(), t, true));
+        for (BTreeFile index : Database.getCatalog().getIndexes(tableId)) {
+            for (Page page : index.insertTuple(tid, t)) {
+                page.markDirty(true, tid);
+                cachePage(page);
+            }
         }
     }
 
@@ -223,10 +812,19 @@ public class BufferPool {
         throws DbException, TransactionAbortedException {
         // some code goes here
         // not necessary for proj1
-        int id = t.getRecordId().getPageId().getTableId();
-        Page page = Database.getCatalog().getDbFile(id).deleteTuple(tid, t);
+        RecordId rid = t.getRecordId();
+        DbFile file = Database.getCatalog().getDbFile(rid.getPageId().getTableId());
+        Page page = file.deleteTuple(tid, t);
         assert tid != null;
         page.markDirty(true, tid);
+        cachePage(page);
+        if (!steal && file instanceof HeapFile)
+            logUndo(tid, new Undo(rid, t, false));
+        for (BTreeFile index : Database.getCatalog().getIndexes(rid.getPageId().getTableId())) {
+            Page leaf = index.deleteTuple(tid, t);
+            leaf.markDirty(true, tid);
+            cachePage(leaf);
+        }
     }
 
     /**
@@ -234,20 +832,10 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for proj1
-
-        for (Page page : pool.values()) {
-            Catalog catalog = Database.getCatalog();
-            PageId pid = page.getId();
-            DbFile pageFile = catalog.getDbFile(pid.getTableId());
-            if (page.isDirty() != null) {
-                assert page.isDirty() != null;
-                page.markDirty(false, page.isDirty());
-                pageFile.writePage(page);
-            }
-        }
+        writeDirtyPages(dirtyPages(null));
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -255,67 +843,266 @@ public class BufferPool {
         buffer pool doesn't keep a rolled back page in its
         cache.
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
-        pool.remove(pid);
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            shard.writeEpoch++;
+            if (shard.pages.containsKey(pid)) {
+                if (!shard.probation.containsKey(pid))
+                    shard.policy.pageRemoved(pid);
+                dropPage(shard, pid);
+            }
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for proj1
-        Catalog catalog = Database.getCatalog();
-        DbFile pageFile = catalog.getDbFile(pid.getTableId());
-        Page page = pool.get(pid);
-        if (page.isDirty() != null) {
-            pageFile.writePage(page);
-            page.markDirty(false, page.isDirty());
+        Page page;
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            page = shard.pages.get(pid);
         }
+        if (page != null)
+            writeDirtyPages(Collections.singletonList(page));
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for proj1
+        writeDirtyPages(dirtyPages(tid), recordLockedSlots(tid));
+    }
+
+    /**
+     * @return the slots the transaction changed on each page it holds only
+     *   record locks on (IX on the page), from its undo list. Other
+     *   transactions may have uncommitted changes on those pages, so only
+     *   these slots of them can be written out for it.
+     */
+    private HashMap<PageId, Collection<Integer>> recordLockedSlots(TransactionId tid) {
+        HashMap<PageId, Collection<Integer>> slots = new HashMap<PageId, Collection<Integer>>();
+        for (PageId pid : lm.pagesLockedForWrite(tid)) {
+            if (lm.heldMode(tid, pid) == LockManager.Mode.IX)
+                slots.put(pid, new HashSet<Integer>());
+        }
+        List<Undo> undo = undoLogs.get(tid);
+        if (undo != null) {
+            synchronized (undo) {
+                for (Undo u : undo) {
+                    Collection<Integer> forPage = slots.get(u.rid.getPageId());
+                    if (forPage != null)
+                        forPage.add(u.rid.tupleno());
+                }
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Collects the dirty pages of every shard.
+     *
+     * @param tid only collect pages dirtied by this transaction, which are
+     *   found through its write locks, or all dirty pages if null
+     */
+    private ArrayList<Page> dirtyPages(TransactionId tid) {
         ArrayList<Page> pages = new ArrayList<Page>();
-        for(Page page : pool.values()) {
-            pages.add(page);
+        if (tid != null) {
+            for (PageId pid : lm.pagesLockedForWrite(tid)) {
+                Shard shard = shardFor(pid);
+                synchronized (shard) {
+                    // under record locks the last writer may be another
+                    // transaction, but the page holds our changes too;
+                    // see recordLockedSlots
+                    Page page = shard.pages.get(pid);
+                    if (page != null && page.isDirty() != null)
+                        pages.add(page);
+                }
+            }
+            return pages;
         }
-        for(int i = 0; i < pages.size(); i++) {
-            Page page = pages.get(i);
-            if(page.isDirty() == tid) {
-                flushPage(page.getId());
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (Page page : shard.pages.values()) {
+                    if (page.isDirty() != null)
+                        pages.add(page);
+                }
             }
         }
+        return pages;
     }
 
-    private synchronized boolean canEvictPage() {
-        if (pool.size() < maxPages)
-            return true;
+    /**
+     * Writes out a set of dirty pages. The pages are grouped by file, and
+     * HeapFiles get them in page order through HeapFile.writePages. In STEAL
+     * mode each page's update is logged first and the log forced before any
+     * page is written.
+     * <p>
+     * A page stays dirty, and so cannot be evicted, until its write is done.
+     * It is then marked clean only if it still matches what was written;
+     * otherwise its transaction changed it in the meantime and it stays
+     * dirty for the next flush. Flushes hold the pool's monitor, which
+     * orders them with each other and with LogFile's rollback.
+     */
+    private void writeDirtyPages(Collection<Page> pages) throws IOException {
+        writeDirtyPages(pages, null);
+    }
 
-        for(Page page : pool.values()) {
-            if(page.isDirty() == null)
-                return true;
-        }
+    /**
+     * Like writeDirtyPages(pages), but for the HeapPages with an entry in
+     * committedSlots only the committed image with those slots folded in
+     * is written; see HeapPage.commitSlots.
+     */
+    private void writeDirtyPages(Collection<Page> pages,
+            Map<PageId, Collection<Integer>> committedSlots) throws IOException {
+        if (pages.isEmpty())
+            return;
+        synchronized (this) {
+            boolean logged = false;
+            HashMap<Integer, TreeMap<Integer, byte[]>> images =
+                new HashMap<Integer, TreeMap<Integer, byte[]>>();
+            HashMap<Page, byte[]> written = new HashMap<Page, byte[]>();
+            ArrayList<Page> others = new ArrayList<Page>();
+
+            for (Page page : pages) {
+                int tableId = page.getId().getTableId();
+                DbFile file = Database.getCatalog().getDbFile(tableId);
+                byte[] data;
+                synchronized (page) {
+                    TransactionId dirtier = page.isDirty();
+                    if (dirtier == null)
+                        continue;
+                    if (steal) {
+                        Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
+                        logged = true;
+                    }
+                    Collection<Integer> slots = committedSlots == null ? null
+                        : committedSlots.get(page.getId());
+                    if (slots != null && page instanceof HeapPage)
+                        data = ((HeapPage) page).commitSlots(slots);
+                    else
+                        data = page.getPageData();
+                }
+                if (file instanceof HeapFile) {
+                    TreeMap<Integer, byte[]> forFile = images.get(tableId);
+                    if (forFile == null) {
+                        forFile = new TreeMap<Integer, byte[]>();
+                        images.put(tableId, forFile);
+                    }
+                    forFile.put(page.getId().pageNumber(), data);
+                } else {
+                    others.add(page);
+                }
+                written.put(page, data);
+            }
+            if (logged)
+                Database.getLogFile().force();
+
+            for (Map.Entry<Integer, TreeMap<Integer, byte[]>> e : images.entrySet()) {
+                HeapFile file = (HeapFile) Database.getCatalog().getDbFile(e.getKey());
+                file.writePages(e.getValue());
+            }
+            for (Page page : others)
+                Database.getCatalog().getDbFile(page.getId().getTableId()).writePage(page);
 
-        return false;
+            for (Map.Entry<Page, byte[]> e : written.entrySet()) {
+                Page page = e.getKey();
+                synchronized (page) {
+                    if (Arrays.equals(e.getValue(), page.getPageData()))
+                        page.markDirty(false, null);
+                }
+                // anything read from disk while the write was going on may
+                // be stale; see prefetch()
+                Shard shard = shardFor(page.getId());
+                synchronized (shard) {
+                    shard.writeEpoch++;
+                }
+            }
+        }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Discards a page from the buffer pool. Only clean pages are evicted.
+     * Pages on probation go first, oldest first; after that the victim is
+     * chosen by the shard's replacement policy. Either way the given shard
+     * is tried before the others.
+     *
+     * @param preferred the shard to evict from first
+     * @param bytes the size of the page that room is being made for
+     * @throws DbException if every cached page is dirty
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage(Shard preferred, int bytes) throws DbException {
         // some code goes here
         // not necessary for proj1
+        if (evictProbation(preferred))
+            return;
+        for (Shard shard : shards) {
+            if (shard != preferred && evictProbation(shard))
+                return;
+        }
+        if (evictFrom(preferred))
+            return;
+        for (Shard shard : shards) {
+            if (shard != preferred && evictFrom(shard))
+                return;
+        }
+        // another thread may have freed room in the meantime
+        if (cachedBytes.get() + bytes <= maxBytes)
+            return;
+        if (steal) {
+            // write everything out so that there are clean pages to evict
+            try {
+                writeDirtyPages(dirtyPages(null));
+            } catch (IOException e) {
+                throw new DbException("Cannot evict any pages: " + e);
+            }
+            for (Shard shard : shards) {
+                if (evictFrom(shard) || evictProbation(shard))
+                    return;
+            }
+        }
+        throw new DbException("Cannot evict any pages");
+    }
+
+    private boolean evictProbation(Shard shard) {
+        synchronized (shard) {
+            Iterator<PageId> it = shard.probation.keySet().iterator();
+            while (it.hasNext()) {
+                PageId pid = it.next();
+                if (shard.pages.get(pid).isDirty() == null) {
+                    dropPage(shard, pid);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private boolean evictFrom(Shard shard) {
+        synchronized (shard) {
+            PageId victim = shard.policy.victim(shard.pages);
+            if (victim == null)
+                return false;
+            dropPage(shard, victim);
+            return true;
+        }
+    }
 
-        // this method is not necessary due to my lru implementation
-        //pool.put(null, null);
-        //pool.remove(null);
+    /**
+     * Removes a page from a shard, apart from its replacement policy. The
+     * caller must hold the shard's monitor.
+     */
+    private void dropPage(Shard shard, PageId pid) {
+        Page page = shard.pages.remove(pid);
+        shard.probation.remove(pid);
+        shard.prefetched.remove(pid);
+        cachedBytes.addAndGet(-sizeOf(page));
     }
 
 }
@@ -0,0 +1,44 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream that reads from a ByteBuffer, starting at the buffer's
+ * position. Lets page constructors that parse with a DataInputStream read
+ * directly out of a (possibly memory mapped) buffer instead of a copy.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    private ByteBuffer buf;
+
+    public ByteBufferInputStream(ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    public int read() {
+        if (!buf.hasRemaining())
+            return -1;
+        return buf.get() & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) {
+        if (len == 0)
+            return 0;
+        if (!buf.hasRemaining())
+            return -1;
+        len = Math.min(len, buf.remaining());
+        buf.get(b, off, len);
+        return len;
+    }
+
+    public long skip(long n) {
+        int skipped = (int) Math.max(0, Math.min(n, buf.remaining()));
+        buf.position(buf.position() + skipped);
+        return skipped;
+    }
+
+    public int available() {
+        return buf.remaining();
+    }
+}
@@ -19,6 +19,9 @@ public class Catalog {
     private HashMap<Integer, String> nameMap = new HashMap<Integer, String>();
     private HashMap<Integer, String> pkMap = new HashMap<Integer, String>();
     private HashMap<String, Integer> idMap = new HashMap<String, Integer>();
+    private HashMap<Integer, BTreeFile> indexMap = new HashMap<Integer, BTreeFile>();
+    // the indexes of each table, by table id
+    private HashMap<Integer, List<BTreeFile>> tableIndexes = new HashMap<Integer, List<BTreeFile>>();
 
     /**
      * Constructor.
@@ -38,7 +41,9 @@ public class Catalog {
      * @param pkeyField the name of the primary key field
      */
     public void addTable(DbFile file, String name, String pkeyField) {
-        fileMap.put(file.getId(), file);
+        DbFile old = fileMap.put(file.getId(), file);
+        if (old != null && old != file)
+            old.close();
         nameMap.put(file.getId(), name);
         pkMap.put(file.getId(), pkeyField);
         idMap.put(name, file.getId());
@@ -59,6 +64,49 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Add an index to the catalog. The index's pages are read through
+     * getDbFile like a table's, and BufferPool.insertTuple and deleteTuple
+     * keep it up to date with its table, which must already be in the
+     * catalog.
+     */
+    public void addIndex(BTreeFile index) {
+        BTreeFile old = indexMap.put(index.getId(), index);
+        List<BTreeFile> l = tableIndexes.get(index.getTableId());
+        if (l == null) {
+            l = new ArrayList<BTreeFile>();
+            tableIndexes.put(index.getTableId(), l);
+        }
+        if (old != null && old != index) {
+            l.remove(old);
+            old.close();
+        }
+        if (!l.contains(index))
+            l.add(index);
+    }
+
+    /**
+     * Returns the indexes on the specified table; the list is empty if
+     * the table has none.
+     */
+    public List<BTreeFile> getIndexes(int tableid) {
+        List<BTreeFile> l = tableIndexes.get(tableid);
+        if (l == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableList(l);
+    }
+
+    /**
+     * Returns an index on the given field of the specified table, or null
+     * if the field is not indexed.
+     */
+    public BTreeFile getIndex(int tableid, int field) {
+        for (BTreeFile index : getIndexes(tableid))
+            if (index.getKeyField() == field)
+                return index;
+        return null;
+    }
+
     /**
      * Return the id of the table with a specified name,
      * @throws NoSuchElementException if the table doesn't exist
@@ -86,13 +134,15 @@ public class Catalog {
 
     /**
      * Returns the DbFile that can be used to read the contents of the
-     * specified table.
+     * specified table, or of the specified index.
      * @param tableid The id of the table, as specified by the DbFile.getId()
      *     function passed to addTable
      */
     public DbFile getDbFile(int tableid) throws NoSuchElementException {
         // some code goes here
         DbFile file = fileMap.get(tableid);
+        if (file == null)
+            file = indexMap.get(tableid);
 
         if (file == null)
             throw new NoSuchElementException();
@@ -115,9 +165,15 @@ public class Catalog {
         return nameMap.get(id);
     }
 
-    /** Delete all tables from the catalog */
+    /** Delete all tables and indexes from the catalog, closing their files */
     public void clear() {
         // some code goes here
+        for (DbFile file : fileMap.values())
+            file.close();
+        for (DbFile file : indexMap.values())
+            file.close();
+        indexMap.clear();
+        tableIndexes.clear();
         fileMap.clear();
         nameMap.clear();
         pkMap.clear();
@@ -126,6 +182,19 @@ public class Catalog {
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes one table:
+     * <pre>
+     *     name (field type [pk] [index], field type, ...) [mmap] [slotted] [pax] [compressed]
+     * </pre>
+     * where a field marked <code>index</code> gets a B+ tree index (see
+     * {@link BTreeFile}) stored in <code>name.field.idx</code> beside the
+     * table, which is built from the table if the file does not exist yet;
+     * the optional trailing <code>mmap</code> reads the table's pages
+     * through memory mappings of its file (see {@link HeapFile#HeapFile(File, TupleDesc, boolean)}),
+     * and <code>slotted</code> says the table's file holds SlottedPages (see
+     * {@link SlottedFile}) rather than HeapPages, <code>pax</code> that
+     * it holds PaxPages (see {@link PaxFile}), and <code>compressed</code>
+     * that it holds read-only CompressedPages (see {@link CompressedFile}).
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -135,7 +204,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
 
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [option ...]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -143,6 +212,7 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> indexed = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -154,22 +224,75 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("index"))
+                            indexed.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
                 }
+                // per-table storage options follow the field list
+                boolean memoryMapped = false;
+                boolean slotted = false;
+                boolean pax = false;
+                boolean compressed = false;
+                for (String option : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (option.length() == 0)
+                        continue;
+                    if (option.toLowerCase().equals("mmap"))
+                        memoryMapped = true;
+                    else if (option.toLowerCase().equals("slotted"))
+                        slotted = true;
+                    else if (option.toLowerCase().equals("pax"))
+                        pax = true;
+                    else if (option.toLowerCase().equals("compressed"))
+                        compressed = true;
+                    else {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
+                // BTreeFile only indexes heap files
+                if (!indexed.isEmpty() && (slotted || pax || compressed)) {
+                    System.out.println("Indexes are only supported on heap tables: " + name);
+                    System.exit(0);
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File tableFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (slotted)
+                    tabHf = new SlottedFile(tableFile, t);
+                else if (pax)
+                    tabHf = new PaxFile(tableFile, t);
+                else if (compressed)
+                    tabHf = new CompressedFile(tableFile, t);
+                else
+                    tabHf = new HeapFile(tableFile, t, memoryMapped);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (int field : indexed) {
+                    File indexFile = new File(baseFolder + "/" + name + "."
+                            + namesAr[field] + ".idx");
+                    boolean build = !indexFile.exists();
+                    BTreeFile index = new BTreeFile(indexFile, tabHf, field);
+                    addIndex(index);
+                    if (build)
+                        index.build();
+                    System.out.println("Added index on " + name + "." + namesAr[field]);
+                }
             }
+        } catch (DbException e) {
+            e.printStackTrace();
+            System.exit(0);
+        } catch (TransactionAbortedException e) {
+            e.printStackTrace();
+            System.exit(0);
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
@@ -0,0 +1,70 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CLOCK replacement. Pages sit on a ring with a reference bit that is set
+ * whenever they are accessed. The hand sweeps the ring, clearing set bits,
+ * and evicts the first clean page whose bit is already clear. A hit only
+ * sets a bit, and each eviction clears at most one bit per page it passes,
+ * so eviction is amortized O(1).
+ * <p>
+ * The ring is a queue whose head is the hand: a page that gets a second
+ * chance moves to the tail. Removed pages are flagged and dropped when the
+ * hand reaches them.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private static class Entry {
+        final PageId pid;
+        boolean referenced;
+        boolean removed;
+
+        Entry(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    private HashMap<PageId, Entry> entries = new HashMap<PageId, Entry>();
+    private LinkedList<Entry> ring = new LinkedList<Entry>();
+
+    public void pageAdded(PageId pid) {
+        Entry e = new Entry(pid);
+        Entry old = entries.put(pid, e);
+        if (old != null)
+            old.removed = true;
+        ring.add(e);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Entry e = entries.get(pid);
+        if (e != null)
+            e.referenced = true;
+    }
+
+    public void pageRemoved(PageId pid) {
+        Entry e = entries.remove(pid);
+        if (e != null)
+            e.removed = true;
+    }
+
+    public PageId victim(Map<PageId, Page> resident) {
+        // two full turns clear every reference bit; after that only dirty
+        // pages can be left
+        int budget = 2 * ring.size();
+        while (budget-- > 0) {
+            Entry e = ring.poll();
+            if (e.removed)
+                continue;
+            Page page = resident.get(e.pid);
+            if (e.referenced || (page != null && page.isDirty() != null)) {
+                e.referenced = false;
+                ring.add(e);
+                continue;
+            }
+            entries.remove(e.pid);
+            return e.pid;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * A simplified CLOCK-Pro replacement policy. Resident pages are either hot
+ * or cold, and each kind has its own clock:
+ * <ul>
+ * <li>A page enters cold and starts a test period. If it is accessed again
+ *     while still in its test period it has shown a short reuse distance
+ *     and is promoted to hot.</li>
+ * <li>Victims are always cold pages. A cold page that is evicted during its
+ *     test period is remembered as a non-resident test entry; if it is
+ *     faulted back in before that entry expires it comes back hot.</li>
+ * <li>The hot clock demotes unreferenced hot pages to cold whenever there
+ *     are more hot pages than the current hot target.</li>
+ * </ul>
+ * The cold target adapts the way CLOCK-Pro's does: it grows on every
+ * re-fault of a test entry and shrinks when a test entry expires unused.
+ * Pages touched once, such as those of a large scan, therefore never push
+ * out hot pages.
+ * <p>
+ * Unlike the original, test periods end when the page is given its second
+ * chance on the cold clock rather than when the hot hand passes it, and the
+ * clocks are queues like in ClockPolicy.
+ */
+public class ClockProPolicy implements ReplacementPolicy {
+
+    private static class Entry {
+        final PageId pid;
+        boolean hot;
+        boolean referenced;
+        boolean test;
+        boolean removed;
+
+        Entry(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    private final int capacity;
+    private int coldTarget;
+    private int hotCount;
+    private int coldCount;
+
+    private HashMap<PageId, Entry> resident = new HashMap<PageId, Entry>();
+    private LinkedList<Entry> hotRing = new LinkedList<Entry>();
+    private LinkedList<Entry> coldRing = new LinkedList<Entry>();
+    /** Evicted cold pages still in their test period, oldest first. */
+    private LinkedHashMap<PageId, Entry> nonResident =
+        new LinkedHashMap<PageId, Entry>();
+
+    /**
+     * @param capacity the number of pages this policy is expected to hold;
+     *   also bounds the number of non-resident test entries
+     */
+    public ClockProPolicy(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.coldTarget = Math.max(1, this.capacity / 2);
+    }
+
+    public void pageAdded(PageId pid) {
+        Entry old = resident.remove(pid);
+        if (old != null)
+            forget(old);
+
+        Entry e = nonResident.remove(pid);
+        if (e != null) {
+            // re-fault within the test period
+            coldTarget = Math.min(capacity, coldTarget + 1);
+            e.hot = true;
+            e.test = false;
+            e.referenced = false;
+            e.removed = false;
+            resident.put(pid, e);
+            hotRing.add(e);
+            hotCount++;
+            while (hotCount > capacity - coldTarget && demoteHot())
+                ;
+            return;
+        }
+
+        e = new Entry(pid);
+        e.test = true;
+        resident.put(pid, e);
+        coldRing.add(e);
+        coldCount++;
+    }
+
+    public void pageAccessed(PageId pid) {
+        Entry e = resident.get(pid);
+        if (e != null)
+            e.referenced = true;
+    }
+
+    public void pageRemoved(PageId pid) {
+        Entry e = resident.remove(pid);
+        if (e != null)
+            forget(e);
+        nonResident.remove(pid);
+    }
+
+    public PageId victim(Map<PageId, Page> pages) {
+        // number of dirty cold pages seen in a row; once it reaches the
+        // number of cold pages, the cold clock has nothing left to offer
+        int dirty = 0;
+        while (true) {
+            if (coldRing.isEmpty() || dirty >= coldCount) {
+                // no cold candidates left: move a hot page over
+                dirty = 0;
+                if (!demoteHot())
+                    return null;
+            }
+
+            Entry e = coldRing.poll();
+            if (e.removed)
+                continue;
+
+            if (e.referenced) {
+                e.referenced = false;
+                dirty = 0;
+                if (e.test) {
+                    e.hot = true;
+                    e.test = false;
+                    coldCount--;
+                    hotCount++;
+                    hotRing.add(e);
+                    while (hotCount > capacity - coldTarget && demoteHot())
+                        ;
+                } else {
+                    e.test = true;
+                    coldRing.add(e);
+                }
+                continue;
+            }
+
+            Page page = pages.get(e.pid);
+            if (page != null && page.isDirty() != null) {
+                coldRing.add(e);
+                dirty++;
+                continue;
+            }
+
+            resident.remove(e.pid);
+            coldCount--;
+            if (e.test) {
+                nonResident.put(e.pid, e);
+                if (nonResident.size() > capacity) {
+                    Iterator<Entry> it = nonResident.values().iterator();
+                    it.next();
+                    it.remove();
+                    coldTarget = Math.max(1, coldTarget - 1);
+                }
+            }
+            return e.pid;
+        }
+    }
+
+    /**
+     * Runs the hot clock until one unreferenced hot page has been turned
+     * cold.
+     *
+     * @return false if there are no hot pages
+     */
+    private boolean demoteHot() {
+        while (hotCount > 0) {
+            Entry e = hotRing.poll();
+            if (e.removed)
+                continue;
+            if (e.referenced) {
+                e.referenced = false;
+                hotRing.add(e);
+                continue;
+            }
+            e.hot = false;
+            e.test = false;
+            hotCount--;
+            coldCount++;
+            coldRing.add(e);
+            return true;
+        }
+        return false;
+    }
+
+    private void forget(Entry e) {
+        e.removed = true;
+        if (e.hot)
+            hotCount--;
+        else
+            coldCount--;
+    }
+}
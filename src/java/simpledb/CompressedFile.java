@@ -0,0 +1,66 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * CompressedFile is a read-only DbFile of CompressedPages, for large tables
+ * that are no longer changed and are read by scans. Compression fits more
+ * tuples into each BufferPool.PAGE_SIZE page, so a scan reads fewer pages
+ * than it would from a HeapFile; pages are decompressed as they are read.
+ * Pages are identified by HeapPageIds. Tables are created in this format
+ * by {@link HeapFileEncoder#convertCompressed}, and loaded with the
+ * <code>compressed</code> option in the catalog file.
+ *
+ * @see CompressedPage
+ */
+public class CompressedFile extends PagedFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a compressed file backed by the specified file.
+     */
+    public CompressedFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    Page createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new CompressedPage(pid, data);
+    }
+
+    Iterator<Tuple> pageIterator(Page page) {
+        return ((CompressedPage) page).iterator();
+    }
+
+    /**
+     * CompressedFiles are read-only; their pages are never dirtied, so the
+     * BufferPool never writes them back, and the file is only ever opened
+     * for reading.
+     *
+     * @throws IOException always
+     */
+    public void writePage(Page page) throws IOException {
+        throw new IOException("compressed tables are read-only");
+    }
+
+    /**
+     * CompressedFiles are read-only.
+     *
+     * @throws DbException always
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        throw new DbException("compressed tables are read-only");
+    }
+
+    /**
+     * CompressedFiles are read-only.
+     *
+     * @throws DbException always
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        throw new DbException("compressed tables are read-only");
+    }
+}
@@ -0,0 +1,284 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * CompressedPage is a read-only page of a CompressedFile. A page holds as
+ * many tuples as fit once each column is compressed on its own:
+ * <ul>
+ * <li>an int column is stored frame-of-reference: the smallest value on
+ * the page, then each value minus that smallest value, packed into just
+ * enough bits for the largest difference;</li>
+ * <li>a string column is dictionary encoded: the distinct strings on the
+ * page, then each value's index into them, packed into just enough bits
+ * for the largest index.</li>
+ * </ul>
+ * A column that has the same value in every row of a page thus takes no
+ * bits per row at all.
+ * <p>
+ * The page starts with a two-byte tuple count. Each column follows in
+ * order: for an int column a four-byte reference value, for a string
+ * column a two-byte dictionary size and the strings, each as a two-byte
+ * length and its characters; then, for either, a one-byte bit width and
+ * the packed values. The tuples are decoded when the page is read.
+ *
+ * @see CompressedFile
+ */
+public class CompressedPage implements Page {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final byte[] data;
+    final ArrayList<Tuple> tuples;
+
+    /**
+     * Create a CompressedPage from a set of bytes of data read from disk,
+     * in the format described in the class comment.
+     */
+    public CompressedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = data;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        int n = dis.readUnsignedShort();
+        tuples = new ArrayList<Tuple>(n);
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, i));
+            tuples.add(t);
+        }
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                long reference = dis.readInt();
+                long[] values = unpack(dis, n);
+                for (int i = 0; i < n; i++)
+                    tuples.get(i).setField(j, new IntField((int) (reference + values[i])));
+            } else {
+                StringField[] dictionary = new StringField[dis.readUnsignedShort()];
+                for (int k = 0; k < dictionary.length; k++) {
+                    byte[] bs = new byte[dis.readUnsignedShort()];
+                    dis.readFully(bs);
+                    dictionary[k] = new StringField(new String(bs), Type.STRING_LEN);
+                }
+                long[] codes = unpack(dis, n);
+                for (int i = 0; i < n; i++)
+                    tuples.get(i).setField(j, dictionary[(int) codes[i]]);
+            }
+        }
+    }
+
+    /** Number of bits needed to store values from 0 to max. */
+    static int bitWidth(long max) {
+        return 64 - Long.numberOfLeadingZeros(max);
+    }
+
+    /** Number of bytes n values of the given bit width pack into. */
+    static int packedSize(int n, int width) {
+        return (int) (((long) n * width + 7) / 8);
+    }
+
+    private static void pack(DataOutputStream dos, long[] values, int n, int width)
+            throws IOException {
+        dos.writeByte(width);
+        long buffer = 0;
+        int bits = 0;
+        for (int i = 0; i < n; i++) {
+            // width is at most 32, so this never overflows
+            buffer = (buffer << width) | values[i];
+            bits += width;
+            while (bits >= 8) {
+                bits -= 8;
+                dos.writeByte((int) (buffer >>> bits));
+            }
+        }
+        if (bits > 0)
+            dos.writeByte((int) (buffer << (8 - bits)));
+    }
+
+    private static long[] unpack(DataInputStream dis, int n) throws IOException {
+        int width = dis.readUnsignedByte();
+        long[] values = new long[n];
+        long buffer = 0;
+        int bits = 0;
+        long mask = (1L << width) - 1;
+        for (int i = 0; i < n; i++) {
+            while (bits < width) {
+                buffer = (buffer << 8) | dis.readUnsignedByte();
+                bits += 8;
+            }
+            bits -= width;
+            values[i] = (buffer >>> bits) & mask;
+        }
+        return values;
+    }
+
+    /**
+     * Collects tuples for one CompressedPage, keeping track of how large
+     * the compressed page would be.
+     */
+    static class Builder {
+        private final TupleDesc td;
+        private final int pageSize;
+        private final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        private final long[] min;
+        private final long[] max;
+        // for string columns, the index of each distinct string
+        private final ArrayList<Map<String, Integer>> dictionaries;
+        private final int[] dictionaryBytes;
+
+        Builder(TupleDesc td, int pageSize) {
+            this.td = td;
+            this.pageSize = pageSize;
+            min = new long[td.numFields()];
+            max = new long[td.numFields()];
+            dictionaries = new ArrayList<Map<String, Integer>>();
+            dictionaryBytes = new int[td.numFields()];
+            for (int j = 0; j < td.numFields(); j++)
+                dictionaries.add(new HashMap<String, Integer>());
+        }
+
+        boolean isEmpty() {
+            return tuples.isEmpty();
+        }
+
+        /**
+         * Adds t to the page if the page still fits in pageSize bytes with
+         * it.
+         *
+         * @return false if t does not fit
+         */
+        boolean add(Tuple t) {
+            int n = tuples.size() + 1;
+            if (n > 0xffff)
+                return false;
+            int size = 2;
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    long v = ((IntField) t.getField(j)).getValue();
+                    long lo = n == 1 ? v : Math.min(min[j], v);
+                    long hi = n == 1 ? v : Math.max(max[j], v);
+                    size += 4 + 1 + packedSize(n, bitWidth(hi - lo));
+                } else {
+                    String s = ((StringField) t.getField(j)).getValue();
+                    Map<String, Integer> dictionary = dictionaries.get(j);
+                    int entries = dictionary.size();
+                    int bytes = dictionaryBytes[j];
+                    if (!dictionary.containsKey(s)) {
+                        entries++;
+                        bytes += 2 + s.length();
+                    }
+                    size += 2 + bytes + 1 + packedSize(n, bitWidth(entries - 1));
+                }
+            }
+            if (size > pageSize)
+                return false;
+
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    long v = ((IntField) t.getField(j)).getValue();
+                    min[j] = n == 1 ? v : Math.min(min[j], v);
+                    max[j] = n == 1 ? v : Math.max(max[j], v);
+                } else {
+                    String s = ((StringField) t.getField(j)).getValue();
+                    Map<String, Integer> dictionary = dictionaries.get(j);
+                    if (!dictionary.containsKey(s)) {
+                        dictionary.put(s, dictionary.size());
+                        dictionaryBytes[j] += 2 + s.length();
+                    }
+                }
+            }
+            tuples.add(t);
+            return true;
+        }
+
+        /**
+         * Returns the compressed page of the tuples added so far, padded
+         * to pageSize bytes, and starts a new, empty page.
+         */
+        byte[] build() {
+            int n = tuples.size();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+            DataOutputStream dos = new DataOutputStream(baos);
+            try {
+                dos.writeShort(n);
+                long[] values = new long[n];
+                for (int j = 0; j < td.numFields(); j++) {
+                    if (td.getFieldType(j) == Type.INT_TYPE) {
+                        dos.writeInt((int) min[j]);
+                        for (int i = 0; i < n; i++)
+                            values[i] = ((IntField) tuples.get(i).getField(j)).getValue() - min[j];
+                        pack(dos, values, n, bitWidth(max[j] - min[j]));
+                    } else {
+                        Map<String, Integer> dictionary = dictionaries.get(j);
+                        String[] strings = new String[dictionary.size()];
+                        for (Map.Entry<String, Integer> e : dictionary.entrySet())
+                            strings[e.getValue()] = e.getKey();
+                        dos.writeShort(strings.length);
+                        for (String s : strings) {
+                            dos.writeShort(s.length());
+                            dos.writeBytes(s);
+                        }
+                        for (int i = 0; i < n; i++)
+                            values[i] = dictionary.get(
+                                    ((StringField) tuples.get(i).getField(j)).getValue());
+                        pack(dos, values, n, bitWidth(Math.max(strings.length - 1, 0)));
+                    }
+                }
+                dos.write(new byte[pageSize - baos.size()]);
+            } catch (IOException e) {
+                // writing to memory cannot fail
+                throw new RuntimeException(e);
+            }
+
+            tuples.clear();
+            for (int j = 0; j < td.numFields(); j++) {
+                dictionaries.get(j).clear();
+                dictionaryBytes[j] = 0;
+            }
+            return baos.toByteArray();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** CompressedPages are never changed, so this is the page itself. */
+    public CompressedPage getBeforeImage() {
+        return this;
+    }
+
+    public void setBeforeImage() {
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /** CompressedPages are never changed, so never dirty. */
+    public void markDirty(boolean dirty, TransactionId tid) {
+    }
+
+    public TransactionId isDirty() {
+        return null;
+    }
+
+    /**
+     * Returns the number of tuples on this page.
+     */
+    public int getNumTuples() {
+        return tuples.size();
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *         this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return Collections.unmodifiableList(tuples).iterator();
+    }
+}
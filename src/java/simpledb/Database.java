@@ -54,8 +54,25 @@ public class Database {
         return _instance._bufferpool;
     }
 
+    /** Method used for testing -- create a new instance of the
+        buffer pool with the given replacement policy and return it
+    */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Kind policy) {
+        _instance._bufferpool = new BufferPool(pages, policy);
+        return _instance._bufferpool;
+    }
+
+    /** Method used for testing -- create a new instance of the
+        buffer pool holding up to maxBytes bytes of pages and return it
+    */
+    public static BufferPool resetBufferPoolBytes(long maxBytes) {
+        _instance._bufferpool = BufferPool.withBytes(maxBytes, ReplacementPolicy.Kind.LRU);
+        return _instance._bufferpool;
+    }
+
     //reset the database, used for unit tests only.
     public static void reset() {
+    	_instance._catalog.clear();
     	_instance = new Database();
     }
 
@@ -84,4 +84,10 @@ public interface DbFile extends Serializable {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Releases any open file handles held by this DbFile. Called when the
+     * file is dropped from the {@link Catalog}.
+     */
+    public void close();
 }
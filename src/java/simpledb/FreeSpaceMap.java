@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * Remembers which pages of a HeapFile have empty slots, so that an insert
+ * can go straight to one instead of locking and reading every page in
+ * turn. The map is kept in a sidecar file next to the table, named after
+ * it with ".fsm" appended, holding the number of pages it covers followed
+ * by one bit per page.
+ * <p>
+ * The map is only a hint. Inserts check the page they are sent to, and
+ * correct the map if it was wrong. A sidecar that is missing or does not
+ * cover the table's pages is rebuilt by reading every page once.
+ */
+class FreeSpaceMap {
+    private final File file;
+    private final BitSet free;
+    private int numPages;
+    private boolean dirty;
+
+    private FreeSpaceMap(File file, BitSet free, int numPages) {
+        this.file = file;
+        this.free = free;
+        this.numPages = numPages;
+    }
+
+    /** Returns the sidecar file for the given table file. */
+    static File sidecarFor(File table) {
+        return new File(table.getPath() + ".fsm");
+    }
+
+    /**
+     * Loads the map of hf from its sidecar file, or rebuilds it from the
+     * pages on disk if the sidecar is missing or out of date.
+     */
+    static FreeSpaceMap open(HeapFile hf) throws IOException {
+        File file = sidecarFor(hf.getFile());
+        int pages = hf.numPages();
+        if (file.length() >= 4) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() == pages) {
+                    byte[] bits = new byte[(int) file.length() - 4];
+                    in.readFully(bits);
+                    return new FreeSpaceMap(file, BitSet.valueOf(bits), pages);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        FreeSpaceMap fsm = new FreeSpaceMap(file, new BitSet(pages), pages);
+        for (int i = 0; i < pages; i++) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            fsm.update(i, page.getNumEmptySlots() > 0);
+        }
+        fsm.dirty = true;
+        return fsm;
+    }
+
+    /**
+     * Returns the first page at or after from that may have an empty
+     * slot, or -1 if there is none.
+     */
+    synchronized int nextFree(int from) {
+        return free.nextSetBit(from);
+    }
+
+    /** Records whether page pgNo has empty slots. */
+    synchronized void update(int pgNo, boolean hasFree) {
+        if (pgNo >= numPages) {
+            numPages = pgNo + 1;
+            dirty = true;
+        }
+        if (free.get(pgNo) != hasFree) {
+            free.set(pgNo, hasFree);
+            dirty = true;
+        }
+    }
+
+    /** Writes the map to its sidecar file if it changed since the last write. */
+    synchronized void flush() throws IOException {
+        if (!dirty)
+            return;
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(numPages);
+            out.write(free.toByteArray());
+        } finally {
+            out.close();
+        }
+        dirty = false;
+    }
+}
@@ -1,9 +1,22 @@
 package simpledb;
 
+import java.io.*;
+import java.text.ParseException;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements an equality join as a hybrid hash
+ * join. The left child is the build side: its tuples go into a hash table
+ * on the join field, an IntHashTable when both join fields are ints, and
+ * each tuple of the right child is looked up in it.
+ * <p>
+ * If the build side holds more than a memory budget of tuples, both
+ * children are split by a hash of the join field into NUM_PARTITIONS
+ * partitions. Partition 0 stays in memory and is joined as the probe side
+ * streams past; the others are written to temporary files, build and
+ * probe side alike, and each pair of files is joined once afterwards. A
+ * build partition that is still over budget is split again with a
+ * different hash. Either way each child is read only once.
  */
 public class HashEquiJoin extends Operator {
 
@@ -11,13 +24,21 @@ public class HashEquiJoin extends Operator {
     private JoinPredicate pred;
     private DbIterator child1, child2;
     private TupleDesc comboTD;
-    transient private Tuple t1 = null;
+    private final int maxTuples;
     transient private Tuple t2 = null;
 
+    /** Default memory budget, in build tuples */
+    public final static int MAP_SIZE = 20000;
+    /** Number of partitions a build side over budget is split into */
+    public final static int NUM_PARTITIONS = 16;
+    // past this many splits of one partition, its values are too alike to
+    // separate, and the partition is joined a budget at a time instead
+    private final static int MAX_LEVEL = 4;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -26,9 +47,20 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor for a join with a memory budget other than MAP_SIZE.
+     *
+     * @param maxTuples
+     *            the most build tuples to hold in memory at once
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int maxTuples) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.maxTuples = maxTuples;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -39,7 +71,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -49,58 +81,416 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
+    /** A pair of spilled partitions, still to be joined. */
+    private static class Partition {
+        final File build;
+        final File probe;
+        final int buildCount;
+        final int probeCount;
+        final int level;
+
+        Partition(File build, int buildCount, File probe, int probeCount, int level) {
+            this.build = build;
+            this.buildCount = buildCount;
+            this.probe = probe;
+            this.probeCount = probeCount;
+            this.level = level;
+        }
+
+        void delete() {
+            build.delete();
+            probe.delete();
+        }
+    }
+
+    /** Tuples written to a temporary file, and read back in order. */
+    private static class SpillFile {
+        final File file;
+        final DataOutputStream out;
+        int count;
+
+        SpillFile() throws IOException {
+            file = File.createTempFile("hashjoin", ".tmp");
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            } catch (IOException e) {
+                file.delete();
+                throw e;
+            }
+        }
+
+        void write(Tuple t) throws IOException {
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+                t.getField(i).serialize(out);
+            count++;
+        }
+
+        /** Closes the file, if it is still being written, and deletes it. */
+        void delete() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // being deleted anyway
+            }
+            file.delete();
+        }
+    }
+
+    /** Reads back count tuples of td from a SpillFile. */
+    private static class SpillReader {
+        final DataInputStream in;
+        final TupleDesc td;
+        int left;
+
+        SpillReader(File f, int count, TupleDesc td) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            this.td = td;
+            this.left = count;
+        }
+
+        Tuple next() throws DbException {
+            if (left == 0)
+                return null;
+            left--;
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(in));
+            } catch (ParseException e) {
+                throw new DbException("cannot read hash join partition: " + e);
+            }
+            return t;
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // only read from
+            }
+        }
+    }
+
+    /** Partition of a join value at a given level of splitting. */
+    private static int partition(Field f, int level) {
+        int h = f.hashCode() * 31 + level;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return (h & 0x7fffffff) % NUM_PARTITIONS;
+    }
+
+    // the build tuples held in memory, and their hash table: an
+    // IntHashTable of row numbers in rows if both join fields are ints
+    transient private ArrayList<Tuple> rows;
+    transient private HashMap<Field, ArrayList<Tuple>> map;
+    transient private IntHashTable intMap;
+    // while the children are being read, the build and probe files of each
+    // partition; null for the partition held in memory
+    transient private SpillFile[] buildSpill;
+    transient private SpillFile[] probeSpill;
+    transient private LinkedList<Partition> pending;
+    // the probe side being read: child2 first, then spilled partitions
+    transient private SpillReader probeReader;
+    transient private Partition current;
+    // for a partition joined a budget at a time, what of it is left to load
+    transient private SpillReader buildReader;
+    // the build tuples matching t2 still to be joined with it
+    transient private Iterator<Tuple> listIt = null;
+    transient private int chain = -1;
+
+    private void add(Tuple t) {
+        Field f = t.getField(pred.getField1());
+        rows.add(t);
+        if (intMap != null) {
+            intMap.addRow(((IntField) f).getValue());
+            return;
+        }
+        ArrayList<Tuple> list = map.get(f);
+        if (list == null) {
+            list = new ArrayList<Tuple>();
+            map.put(f, list);
+        }
+        list.add(t);
+    }
+
+    private void clearMap() {
+        rows.clear();
+        if (intMap != null)
+            intMap.clear();
+        else
+            map.clear();
+    }
+
+    /**
+     * Reads the build side, keeping it in memory if it fits and spilling
+     * all but partition 0 otherwise.
+     */
+    private void build() throws DbException, TransactionAbortedException, IOException {
+        rows = new ArrayList<Tuple>();
+        if (child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE) {
+            intMap = new IntHashTable();
+            map = null;
+        } else {
+            map = new HashMap<Field, ArrayList<Tuple>>();
+            intMap = null;
+        }
+        pending = new LinkedList<Partition>();
+        buildSpill = null;
+        probeSpill = null;
         while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+            Tuple t = child1.next();
+            if (buildSpill == null) {
+                add(t);
+                if (rows.size() > maxTuples)
+                    startSpilling();
+                continue;
+            }
+            int part = partition(t.getField(pred.getField1()), 0);
+            if (buildSpill[part] != null) {
+                buildSpill[part].write(t);
+            } else {
+                add(t);
+                if (rows.size() > maxTuples) {
+                    // partition 0 alone is over budget: spill it too
+                    buildSpill[0] = new SpillFile();
+                    for (Tuple b : rows)
+                        buildSpill[0].write(b);
+                    clearMap();
+                }
+            }
+        }
+        if (buildSpill != null) {
+            probeSpill = new SpillFile[NUM_PARTITIONS];
+            for (int i = 0; i < NUM_PARTITIONS; i++) {
+                if (buildSpill[i] != null) {
+                    buildSpill[i].out.close();
+                    probeSpill[i] = new SpillFile();
+                }
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
         }
-        return cnt > 0;
+    }
 
+    /** Moves every build tuple outside partition 0 to its partition's file. */
+    private void startSpilling() throws IOException {
+        buildSpill = new SpillFile[NUM_PARTITIONS];
+        for (int i = 1; i < NUM_PARTITIONS; i++)
+            buildSpill[i] = new SpillFile();
+        ArrayList<Tuple> old = new ArrayList<Tuple>(rows);
+        clearMap();
+        for (Tuple t : old) {
+            int part = partition(t.getField(pred.getField1()), 0);
+            if (part == 0)
+                add(t);
+            else
+                buildSpill[part].write(t);
+        }
     }
 
+    /** Reads up to maxTuples tuples of buildReader into the hash table. */
+    private void loadChunk() throws DbException {
+        clearMap();
+        Tuple t;
+        while (rows.size() < maxTuples && (t = buildReader.next()) != null)
+            add(t);
+        if (buildReader.left == 0) {
+            buildReader.close();
+            buildReader = null;
+        }
+    }
+
+    /**
+     * Starts on the next spilled partition pair that has tuples on both
+     * sides, splitting it first if its build side is over budget.
+     *
+     * @return false if no partitions are left
+     */
+    private boolean nextPartition() throws DbException, IOException {
+        while (!pending.isEmpty()) {
+            Partition p = pending.removeFirst();
+            if (p.buildCount == 0 || p.probeCount == 0) {
+                p.delete();
+                continue;
+            }
+            if (p.buildCount > maxTuples && p.level < MAX_LEVEL) {
+                split(p);
+                continue;
+            }
+            current = p;
+            buildReader = new SpillReader(p.build, p.buildCount, child1.getTupleDesc());
+            loadChunk();
+            probeReader = new SpillReader(p.probe, p.probeCount, child2.getTupleDesc());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Splits a partition pair into NUM_PARTITIONS smaller pairs. If that
+     * fails, p and whatever was written of the new pairs are deleted.
+     */
+    private void split(Partition p) throws DbException, IOException {
+        int level = p.level + 1;
+        SpillFile[] build = new SpillFile[NUM_PARTITIONS];
+        SpillFile[] probe = new SpillFile[NUM_PARTITIONS];
+        SpillReader r = null;
+        boolean split = false;
+        try {
+            for (int i = 0; i < NUM_PARTITIONS; i++) {
+                build[i] = new SpillFile();
+                probe[i] = new SpillFile();
+            }
+            r = new SpillReader(p.build, p.buildCount, child1.getTupleDesc());
+            for (Tuple t; (t = r.next()) != null;)
+                build[partition(t.getField(pred.getField1()), level)].write(t);
+            r.close();
+            r = new SpillReader(p.probe, p.probeCount, child2.getTupleDesc());
+            for (Tuple t; (t = r.next()) != null;)
+                probe[partition(t.getField(pred.getField2()), level)].write(t);
+            r.close();
+            r = null;
+            for (int i = 0; i < NUM_PARTITIONS; i++) {
+                build[i].out.close();
+                probe[i].out.close();
+            }
+            split = true;
+        } finally {
+            p.delete();
+            if (!split) {
+                if (r != null)
+                    r.close();
+                for (SpillFile[] spill : new SpillFile[][] {build, probe})
+                    for (SpillFile f : spill)
+                        if (f != null)
+                            f.delete();
+            }
+        }
+        for (int i = 0; i < NUM_PARTITIONS; i++)
+            pending.addFirst(new Partition(build[i].file, build[i].count,
+                    probe[i].file, probe[i].count, level));
+    }
+
+    /** @return the next probe tuple to look up, or null if there are none left */
+    private Tuple nextProbe() throws DbException, TransactionAbortedException, IOException {
+        while (true) {
+            if (probeReader == null) {
+                // still reading child2: spill what belongs to spilled partitions
+                while (child2.hasNext()) {
+                    Tuple t = child2.next();
+                    if (probeSpill == null)
+                        return t;
+                    int part = partition(t.getField(pred.getField2()), 0);
+                    if (probeSpill[part] == null)
+                        return t;
+                    probeSpill[part].write(t);
+                }
+                if (probeSpill != null) {
+                    for (int i = 0; i < NUM_PARTITIONS; i++) {
+                        if (probeSpill[i] == null)
+                            continue;
+                        probeSpill[i].out.close();
+                        pending.add(new Partition(buildSpill[i].file, buildSpill[i].count,
+                                probeSpill[i].file, probeSpill[i].count, 0));
+                    }
+                    probeSpill = null;
+                    buildSpill = null;
+                }
+            } else {
+                Tuple t = probeReader.next();
+                if (t != null)
+                    return t;
+                probeReader.close();
+                if (buildReader != null) {
+                    // the next budget's worth of build tuples, against the
+                    // whole probe partition again
+                    loadChunk();
+                    probeReader = new SpillReader(current.probe, current.probeCount,
+                            child2.getTupleDesc());
+                    continue;
+                }
+                current.delete();
+                current = null;
+            }
+            if (!nextPartition())
+                return null;
+        }
+    }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        buildOrCleanUp();
+        super.open();
+    }
+
+    /** Runs build, deleting any partitions it spilled if it fails. */
+    private void buildOrCleanUp() throws DbException, TransactionAbortedException {
+        boolean built = false;
+        try {
+            build();
+            built = true;
+        } catch (IOException e) {
+            throw new DbException("cannot spill hash join partitions: " + e);
+        } finally {
+            if (!built)
+                cleanUp();
+        }
+    }
+
+    /** Deletes every temporary file still held. */
+    private void cleanUp() {
+        if (buildReader != null)
+            buildReader.close();
+        if (probeReader != null)
+            probeReader.close();
+        if (current != null)
+            current.delete();
+        if (pending != null)
+            for (Partition p : pending)
+                p.delete();
+        for (SpillFile[] spill : new SpillFile[][] {buildSpill, probeSpill}) {
+            if (spill == null)
+                continue;
+            for (SpillFile f : spill) {
+                if (f != null)
+                    f.delete();
+            }
+        }
+        buildReader = null;
+        probeReader = null;
+        current = null;
+        pending = null;
+        buildSpill = null;
+        probeSpill = null;
+        rows = null;
+        map = null;
+        intMap = null;
+        listIt = null;
+        chain = -1;
+        t2 = null;
     }
 
     public void close() {
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        cleanUp();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        cleanUp();
         child1.rewind();
         child2.rewind();
+        buildOrCleanUp();
     }
 
-    transient Iterator<Tuple> listIt = null;
-
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * satisfies the join predicate.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -110,12 +500,11 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
+    private Tuple processList(Tuple t1) {
 
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
@@ -127,36 +516,49 @@ public class HashEquiJoin extends Operator {
         for (int i = 0; i < td2n; i++)
             t.setField(td1n + i, t2.getField(i));
         return t;
-
     }
 
-
-    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
+    /** @return the next build tuple matching t2, or null if there are none left */
+    private Tuple nextMatch() {
+        if (chain != -1) {
+            Tuple t1 = rows.get(chain);
+            chain = intMap.nextRow(chain);
+            return t1;
         }
+        if (listIt != null && listIt.hasNext())
+            return listIt.next();
+        return null;
+    }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        Tuple t1 = nextMatch();
+        if (t1 != null)
+            return processList(t1);
+        if (rows == null)
+            return null;
+        try {
+            while ((t2 = nextProbe()) != null) {
+                Field f = t2.getField(pred.getField2());
+                if (intMap != null) {
+                    chain = intMap.firstRow(((IntField) f).getValue());
+                } else {
+                    ArrayList<Tuple> l = map.get(f);
+                    listIt = l == null ? null : l.iterator();
+                }
+                t1 = nextMatch();
+                if (t1 != null)
+                    return processList(t1);
+            }
+        } catch (IOException e) {
+            cleanUp();
+            throw new DbException("cannot spill hash join partitions: " + e);
+        } catch (DbException e) {
+            cleanUp();
+            throw e;
+        } catch (TransactionAbortedException e) {
+            cleanUp();
+            throw e;
         }
-
         return null;
     }
 
@@ -170,6 +572,6 @@ public class HashEquiJoin extends Operator {
         this.child1 = children[0];
         this.child2 = children[1];
     }
-    
+
 
 }
@@ -1,6 +1,10 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -9,14 +13,59 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Pages are BufferPool.PAGE_SIZE bytes unless the file says otherwise. A
+ * file with another page size starts with a FILE_HEADER_SIZE byte header
+ * holding HEADER_MAGIC, the format version and the page size; its pages
+ * follow the header. Files of BufferPool.PAGE_SIZE pages have no header,
+ * so they keep the original layout.
  *
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    /** Number of pages covered by one memory mapped region of the file. */
+    static final int MAP_CHUNK_PAGES = 256;
+
+    /** Most pages written by a single gathering write in writePages. */
+    static final int MAX_WRITE_RUN = 64;
+
+    /**
+     * Bytes taken by the header of a file whose pages are not
+     * BufferPool.PAGE_SIZE bytes; one default page, so that the pages after
+     * it stay aligned to disk blocks.
+     */
+    public static final int FILE_HEADER_SIZE = 4096;
+
+    /** First four bytes of a file header. */
+    static final int HEADER_MAGIC = 0x53444248;
+
+    /** Smallest and largest page sizes a file header may give. */
+    public static final int MIN_PAGE_SIZE = 512;
+    public static final int MAX_PAGE_SIZE = 1 << 20;
+
     private File f;
     private TupleDesc td;
+    private boolean memoryMapped;
+    private int pageSize;
+    // FILE_HEADER_SIZE if the file has a header, else 0
+    private long headerBytes;
+
+    // opened lazily on first page access and kept until close(); every
+    // reader and writer of this file shares it. It is opened read-only
+    // until the first write, so that read-only files can be scanned.
+    private transient RandomAccessFile raf;
+    private transient FileChannel channel;
+    private transient boolean writable;
+
+    // read-only mappings of the file, MAP_CHUNK_PAGES pages each, created on
+    // demand when memoryMapped is set. A chunk mapped while it was the tail
+    // of the file covers fewer pages, and is remapped once the file grows.
+    private transient volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+    // pages with empty slots, loaded by the first insert or delete
+    private transient volatile FreeSpaceMap freeSpace;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -26,9 +75,121 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            if true, pages are read through read-only memory mappings of
+     *            the file rather than copied in with a read call. Suits
+     *            read-mostly tables that are scanned over and over.
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
         // some code goes here
         this.f = f;
         this.td = td;
+        this.memoryMapped = memoryMapped;
+        this.pageSize = BufferPool.PAGE_SIZE;
+        try {
+            readHeader();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Constructs a heap file of pageSize byte pages backed by the specified
+     * file. An empty file gets a header giving the page size; a file that
+     * is not empty must already have pages of that size.
+     *
+     * @throws IllegalArgumentException if pageSize is out of range, or the
+     *   file has pages of another size
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
+        this(f, td, false);
+        if (pageSize == this.pageSize)
+            return;
+        checkPageSize(pageSize);
+        if (f.length() > 0)
+            throw new IllegalArgumentException(f + " has " + this.pageSize + " byte pages");
+        try {
+            OutputStream os = new FileOutputStream(f);
+            writeHeader(os, pageSize);
+            os.close();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        this.pageSize = pageSize;
+        this.headerBytes = FILE_HEADER_SIZE;
+    }
+
+    /** @return true for powers of two from MIN_PAGE_SIZE to MAX_PAGE_SIZE */
+    private static boolean isValidPageSize(int pageSize) {
+        return pageSize >= MIN_PAGE_SIZE && pageSize <= MAX_PAGE_SIZE
+            && Integer.bitCount(pageSize) == 1;
+    }
+
+    private static void checkPageSize(int pageSize) {
+        if (!isValidPageSize(pageSize))
+            throw new IllegalArgumentException("bad page size " + pageSize);
+    }
+
+    /**
+     * Writes the header of a file of pageSize byte pages to os, or nothing
+     * if pageSize is BufferPool.PAGE_SIZE.
+     */
+    static void writeHeader(OutputStream os, int pageSize) throws IOException {
+        if (pageSize == BufferPool.PAGE_SIZE)
+            return;
+        checkPageSize(pageSize);
+        DataOutputStream dos = new DataOutputStream(os);
+        dos.writeInt(HEADER_MAGIC);
+        dos.writeInt(1);
+        dos.writeInt(pageSize);
+        dos.write(new byte[FILE_HEADER_SIZE - 12]);
+        dos.flush();
+    }
+
+    /**
+     * Takes the page size from the file's header, if it has one. A file
+     * without a header starts with a page, whose first bytes could in
+     * principle spell out a header; the file is only taken to have one if
+     * the page size is valid and the rest of the file is whole pages.
+     */
+    private void readHeader() throws IOException {
+        long length = f.length();
+        if (length < FILE_HEADER_SIZE)
+            return;
+        DataInputStream dis = new DataInputStream(new FileInputStream(f));
+        try {
+            int magic = dis.readInt();
+            int version = dis.readInt();
+            int size = dis.readInt();
+            if (magic != HEADER_MAGIC || version != 1 || size == BufferPool.PAGE_SIZE
+                    || !isValidPageSize(size) || (length - FILE_HEADER_SIZE) % size != 0)
+                return;
+            pageSize = size;
+            headerBytes = FILE_HEADER_SIZE;
+        } finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * @return the number of bytes in each page of this file
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /** @return the position of page pgNo in the file */
+    private long pageOffset(int pgNo) {
+        return headerBytes + (long) pgNo * pageSize;
     }
 
     /**
@@ -41,6 +202,13 @@ public class HeapFile implements DbFile {
         return f;
     }
 
+    /**
+     * @return true if pages of this file are read through memory mappings.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere ensure that each
@@ -68,35 +236,255 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        RandomAccessFile fp;
-
+        HeapPageId id = new HeapPageId(pid.getTableId(), pid.pageNumber());
         try {
-            fp = new RandomAccessFile(f, "r");
-        } catch(java.io.FileNotFoundException e) {
-            throw new IllegalArgumentException();
-        }
+            if (memoryMapped) {
+                ByteBuffer mapped = mappedPage(pid.pageNumber());
+                if (mapped != null)
+                    return new HeapPage(id, mapped);
+            }
 
-        try {
-            byte[] page = new byte[BufferPool.PAGE_SIZE];
-            fp.seek(BufferPool.PAGE_SIZE * pid.pageNumber());
-            fp.read(page, 0, BufferPool.PAGE_SIZE);
-            fp.close();
-            return new HeapPage(
-                new HeapPageId(pid.getTableId(), pid.pageNumber()), page);
+            byte[] page = new byte[pageSize];
+            readFully(ByteBuffer.wrap(page), pageOffset(pid.pageNumber()));
+            return new HeapPage(id, page);
         } catch(IOException e) {
-            throw new IllegalArgumentException();
+            throw new IllegalArgumentException(e);
         }
     }
 
+    /**
+     * Returns a view of page pgNo inside the memory mapped chunk that covers
+     * it, mapping or remapping that chunk first if needed. Returns null if
+     * the page does not lie wholly inside the file, in which case the caller
+     * falls back to an ordinary read.
+     */
+    private ByteBuffer mappedPage(int pgNo) throws IOException {
+        int chunk = pgNo / MAP_CHUNK_PAGES;
+        int start = (pgNo % MAP_CHUNK_PAGES) * pageSize;
+        int end = start + pageSize;
+
+        MappedByteBuffer[] mapped = chunks;
+        MappedByteBuffer m = chunk < mapped.length ? mapped[chunk] : null;
+        if (m == null || m.capacity() < end) {
+            m = mapChunk(chunk);
+            if (m.capacity() < end)
+                return null;
+        }
+
+        // duplicate so that concurrent readers each get their own position
+        ByteBuffer page = m.duplicate();
+        page.limit(end);
+        page.position(start);
+        return page.slice();
+    }
+
+    /**
+     * Maps chunk number chunk, covering as much of it as the file currently
+     * holds, and records the mapping for later readers.
+     */
+    private synchronized MappedByteBuffer mapChunk(int chunk) throws IOException {
+        long chunkBytes = (long) MAP_CHUNK_PAGES * pageSize;
+        long chunkStart = headerBytes + chunk * chunkBytes;
+        FileChannel ch = getChannel(false);
+        long size = Math.max(0, Math.min(chunkBytes, ch.size() - chunkStart));
+
+        MappedByteBuffer[] mapped = chunks;
+        if (chunk < mapped.length && mapped[chunk] != null
+                && mapped[chunk].capacity() >= size)
+            return mapped[chunk]; // another thread got here first
+
+        MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY, chunkStart, size);
+        MappedByteBuffer[] grown = new MappedByteBuffer[Math.max(chunk + 1, mapped.length)];
+        System.arraycopy(mapped, 0, grown, 0, mapped.length);
+        grown[chunk] = m;
+        mapped = grown;
+        chunks = mapped;
+        return m;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for proj1
-        int offset = page.getId().pageNumber() * BufferPool.PAGE_SIZE;
-        RandomAccessFile file = new RandomAccessFile(f, "rw");
-        file.seek(offset);
-        file.write(page.getPageData());
-        file.close();
+        writeFully(ByteBuffer.wrap(page.getPageData()), pageOffset(page.getId().pageNumber()));
+        flushFreeSpace();
+    }
+
+    /**
+     * Writes a batch of pages of this file. The pages are sorted by page
+     * number and each run of consecutive pages goes out in one gathering
+     * write, so flushing many pages costs a few large writes rather than
+     * one small write per page.
+     *
+     * @param pages the pages to write, in any order
+     */
+    public void writePages(Collection<? extends Page> pages) throws IOException {
+        TreeMap<Integer, byte[]> images = new TreeMap<Integer, byte[]>();
+        for (Page page : pages)
+            images.put(page.getId().pageNumber(), page.getPageData());
+        writePages(images);
+    }
+
+    /**
+     * Like writePages(Collection), for page images that were serialized
+     * earlier.
+     *
+     * @param images page contents keyed by page number
+     */
+    public void writePages(SortedMap<Integer, byte[]> images) throws IOException {
+        ArrayList<ByteBuffer> run = new ArrayList<ByteBuffer>(MAX_WRITE_RUN);
+        int runStart = 0;
+        for (Map.Entry<Integer, byte[]> e : images.entrySet()) {
+            int pgNo = e.getKey();
+            if (!run.isEmpty() && (pgNo != runStart + run.size() || run.size() == MAX_WRITE_RUN)) {
+                writeRun(run.toArray(new ByteBuffer[run.size()]), pageOffset(runStart));
+                run.clear();
+            }
+            if (run.isEmpty())
+                runStart = pgNo;
+            run.add(ByteBuffer.wrap(e.getValue()));
+        }
+        if (!run.isEmpty())
+            writeRun(run.toArray(new ByteBuffer[run.size()]), pageOffset(runStart));
+        flushFreeSpace();
+    }
+
+    /**
+     * Returns the free-space map of this file, loading or rebuilding it on
+     * first use.
+     */
+    private synchronized FreeSpaceMap freeSpace() throws IOException {
+        if (freeSpace == null)
+            freeSpace = FreeSpaceMap.open(this);
+        return freeSpace;
+    }
+
+    /**
+     * Records in the free-space map whether page has empty slots. Called
+     * wherever a page's slots change other than through insertTuple and
+     * deleteTuple, such as when an abort puts back an earlier image.
+     */
+    void noteFreeSpace(HeapPage page) {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null)
+            fsm.update(page.getId().pageNumber(), page.getNumEmptySlots() > 0);
+    }
+
+    // the map goes out with the pages, so it is as current on disk as they are
+    private void flushFreeSpace() throws IOException {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null)
+            fsm.flush();
+    }
+
+    /**
+     * Writes the buffers back to back starting at the given file position.
+     * Gathering writes go through the channel's own position, so they are
+     * serialized on this file; positional reads and writes are unaffected.
+     */
+    private synchronized void writeRun(ByteBuffer[] run, long position) throws IOException {
+        long total = 0;
+        for (ByteBuffer b : run)
+            total += b.remaining();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                FileChannel ch = getChannel(true);
+                long written = 0;
+                for (ByteBuffer b : run)
+                    written += b.position();
+                ch.position(position + written);
+                while (written < total)
+                    written += ch.write(run);
+                return;
+            } catch (ClosedChannelException e) {
+                if (attempt > 0 || Thread.currentThread().isInterrupted())
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns the channel used for page I/O, opening it if this is the first
+     * access or the file was closed. Positional reads and writes on a
+     * FileChannel never touch the channel's own position, so many threads
+     * can use the returned channel at once.
+     *
+     * @param write true if the channel is to be written to; a read-only
+     *   channel is then closed and the file reopened for writing, and
+     *   readers still using the old channel retry on the new one
+     */
+    private synchronized FileChannel getChannel(boolean write) throws IOException {
+        if (channel != null && channel.isOpen() && write && !writable)
+            closeChannel();
+        if (channel == null || !channel.isOpen()) {
+            raf = new RandomAccessFile(f, write ? "rw" : "r");
+            channel = raf.getChannel();
+            writable = write;
+        }
+        return channel;
+    }
+
+    /**
+     * Reads into buf from the given file position until buf is full or the
+     * end of the file is reached; anything past the end is left zeroed.
+     * <p>
+     * An interrupted thread closes a FileChannel for everybody using it, so
+     * a reader that finds the channel closed underneath it retries once on a
+     * freshly opened channel.
+     */
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                while (buf.hasRemaining()) {
+                    if (getChannel(false).read(buf, position + buf.position()) < 0)
+                        break;
+                }
+                return;
+            } catch (ClosedChannelException e) {
+                if (attempt > 0 || Thread.currentThread().isInterrupted())
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes all of buf at the given file position, with the same retry
+     * behaviour as {@link #readFully}.
+     */
+    private void writeFully(ByteBuffer buf, long position) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                while (buf.hasRemaining())
+                    getChannel(true).write(buf, position + buf.position());
+                return;
+            } catch (ClosedChannelException e) {
+                if (attempt > 0 || Thread.currentThread().isInterrupted())
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Closes the channel backing this file. The HeapFile itself stays
+     * usable: the next page access reopens the file.
+     */
+    public synchronized void close() {
+        // mappings stay valid after their channel is closed; just drop them
+        // and let them be unmapped when collected
+        chunks = new MappedByteBuffer[0];
+        closeChannel();
+    }
+
+    private synchronized void closeChannel() {
+        if (channel == null)
+            return;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        raf = null;
+        channel = null;
     }
 
     /**
@@ -104,7 +492,7 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return (int) Math.ceil(f.length() / BufferPool.PAGE_SIZE);
+        return (int) Math.ceil(Math.max(0, f.length() - headerBytes) / pageSize);
     }
 
     // see DbFile.java for javadocs
@@ -113,16 +501,17 @@ public class HeapFile implements DbFile {
         // some code goes here
         // not necessary for proj1
         ArrayList<Page> pageList = new ArrayList<Page>();
-
-        // find and empty page
-        HeapPage page = null;
-        for(int i = 0; i < numPages(); i++) {
-             HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, 
-                     new HeapPageId(getId(), i), Permissions.READ_WRITE);
-             if (p.getNumEmptySlots() > 0) {
-                 page = p;
-                 pageList.add(page);
-                 page.insertTuple(t);
+        BufferPool bp = Database.getBufferPool();
+
+        // try the pages the free-space map says have room, correcting it
+        // where it is out of date
+        FreeSpaceMap fsm = freeSpace();
+        for(int i = fsm.nextFree(0); i >= 0 && i < numPages(); i = fsm.nextFree(i + 1)) {
+             HeapPage p = (HeapPage) bp.getPageForInsert(tid, new HeapPageId(getId(), i));
+             boolean inserted = p.getNumEmptySlots() > 0 && insertIntoFreeSlot(tid, p, t);
+             noteFreeSpace(p);
+             if (inserted) {
+                 pageList.add(p);
                  return pageList;
              }
         }
@@ -131,31 +520,57 @@ public class HeapFile implements DbFile {
         // create heap page
         long initPages = numPages();
         HeapPageId pid = new HeapPageId(getId(), numPages());
-        page = new HeapPage(pid, HeapPage.createEmptyPageData());
-
-        FileOutputStream file = new FileOutputStream(f, true);
-        file.write(page.getPageData());
-        file.close();
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData(pageSize));
+        writePage(page);
 
-        page = (HeapPage) Database.getBufferPool().getPage(
-                tid, pid, Permissions.READ_WRITE);
-        page.insertTuple(t);
+        page = (HeapPage) bp.getPageForInsert(tid, pid);
+        if (!insertIntoFreeSlot(tid, page, t))
+            throw new DbException("no free slot on new page " + pid.pageNumber());
+        noteFreeSpace(page);
+        pageList.add(page);
 
         assert numPages() > initPages;
 
         return pageList;
     }
 
+    /**
+     * Puts t in the first empty slot of page that the transaction can
+     * lock. A slot emptied by a transaction that is still running stays
+     * locked by it, and is passed over. Empty slots are found with
+     * HeapPage.nextFreeSlot, which skips used ones 64 at a time.
+     */
+    private boolean insertIntoFreeSlot(TransactionId tid, HeapPage page, Tuple t)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        for (int slot = page.nextFreeSlot(0); slot >= 0; slot = page.nextFreeSlot(slot + 1)) {
+            if (!bp.lockFreeSlot(tid, new RecordId(page.getId(), slot)))
+                continue;
+            synchronized (page) {
+                // another inserter may have filled it before we locked it
+                if (!page.isSlotUsed(slot)) {
+                    page.insertTuple(t, slot);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     // see DbFile.java for javadocs
     public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
         // not necessary for proj1
         
-        PageId pid = t.getRecordId().getPageId();
         HeapPage page = (HeapPage) Database.getBufferPool().getPage(
-                tid, pid, Permissions.READ_WRITE);
+                tid, t.getRecordId(), Permissions.READ_WRITE);
         page.deleteTuple(t);
+        try {
+            freeSpace().update(page.getId().pageNumber(), true);
+        } catch (IOException e) {
+            throw new DbException("cannot read free-space map: " + e.getMessage());
+        }
 
         return page;
     }
@@ -165,6 +580,8 @@ public class HeapFile implements DbFile {
         private Iterator<Tuple>pageIt;
         private boolean opened;
         private TransactionId tid;
+        /** Highest page number handed to the prefetcher so far. */
+        private int readAheadTo;
 
         public HeapFileIterator(TransactionId tid) {
             this.tid = tid;
@@ -173,13 +590,14 @@ public class HeapFile implements DbFile {
         public void open()
             throws DbException, TransactionAbortedException {
             pageNo = 0;
+            readAheadTo = 0;
             
             int i = findNextIteratorIndex(0);
 
             if (i == -1)
                 pageIt = null;
             else
-                pageIt = getIteratorAtIndex(i);
+                pageNo = i;
 
             opened = true;
         }
@@ -202,10 +620,12 @@ public class HeapFile implements DbFile {
             // if dosent have next, then search for the next iterator
             int i = findNextIteratorIndex(pageNo + 1);
             if (i == -1)
-                return false;
-            else
                 // reach end of pages and found no tuples
+                return false;
+            else {
+                pageNo = i;
                 return true;
+            }
         }
 
         private Iterator<Tuple> getIteratorAtIndex(int i)
@@ -213,17 +633,45 @@ public class HeapFile implements DbFile {
             HeapPage currentPage = (HeapPage) Database.getBufferPool().getPage(
                 tid,
                 new HeapPageId(getId(), i),
-                Permissions.READ_WRITE
+                Permissions.READ_ONLY,
+                true
             );
-            Database.getBufferPool().releasePage(tid, currentPage.getId());
+            readAhead(i);
             return currentPage.iterator();
         } 
 
+        /**
+         * Has the buffer pool read ahead the pages that follow page i, up to
+         * its prefetch depth, skipping those already asked for. The depth
+         * counts BufferPool.PAGE_SIZE pages, so files with larger pages read
+         * ahead fewer of them.
+         */
+        private void readAhead(int i) {
+            BufferPool bp = Database.getBufferPool();
+            int depth = bp.getPrefetchDepth();
+            if (depth == 0)
+                return;
+            depth = Math.max(1, (int) ((long) depth * BufferPool.PAGE_SIZE / pageSize));
+            int last = Math.min(i + depth, numPages() - 1);
+            for (int p = Math.max(i, readAheadTo) + 1; p <= last; p++)
+                bp.prefetch(new HeapPageId(getId(), p));
+            readAheadTo = Math.max(readAheadTo, last);
+        }
+
+        /**
+         * Finds the first page at or after page i that holds tuples and
+         * makes its iterator the current one.
+         *
+         * @return the page number, or -1 if no page has tuples
+         */
         private int findNextIteratorIndex(int i) 
             throws DbException, TransactionAbortedException, NoSuchElementException {
             for(; i < numPages(); i++) {
-                if(getIteratorAtIndex(i).hasNext())
+                Iterator<Tuple> it = getIteratorAtIndex(i);
+                if(it.hasNext()) {
+                    pageIt = it;
                     return i;
+                }
             }
 
             return -1;
@@ -232,12 +680,17 @@ public class HeapFile implements DbFile {
         public Tuple next()
             throws DbException, TransactionAbortedException, NoSuchElementException {
 
-            if (!opened || pageIt == null || pageNo >= numPages())
+            if (!opened || pageIt == null)
                 throw new NoSuchElementException();
 
             // current iterator has tuples
             if (pageIt.hasNext())
                 return pageIt.next();
+
+            // only look at the file length once the page is used up; it
+            // costs a system call
+            if (pageNo >= numPages())
+                throw new NoSuchElementException();
             
             // current iterator has no more tuples, find next one
             pageNo++;
@@ -247,7 +700,6 @@ public class HeapFile implements DbFile {
                 throw new NoSuchElementException("No more tuples");
             else {
                 pageNo = i;
-                pageIt = getIteratorAtIndex(i);
                 return pageIt.next();
             }
         }
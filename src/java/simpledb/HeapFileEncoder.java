@@ -82,7 +82,8 @@ public class HeapFileEncoder {
     * @see HeapFile
     * @param inFile The input file to read data from
     * @param outFile The output file to write data to
-    * @param npagebytes The number of bytes per page in the output file
+    * @param npagebytes The number of bytes per page in the output file;
+    *   a size other than BufferPool.PAGE_SIZE is recorded in a file header
     * @param numFields the number of fields in each input line/output tuple
     * @throws IOException if the input/output file can't be opened or a
     *   malformed input line is encountered
@@ -106,6 +107,7 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    HeapFile.writeHeader(os, npagebytes);
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -223,4 +225,139 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file, in the format read by
+   * {@link #convert(File, File, int, int, Type[], char)}, into a file of
+   * SlottedPages, whose records take only as many bytes as their strings
+   * need. Lines that are empty are skipped; strings longer than
+   * Type.STRING_LEN are cut short, as they are in a StringField.
+   *
+   * @see SlottedPage
+   * @see SlottedFile
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @param typeAr the type of each field
+   * @param fieldSeparator the character between fields on a line
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+      ArrayList<Tuple> page = new ArrayList<Tuple>();
+      int free = npagebytes - SlottedPage.HEADER_SIZE;
+      int npages = 0;
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.trim().length() == 0)
+              continue;
+          String[] values = line.split(java.util.regex.Pattern.quote(String.valueOf(fieldSeparator)), -1);
+          if (values.length != numFields) {
+              br.close();
+              os.close();
+              throw new IOException("BAD LINE : " + line);
+          }
+          Tuple t = new Tuple(td);
+          for (int i = 0; i < numFields; i++) {
+              String v = values[i].trim();
+              if (typeAr[i] == Type.INT_TYPE) {
+                  try {
+                      t.setField(i, new IntField(Integer.parseInt(v)));
+                  } catch (NumberFormatException e) {
+                      br.close();
+                      os.close();
+                      throw new IOException("BAD LINE : " + line);
+                  }
+              } else {
+                  t.setField(i, new StringField(v, Type.STRING_LEN));
+              }
+          }
+
+          int needed = SlottedPage.recordSize(t) + SlottedPage.SLOT_SIZE;
+          if (needed > free && !page.isEmpty()) {
+              os.write(SlottedPage.createPageData(page, npagebytes));
+              npages++;
+              page.clear();
+              free = npagebytes - SlottedPage.HEADER_SIZE;
+          }
+          page.add(t);
+          free -= needed;
+      }
+      // like convert, an empty input still gets one empty page
+      if (!page.isEmpty() || npages == 0)
+          os.write(SlottedPage.createPageData(page, npagebytes));
+      br.close();
+      os.close();
+  }
+
+  /** Copy a HeapFile into a file of PaxPages, page for page. Each tuple
+   * keeps its page and slot number, since a PaxPage has as many slots as a
+   * HeapPage of the same schema. The source must be in the catalog.
+   *
+   * @see PaxPage
+   * @see PaxFile
+   * @param source the table to copy
+   * @param outFile The output file to write data to
+   * @throws IOException if the output file can't be written
+   */
+  public static void convertToPax(HeapFile source, File outFile) throws IOException {
+      TupleDesc td = source.getTupleDesc();
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+      for (int p = 0; p < source.numPages(); p++) {
+          HeapPage page = (HeapPage) source.readPage(new HeapPageId(source.getId(), p));
+          ArrayList<Tuple> slots = new ArrayList<Tuple>();
+          for (int i = 0; i < page.getNumSlots(); i++)
+              slots.add(null);
+          java.util.Iterator<Tuple> it = page.iterator();
+          while (it.hasNext()) {
+              Tuple t = it.next();
+              slots.set(t.getRecordId().tupleno(), t);
+          }
+          os.write(PaxPage.createPageData(td, slots, BufferPool.PAGE_SIZE));
+      }
+      os.close();
+  }
+
+  /** Copy a HeapFile into a read-only file of CompressedPages, filling
+   * each page with as many tuples, in scan order, as fit once compressed.
+   * The source must be in the catalog.
+   *
+   * @see CompressedPage
+   * @see CompressedFile
+   * @param source the table to copy
+   * @param outFile The output file to write data to
+   * @throws IOException if the output file can't be written, or a tuple
+   *   does not fit on a page by itself
+   */
+  public static void convertCompressed(HeapFile source, File outFile) throws IOException {
+      CompressedPage.Builder page = new CompressedPage.Builder(source.getTupleDesc(),
+              BufferPool.PAGE_SIZE);
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+      int npages = 0;
+      for (int p = 0; p < source.numPages(); p++) {
+          java.util.Iterator<Tuple> it = ((HeapPage) source.readPage(
+                  new HeapPageId(source.getId(), p))).iterator();
+          while (it.hasNext()) {
+              Tuple t = it.next();
+              if (page.add(t))
+                  continue;
+              if (page.isEmpty()) {
+                  os.close();
+                  throw new IOException("tuple does not fit on a page: " + t);
+              }
+              os.write(page.build());
+              npages++;
+              page.add(t);
+          }
+      }
+      // like convert, an empty input still gets one empty page
+      if (!page.isEmpty() || npages == 0)
+          os.write(page.build());
+      os.close();
+  }
 }
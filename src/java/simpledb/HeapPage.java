@@ -2,10 +2,15 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Methods that change or serialize the page are synchronized, so that the
+ * BufferPool's background flusher always writes a consistent image of a
+ * page that a transaction is still modifying.
  *
  * @see HeapFile
  * @see BufferPool
@@ -15,52 +20,107 @@ public class HeapPage implements Page {
 
     HeapPageId pid;
     TupleDesc td;
-    byte header[];
+    // the header bitmap, 64 slots to a word: slot i is bit i % 64 of word
+    // i / 64, which matches bit i % 8 of header byte i / 8 on disk
+    long used[];
+    int headerSize;
+    // tuples created so far; a used slot without one is still only in data
     Tuple tuples[];
     int numSlots;
+    int tupleSize;
+    // the page as it was read, which tuples not yet changed are decoded
+    // from; either a wrapped byte[] or a read-only view of a mapped file
+    ByteBuffer data;
+    // number of empty slots, and a slot at or below the first empty one
+    int numEmpty;
+    int nextFree;
     boolean dirty;
     TransactionId tid;
 
+    // the page as of the last commit, taken when the page is first changed
+    // after it; null while the page is unchanged since then
     byte[] oldData;
+    // true once the page differs from data
+    boolean changed;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
      * database table, which can be determined via {@link Catalog#getTupleDesc}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
-     * <p>
+     * <p> where page size is the length of data, the page size of the
+     * HeapFile the page belongs to.
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#PAGE_SIZE
+     * @see HeapFile#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
-        this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-        this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        init(id, ByteBuffer.wrap(data), Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage of tuples of td, for pages of files that are not in
+     * the catalog, such as the sorted runs of an OrderBy.
+     */
+    HeapPage(HeapPageId id, byte[] data, TupleDesc td) {
+        init(id, ByteBuffer.wrap(data), td);
+    }
+
+    /**
+     * Create a HeapPage over the bytes between the current position and the
+     * limit of data, e.g. a slice of a memory mapped file. If data is
+     * read-only, tuples are decoded straight out of it, and it is only
+     * copied when the page is first changed or a before image is taken.
+     * Until then data must not change; for a mapped HeapFile that holds
+     * while the page is locked, since only a transaction holding it for
+     * write writes it back. Writable buffers are copied up front.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        ByteBuffer page = data.slice();
+        if (!page.isReadOnly()) {
+            byte[] bytes = new byte[page.remaining()];
+            page.get(bytes);
+            page = ByteBuffer.wrap(bytes);
         }
-        dis.close();
+        init(id, page, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
 
-        setBeforeImage();
+    /**
+     * Create a HeapPage over data, which becomes the page's raw image and
+     * must not be changed afterwards. Only the header is parsed up front;
+     * tuples are created on demand and decode their fields straight out of
+     * data, field by field, when they are first asked for.
+     */
+    private void init(HeapPageId id, ByteBuffer data, TupleDesc td) {
+        // data is either a whole wrapped byte[] or read-only (hasArray false)
+        this.pid = id;
+        this.td = td;
+        this.tupleSize = td.getSize();
+        this.data = data;
+        this.numSlots = getNumTuples();
+        this.headerSize = getHeaderSize();
+
+        // read the header slots of this page; bits past the last slot are
+        // ignored
+        used = new long[(numSlots + 63) / 64];
+        for (int i=0; i<headerSize; i++)
+            used[i / 8] |= (data.get(i) & 0xffL) << (8 * (i % 8));
+        if (numSlots % 64 != 0)
+            used[used.length - 1] &= (1L << numSlots) - 1;
+        numEmpty = numSlots;
+        for (long word : used)
+            numEmpty -= Long.bitCount(word);
+        nextFree = 0;
+
+        tuples = new Tuple[numSlots];
     }
 
     /** Retrieve the number of tuples on this page.
@@ -68,7 +128,12 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {
         // some code goes here
-        return (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+        return (data.capacity() * 8) / (tupleSize * 8 + 1);
+    }
+
+    /** @return the number of bytes this page takes up on disk */
+    public int getPageSize() {
+        return data.capacity();
     }
 
     /**
@@ -77,14 +142,14 @@ public class HeapPage implements Page {
      */
     private int getHeaderSize() {
         // some code goes here
-        return (int) Math.ceil(getNumTuples() / 8.0f);
+        return (numSlots + 7) / 8;
     }
 
     /** Return a view of this page before it was modified
         -- used by recovery */
-    public HeapPage getBeforeImage(){
+    public synchronized HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            return new HeapPage(pid, oldData != null ? oldData : currentImage());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -93,8 +158,66 @@ public class HeapPage implements Page {
         return null;
     }
 
-    public void setBeforeImage() {
-        oldData = getPageData().clone();
+    public synchronized void setBeforeImage() {
+        // the current contents are the before image until the next change
+        oldData = null;
+    }
+
+    /**
+     * Commits the current contents of the given slots, and only those: they
+     * are copied into the before image, which is the page as last
+     * committed, and the result is returned to be written out. Other slots
+     * keep their committed contents, so changes that other transactions
+     * have made under record locks and not yet committed stay off disk.
+     */
+    synchronized byte[] commitSlots(Collection<Integer> slots) {
+        byte[] committed = (oldData != null ? oldData : currentImage()).clone();
+        byte[] current = getPageData();
+        for (int i : slots) {
+            int bit = 1 << (i % 8);
+            committed[i / 8] = (byte) ((committed[i / 8] & ~bit) | (current[i / 8] & bit));
+            int offset = headerSize + i * tupleSize;
+            System.arraycopy(current, offset, committed, offset, tupleSize);
+        }
+        oldData = committed;
+        return committed;
+    }
+
+    /**
+     * Takes the before image if this is the first change to the page since
+     * it was read or last committed. Read-only pages never pay for one.
+     * A page over a mapped file is first moved onto a copy of its bytes,
+     * since writing the page back changes the mapping.
+     */
+    private void saveBeforeImage() {
+        if (!data.hasArray()) {
+            ByteBuffer copy = ByteBuffer.wrap(rawImage());
+            for (Tuple t : tuples) {
+                if (t != null)
+                    t.rebase(data, copy);
+            }
+            data = copy;
+        }
+        if (oldData == null)
+            oldData = currentImage();
+        changed = true;
+    }
+
+    // the raw image is never modified, so it needs no copy until the page
+    // has been changed
+    private byte[] currentImage() {
+        return changed ? getPageData() : rawImage();
+    }
+
+    /** @return the page as it was read, copied out only if it is mapped */
+    private byte[] rawImage() {
+        if (data.hasArray())
+            return data.array();
+        byte[] bytes = new byte[data.capacity()];
+        ByteBuffer all = data.duplicate();
+        all.clear();
+        all.get(bytes);
+        return bytes;
     }
 
     /**
@@ -106,36 +229,23 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple in slot i, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    public synchronized Tuple getTuple(int i) {
+        return isSlotUsed(i) ? tuple(i) : null;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    /**
+     * Returns the tuple in a used slot, creating it over the raw page image
+     * if this is the first time it is asked for.
+     */
+    private Tuple tuple(int slot) {
+        Tuple t = tuples[slot];
+        if (t == null) {
+            t = new Tuple(td, data, headerSize + slot * tupleSize);
+            t.setRecordId(new RecordId(pid, slot));
+            tuples[slot] = t;
         }
-
         return t;
     }
 
@@ -150,65 +260,44 @@ public class HeapPage implements Page {
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
-    public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+    public synchronized byte[] getPageData() {
+        // start from the raw image, and rewrite only what has changed since
+        byte[] page = data.hasArray() ? data.array().clone() : rawImage();
 
         // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        for (int i=0; i<headerSize; i++)
+            page[i] = (byte) (used[i / 8] >>> (8 * (i % 8)));
 
         // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i=0; i<numSlots; i++) {
+            int offset = headerSize + i * tupleSize;
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
+                Arrays.fill(page, offset, offset + tupleSize, (byte) 0);
                 continue;
             }
 
+            // a tuple that is still the bytes it was read from
+            Tuple t = tuples[i];
+            if (t == null || t.isBackedBy(data, offset))
+                continue;
+
             // non-empty slot
+            baos.reset();
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
-
+                    t.getField(j).serialize(dos);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
             }
+            System.arraycopy(baos.toByteArray(), 0, page, offset, tupleSize);
         }
 
-        // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return page;
     }
 
     /**
@@ -221,8 +310,15 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Like createEmptyPageData(), for a HeapFile whose pages are pageSize
+     * bytes long.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -232,16 +328,18 @@ public class HeapPage implements Page {
      *         already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
         HeapPageId tuplePid = (HeapPageId) t.getRecordId().getPageId();
-        if (tuplePid != pid)
+        if (!pid.equals(tuplePid))
             throw new DbException("Tuple not found on page");
 
         int tupleNo = t.getRecordId().tupleno();
-        if(isSlotUsed(tupleNo))
+        if(isSlotUsed(tupleNo)) {
+            saveBeforeImage();
             markSlotUsed(tupleNo, false);
+        }
         else
             throw new DbException("Tuple slot is already empty");
     }
@@ -253,31 +351,76 @@ public class HeapPage implements Page {
      *         is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-        if (getNumEmptySlots() == 0)
+        if (numEmpty == 0)
             throw new DbException("Page is full");
         else if (!t.getTupleDesc().equals(td))
             throw new DbException("TupleDesc mismatch");
-        
-        for(int i = 0; i < getNumTuples(); i++) {
-            if (!isSlotUsed(i)) {
-                markSlotUsed(i, true);
-                tuples[i] = t;
-                t.setRecordId(new RecordId(pid, i));
-                return;
-            }
+
+        int i = nextFreeSlot(0);
+        saveBeforeImage();
+        markSlotUsed(i, true);
+        tuples[i] = t;
+        t.setRecordId(new RecordId(pid, i));
+    }
+
+    /**
+     * Adds the specified tuple to the given slot of the page, as inserts
+     *  under record locks and undoing a delete need to.
+     * @throws DbException if the slot is in use or tupledesc is mismatch.
+     * @param t The tuple to add.
+     * @param slot The slot to put it in.
+     */
+    public synchronized void insertTuple(Tuple t, int slot) throws DbException {
+        if (isSlotUsed(slot))
+            throw new DbException("Tuple slot is already in use");
+        else if (!t.getTupleDesc().equals(td))
+            throw new DbException("TupleDesc mismatch");
+
+        saveBeforeImage();
+        markSlotUsed(slot, true);
+        tuples[slot] = t;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Returns the first empty slot at or after slot from, or -1 if there is
+     * none. Every slot below nextFree is used, so the search starts there
+     * at the earliest, and goes through the header a word at a time.
+     */
+    public synchronized int nextFreeSlot(int from) {
+        int i = Math.max(from, nextFree);
+        if (numEmpty == 0 || i >= numSlots)
+            return -1;
+        int w = i / 64;
+        long free = ~used[w] & (-1L << i);
+        while (free == 0) {
+            if (++w == used.length)
+                return -1;
+            free = ~used[w];
         }
+        i = w * 64 + Long.numberOfTrailingZeros(free);
+        return i < numSlots ? i : -1;
+    }
+
+    /**
+     * Returns the number of slots on this page, used or not.
+     */
+    public int getNumSlots() {
+        return numSlots;
     }
 
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
      */
-    public void markDirty(boolean dirty, TransactionId tid) {
+    public synchronized void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
 	    // not necessary for lab1
+        if (dirty)
+            saveBeforeImage();
         this.dirty = dirty;
         this.tid = tid;
     }
@@ -285,7 +428,7 @@ public class HeapPage implements Page {
     /**
      * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
      */
-    public TransactionId isDirty() {
+    public synchronized TransactionId isDirty() {
         // some code goes here
     	// Not necessary for lab1
         if (dirty)
@@ -299,10 +442,6 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int numEmpty = 0;
-        for(int i = 0; i < getNumTuples(); i++)
-            if(!isSlotUsed(i))
-                numEmpty++;
         return numEmpty;
     }
 
@@ -311,9 +450,7 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-        byte b = header[i / 8];
-        int expected = 0x1 << i % 8;
-        return (expected & b) == expected;
+        return (used[i / 64] & (1L << i)) != 0;
     }
 
     /**
@@ -322,14 +459,18 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
-        byte b = header[i / 8];
-        int expected;
+        if (isSlotUsed(i) == value)
+            return;
         if (value) {
-            expected = 0x1 << i % 8;
-            header[i / 8] = (byte) (expected | b);
+            used[i / 64] |= 1L << i;
+            numEmpty--;
+            if (i == nextFree)
+                nextFree++;
         } else {
-            expected = 0x1 << i % 8;
-            header[i / 8] = (byte) (~expected & b);
+            used[i / 64] &= ~(1L << i);
+            numEmpty++;
+            if (i < nextFree)
+                nextFree = i;
         }
     }
 
@@ -337,12 +478,14 @@ public class HeapPage implements Page {
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
-    public Iterator<Tuple> iterator() {
+    public synchronized Iterator<Tuple> iterator() {
         // some code goes here
-        ArrayList<Tuple> l = new ArrayList<Tuple>(tuples.length);
-        for(int i = 0; i < tuples.length; i++)
-            if (isSlotUsed(i))
-                l.add(tuples[i]);
+        ArrayList<Tuple> l = new ArrayList<Tuple>(numSlots - numEmpty);
+        for (int w = 0; w < used.length; w++) {
+            // visit just the set bits of each header word
+            for (long bits = used[w]; bits != 0; bits &= bits - 1)
+                l.add(tuple(w * 64 + Long.numberOfTrailingZeros(bits)));
+        }
         // unmodifableList has an interator that throws 
         // UnsupportedOperationException on remove
         return Collections.unmodifiableList(l).iterator();
@@ -34,14 +34,14 @@ public class HeapPageId implements PageId {
     }
 
     /**
-     * @return a hash code for this page, represented by the concatenation of
-     *   the table number and the page number (needed if a PageId is used as a
-     *   key in a hash table in the BufferPool, for example.)
+     * @return a hash code for this page, combining the table number and the
+     *   page number (needed if a PageId is used as a key in a hash table in
+     *   the BufferPool, for example.)
      * @see BufferPool
      */
     public int hashCode() {
         // some code goes here
-        return Integer.parseInt(Math.abs(tableId) % 10000 + "" + pgNo);
+        return 31 * tableId + pgNo;
     }
 
     /**
@@ -61,7 +61,7 @@ public class HeapPageId implements PageId {
             return false;
         HeapPageId other = (HeapPageId) o;
 
-        return other.hashCode() == hashCode();
+        return other.tableId == tableId && other.pgNo == pgNo;
     }
 
     /**
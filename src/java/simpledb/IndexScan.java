@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose
+ * indexed field satisfies a predicate, in the order of that field, by
+ * looking them up through a BTreeFile. Equality and range predicates
+ * visit only the leaves holding matching entries; each matching tuple is
+ * then read from its page with a record lock.
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final BTreeFile index;
+    private final String tableAlias;
+    private final Predicate.Op op;
+    private final Field value;
+    private transient BTreeFile.EntryIterator it;
+    private transient Tuple next;
+
+    /**
+     * Creates a scan of the tuples of a table whose field satisfies
+     * <code>field op value</code>, through an index on that field.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            an index on the field to compare, as in the Catalog
+     * @param tableAlias
+     *            the alias of the indexed table; the returned TupleDesc has
+     *            fields named tableAlias.fieldName, as for SeqScan
+     * @param op
+     *            the comparison the field must pass; NOT_EQUALS and LIKE
+     *            cannot narrow the scan, and are checked entry by entry
+     * @param value
+     *            the value the field is compared with
+     */
+    public IndexScan(TransactionId tid, BTreeFile index, String tableAlias,
+            Predicate.Op op, Field value) {
+        this.tid = tid;
+        this.index = index;
+        this.tableAlias = tableAlias;
+        this.op = op;
+        this.value = value;
+    }
+
+    /** @return the index this scan reads through */
+    public BTreeFile getIndex() {
+        return index;
+    }
+
+    /** @return the comparison the indexed field must pass */
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    /** @return the value the indexed field is compared with */
+    public Field getValue() {
+        return value;
+    }
+
+    /**
+     * @return the name of the indexed table in the catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /**
+     * Returns the TupleDesc of the indexed table with field names prefixed
+     * with the table alias, as for SeqScan.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc fileDesc = Database.getCatalog().getTupleDesc(index.getTableId());
+        String[] names = new String[fileDesc.numFields()];
+        Type[] types = new Type[fileDesc.numFields()];
+        for (int i = 0; i < names.length; i++) {
+            types[i] = fileDesc.getFieldType(i);
+            names[i] = tableAlias + "." + fileDesc.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        it = index.entries(tid, op, value);
+        it.open();
+        next = null;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (it == null)
+            return false;
+        BufferPool bp = Database.getBufferPool();
+        while (next == null && it.hasNext()) {
+            RecordId rid = it.next().getRecordId(index.getTableId());
+            HeapPage page = (HeapPage) bp.getPage(tid, rid, Permissions.READ_ONLY);
+            next = page.getTuple(rid.tupleno());
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        if (it != null)
+            it.close();
+        it = null;
+        next = null;
+    }
+}
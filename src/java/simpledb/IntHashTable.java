@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table on primitive int keys, for joins and
+ * aggregates on Type.INT_TYPE fields. Each distinct key is given a dense
+ * group number, 0, 1, 2, ... in order of first insertion, which callers
+ * can use to index arrays of their own. Rows added with addRow are
+ * numbered the same way, and the rows of one key are chained through an
+ * int array, so that no objects are allocated per key or per row.
+ */
+public class IntHashTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final int EMPTY = -1;
+
+    // slot -> group, or EMPTY; the capacity is a power of two
+    private int[] slots;
+    private int mask;
+    // group -> key, first row and last row of the key's chain
+    private int[] keys;
+    private int[] heads;
+    private int[] tails;
+    private int groups;
+    // row -> next row with the same key, or EMPTY
+    private int[] next;
+    private int rows;
+
+    /** Creates an empty table. */
+    public IntHashTable() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty table sized for about expected distinct keys.
+     */
+    public IntHashTable(int expected) {
+        int cap = 16;
+        while (cap < expected * 2)
+            cap <<= 1;
+        slots = new int[cap];
+        Arrays.fill(slots, EMPTY);
+        mask = cap - 1;
+        keys = new int[cap / 2];
+        heads = new int[cap / 2];
+        tails = new int[cap / 2];
+        next = new int[16];
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /** @return the group of key, or -1 if it has none */
+    public int find(int key) {
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            int g = slots[i];
+            if (g == EMPTY || keys[g] == key)
+                return g;
+        }
+    }
+
+    /** @return the group of key, giving it the next one if it has none */
+    public int add(int key) {
+        int i = hash(key) & mask;
+        for (;; i = (i + 1) & mask) {
+            int g = slots[i];
+            if (g == EMPTY)
+                break;
+            if (keys[g] == key)
+                return g;
+        }
+        if (groups == keys.length) {
+            grow();
+            for (i = hash(key) & mask; slots[i] != EMPTY; i = (i + 1) & mask)
+                ;
+        }
+        int g = groups++;
+        slots[i] = g;
+        keys[g] = key;
+        heads[g] = EMPTY;
+        tails[g] = EMPTY;
+        return g;
+    }
+
+    /** Doubles the capacity, keeping it at most half full. */
+    private void grow() {
+        int cap = slots.length * 2;
+        slots = new int[cap];
+        Arrays.fill(slots, EMPTY);
+        mask = cap - 1;
+        keys = Arrays.copyOf(keys, cap / 2);
+        heads = Arrays.copyOf(heads, cap / 2);
+        tails = Arrays.copyOf(tails, cap / 2);
+        for (int g = 0; g < groups; g++) {
+            int i = hash(keys[g]) & mask;
+            while (slots[i] != EMPTY)
+                i = (i + 1) & mask;
+            slots[i] = g;
+        }
+    }
+
+    /**
+     * Adds a row under key, at the end of the key's chain.
+     *
+     * @return the number of the new row: the number of rows added before it
+     */
+    public int addRow(int key) {
+        int g = add(key);
+        if (rows == next.length)
+            next = Arrays.copyOf(next, rows * 2);
+        int row = rows++;
+        next[row] = EMPTY;
+        if (tails[g] == EMPTY)
+            heads[g] = row;
+        else
+            next[tails[g]] = row;
+        tails[g] = row;
+        return row;
+    }
+
+    /** @return the first row added under key, or -1 if there is none */
+    public int firstRow(int key) {
+        int g = find(key);
+        return g == EMPTY ? EMPTY : heads[g];
+    }
+
+    /** @return the row added under the same key after row, or -1 */
+    public int nextRow(int row) {
+        return next[row];
+    }
+
+    /** @return the key of a group */
+    public int key(int group) {
+        return keys[group];
+    }
+
+    /** @return the number of distinct keys */
+    public int size() {
+        return groups;
+    }
+
+    /** @return the number of rows added */
+    public int rows() {
+        return rows;
+    }
+
+    /** Removes every key and row, keeping the space allocated. */
+    public void clear() {
+        Arrays.fill(slots, EMPTY);
+        groups = 0;
+        rows = 0;
+    }
+}
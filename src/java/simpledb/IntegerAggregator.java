@@ -15,8 +15,17 @@ public class IntegerAggregator implements Aggregator {
     private int afield;
     private Op op;
 
-    private HashMap<Field, ArrayList<Field>> groups;
-    private ArrayList<Field> nogroup;
+    // each group has a number, from an IntHashTable if the group-by field
+    // is an int and a HashMap otherwise; the running count, sum, min and
+    // max of group g are at index g of the arrays below
+    private IntHashTable intGroups;
+    private HashMap<Field, Integer> groups;
+    private ArrayList<Field> groupFields;
+    private int numGroups;
+    private int[] counts = new int[16];
+    private int[] sums = new int[16];
+    private int[] mins = new int[16];
+    private int[] maxs = new int[16];
 
     /**
      * Aggregate constructor
@@ -39,10 +48,27 @@ public class IntegerAggregator implements Aggregator {
         this.afield = afield;
         this.op = what;
 
-        if(gbfield == Aggregator.NO_GROUPING)
-            nogroup = new ArrayList<Field>();
-        else
-            this.groups = new HashMap<Field, ArrayList<Field>>();
+        if (gbfield == Aggregator.NO_GROUPING) {
+            newGroup();
+        } else if (gbfieldtype == Type.INT_TYPE) {
+            this.intGroups = new IntHashTable();
+        } else {
+            this.groups = new HashMap<Field, Integer>();
+            this.groupFields = new ArrayList<Field>();
+        }
+    }
+
+    /** @return the number of a group with nothing merged into it yet */
+    private int newGroup() {
+        if (numGroups == counts.length) {
+            counts = Arrays.copyOf(counts, numGroups * 2);
+            sums = Arrays.copyOf(sums, numGroups * 2);
+            mins = Arrays.copyOf(mins, numGroups * 2);
+            maxs = Arrays.copyOf(maxs, numGroups * 2);
+        }
+        mins[numGroups] = Integer.MAX_VALUE;
+        maxs[numGroups] = Integer.MIN_VALUE;
+        return numGroups++;
     }
 
     /**
@@ -53,19 +79,31 @@ public class IntegerAggregator implements Aggregator {
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        if(this.gbfield != Aggregator.NO_GROUPING) {
-            Field group = tup.getField(this.gbfield);
-            Field value = tup.getField(this.afield);
-
-            ArrayList<Field> values = groups.get(group);
-            if(values == null)
-                values = new ArrayList<Field>();
-
-            values.add(value);
-            groups.put(group,values);
+        int g;
+        if (this.gbfield == Aggregator.NO_GROUPING) {
+            g = 0;
+        } else if (intGroups != null) {
+            g = intGroups.add(((IntField) tup.getField(this.gbfield)).getValue());
+            if (g == numGroups)
+                newGroup();
         } else {
-            nogroup.add(tup.getField(this.afield));
+            Field group = tup.getField(this.gbfield);
+            Integer n = groups.get(group);
+            if (n == null) {
+                n = newGroup();
+                groups.put(group, n);
+                groupFields.add(group);
+            }
+            g = n;
         }
+
+        int v = ((IntField) tup.getField(this.afield)).getValue();
+        counts[g]++;
+        sums[g] += v;
+        if (v < mins[g])
+            mins[g] = v;
+        if (v > maxs[g])
+            maxs[g] = v;
     }
 
     /**
@@ -82,68 +120,35 @@ public class IntegerAggregator implements Aggregator {
         if(this.gbfield != Aggregator.NO_GROUPING){
             td = new TupleDesc(new Type[]{ gbfieldtype, Type.INT_TYPE});
 
-            for(Field f : groups.keySet()) {
-                ArrayList<Field> values = groups.get(f);
+            for (int g = 0; g < numGroups; g++) {
                 Tuple t = new Tuple(td);
-                t.setField(0, f);
-                t.setField(1, new IntField(aggregate(values)));
+                if (intGroups != null)
+                    t.setField(0, new IntField(intGroups.key(g)));
+                else
+                    t.setField(0, groupFields.get(g));
+                t.setField(1, new IntField(aggregate(g)));
                 tuples.add(t);
             }
         } else {
             td = new TupleDesc(new Type[]{Type.INT_TYPE});
             Tuple t = new Tuple(td);
-            t.setField(0, new IntField(aggregate(nogroup)));
+            t.setField(0, new IntField(aggregate(0)));
 
             tuples.add(t);
         }
         return new TupleIterator(td, tuples);
     }
 
-    private int aggregate(ArrayList<Field> values){
+    private int aggregate(int g) {
         if(this.op == Op.COUNT)
-            return count(values);
+            return counts[g];
         else if(this.op == Op.SUM)
-            return sum(values);
+            return sums[g];
         else if(this.op == Op.AVG)
-            return avg(values);
+            return sums[g] / counts[g];
         else if(this.op == Op.MAX)
-            return max(values);
+            return maxs[g];
         else 
-            return min(values);
-    }
-
-    private int count(ArrayList<Field> values) {
-        return values.size();
-    }
-
-    private int sum(ArrayList<Field>values) {
-        int sum = 0;
-        for(Field f : values)
-            sum += ((IntField) f).getValue();
-        return sum;
-    }
-
-    private int avg(ArrayList<Field>values) {
-        return sum(values) / count(values);
-    }
-
-    private int max(ArrayList<Field>values) {
-        int max = Integer.MIN_VALUE;
-        for(Field f : values) {
-            int v = ((IntField) f).getValue();
-            if (v > max)
-                max = v;
-        }
-        return max;
-    }
-
-    private int min(ArrayList<Field>values) {
-        int min = Integer.MAX_VALUE;
-        for(Field f : values) {
-            int v = ((IntField) f).getValue();
-            if (v < min)
-                min = v;
-        }
-        return min;
+            return mins[g];
     }
 }
@@ -3,15 +3,23 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation, as a block
+ * nested-loops join. If the right child holds no more than a memory budget
+ * of tuples it is kept in memory and read only once; otherwise the left
+ * child is read a budget's worth of tuples at a time, and the right child
+ * is scanned once per block.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Default memory budget, in tuples */
+    public final static int BLOCK_SIZE = 20000;
+
     private JoinPredicate p;
     private DbIterator child1;
     private DbIterator child2;
+    private final int maxTuples;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -25,10 +33,21 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, BLOCK_SIZE);
+    }
+
+    /**
+     * Constructor for a join with a memory budget other than BLOCK_SIZE.
+     *
+     * @param maxTuples
+     *            the most tuples of either child to hold in memory at once
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2, int maxTuples) {
         // some code goes here
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.maxTuples = maxTuples;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -69,6 +88,18 @@ public class Join extends Operator {
             TransactionAbortedException {
         // some code goes here
         super.open();
+        openChildren();
+        comboTD = getTupleDesc();
+        inner = null;
+        loaded = false;
+        start();
+    }
+
+    /**
+     * Opens both children; called by open. A subclass that opens a child
+     * some other way, or only in some cases, overrides this.
+     */
+    protected void openChildren() throws DbException, TransactionAbortedException {
         child1.open();
         child2.open();
     }
@@ -78,14 +109,23 @@ public class Join extends Operator {
         super.close();
         child1.close();
         child2.close();
+        inner = null;
+        block = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
         child1.rewind();
         child2.rewind();
+        start();
+    }
+
+    private void start() {
         child1tuple = null;
         child2tuple = null;
+        block = new ArrayList<Tuple>();
+        blockPos = 0;
+        innerPos = 0;
     }
 
     /**
@@ -106,56 +146,78 @@ public class Join extends Operator {
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple child1tuple = null;
-    private Tuple child2tuple = null;
-    private boolean stop = false;
+    private transient TupleDesc comboTD;
+    // the right child, if it fits in memory
+    private transient ArrayList<Tuple> inner;
+    private transient boolean loaded;
+    private transient int innerPos;
+    // otherwise, the current block of left tuples
+    private transient ArrayList<Tuple> block;
+    private transient int blockPos;
+    private transient Tuple child1tuple = null;
+    private transient Tuple child2tuple = null;
+
+    /**
+     * Reads the right child into memory if it holds no more than maxTuples
+     * tuples, and rewinds it for block-at-a-time joining otherwise.
+     */
+    private void loadInner() throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> l = new ArrayList<Tuple>();
+        while (child2.hasNext()) {
+            if (l.size() == maxTuples) {
+                child2.rewind();
+                return;
+            }
+            l.add(child2.next());
+        }
+        inner = l;
+    }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        if (stop)
-            return null;
-        if (child1.hasNext() && child1tuple == null) {
-            child1tuple = child1.next();
+        if (!loaded) {
+            loadInner();
+            loaded = true;
         }
-        if (child2.hasNext() && child2tuple == null) {
-            child2tuple = child2.next();
-        }
-        
-        if (child1tuple == null || child2tuple == null) {
-            return null;
+        if (inner != null) {
+            while (true) {
+                while (child1tuple != null && innerPos < inner.size()) {
+                    Tuple t2 = inner.get(innerPos++);
+                    if (p.filter(child1tuple, t2))
+                        return mergeTuples(child1tuple, t2);
+                }
+                if (!child1.hasNext())
+                    return null;
+                child1tuple = child1.next();
+                innerPos = 0;
+            }
         }
-
-        while(true) {
-            Tuple t = null;
-            
-            if (p.filter(child1tuple, child2tuple))
-                t = mergeTuples(child1tuple, child2tuple);
-
-            if (!child2.hasNext()) {
-                if (!child1.hasNext()) {
-                    // !child1.hasNext() and !child2.hasNext()
-                    if (t != null) {
-                        stop = true;
-                        return t;
-                    } else {
-                        return null;
-                    }
-                } else {
-                    child1tuple = child1.next();
+        while (true) {
+            while (child2tuple != null && blockPos < block.size()) {
+                Tuple t1 = block.get(blockPos++);
+                if (p.filter(t1, child2tuple))
+                    return mergeTuples(t1, child2tuple);
+            }
+            if (child2tuple == null || !child2.hasNext()) {
+                // right child done with this block: start the next one
+                if (child2tuple != null)
+                    child2.rewind();
+                block.clear();
+                while (block.size() < maxTuples && child1.hasNext())
+                    block.add(child1.next());
+                if (block.isEmpty() || !child2.hasNext()) {
+                    child2tuple = null;
+                    return null;
                 }
-                child2.rewind();
             }
             child2tuple = child2.next();
-
-            if (t != null) {
-                return t;
-            }
+            blockPos = 0;
         }
     }
 
     private Tuple mergeTuples(Tuple t1, Tuple t2) {
         // we found a valid match, now merge the tuples together
-        Tuple t = new Tuple(getTupleDesc());
+        Tuple t = new Tuple(comboTD);
         int fieldCount = 0;
         for(Iterator<Field> fields = t1.fields(); fields.hasNext(); fieldCount++) {
             t.setField(fieldCount, fields.next());
@@ -176,7 +238,7 @@ public class Join extends Operator {
     public void setChildren(DbIterator[] children) {
         if(children.length == 2) {
             child1 = children[0];
-            child1 = children[1];
+            child2 = children[1];
         }
     }
 
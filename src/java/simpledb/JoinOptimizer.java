@@ -68,7 +68,10 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (lj.sortMerge)
+            j = new SortMergeJoin(p,plan1,plan2);
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
@@ -111,10 +114,41 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic nested-loops
             // join.
-            return cost1 + card1 * cost2 + card1 * card2;
+            if (j.sortMerge) {
+                // a right side over budget is read up to the budget, then
+                // the join falls back to block nested loops
+                if (card2 > Join.BLOCK_SIZE)
+                    return nestedLoopsCost(card1, card2, cost1, cost2)
+                        + cost2 * Join.BLOCK_SIZE / card2;
+                // the right side is read once and sorted in memory; the
+                // left is sorted by an OrderBy, which past the budget also
+                // writes its sorted runs out and reads them back. An
+                // equality merge then passes over both once, while a range
+                // merge pairs up about half of all left and right tuples
+                double runs = card1 > Join.BLOCK_SIZE ? 2 * cost1 : 0;
+                double merge = j.p == Predicate.Op.EQUALS ? card1 + card2
+                    : card1 * (double) card2 / 2;
+                return cost1 + runs + cost2 + sortCost(card1) + sortCost(card2) + merge;
+            }
+            return nestedLoopsCost(card1, card2, cost1, cost2);
         }
     }
 
+    /**
+     * The cost of a block nested loops join: the inner is read once if it
+     * fits in memory, and once per block of outer tuples otherwise.
+     */
+    private static double nestedLoopsCost(int card1, int card2, double cost1, double cost2) {
+        double scans = card2 <= Join.BLOCK_SIZE ? 1
+            : Math.ceil(card1 / (double) Join.BLOCK_SIZE);
+        return cost1 + scans * cost2 + card1 * (double) card2;
+    }
+
+    /** The number of comparisons sorting card tuples takes. */
+    private static double sortCost(int card) {
+        return card > 1 ? card * Math.log(card) / Math.log(2) : 0;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -419,6 +453,17 @@ public class JoinOptimizer {
             rightPkey = leftPkey;
             leftPkey = tmp;
         }
+        if (!(j instanceof LogicalSubplanJoinNode) && SortMergeJoin.canMerge(j.p)) {
+            LogicalJoinNode sm = j.toSortMerge();
+            // sm has the same inner and outer as the cheaper order above
+            double smCost = j == j2
+                ? estimateJoinCost(sm, t2card, t1card, t2cost, t1cost)
+                : estimateJoinCost(sm, t1card, t2card, t1cost, t2cost);
+            if (smCost < cost1) {
+                j = sm;
+                cost1 = smCost;
+            }
+        }
         if (cost1 >= bestCostSoFar)
             return null;
 
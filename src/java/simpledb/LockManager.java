@@ -1,138 +1,476 @@
 package simpledb;
 
-import java.util.ArrayList;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.sql.Timestamp;
-import java.util.Date;
-import java.io.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.*;
 
+/**
+ * Hierarchical locks for BufferPool. There are three levels of lockable
+ * resource: tables (named by their Integer id), pages (PageId) and records
+ * (RecordId). Every lock on a page or record is preceded by the matching
+ * intention lock on its parent(s), IS for reading and IX for writing, so
+ * that a page lock conflicts with record locks under it and scans and
+ * record updaters exclude each other exactly where they overlap. A
+ * transaction holding more than ESCALATION_THRESHOLD record locks on one
+ * page trades them for a single page lock.
+ * <p>
+ * The lock table is split into stripes by resource, each with its own
+ * latch, so requests for resources in different stripes never contend.
+ * Each locked resource has an entry holding the mode each holder has, the
+ * requests blocked on it and a condition those requests wait on; the
+ * condition is signalled whenever the holders change. Every transaction
+ * also has a map of the resources it holds locks on, so releaseAll
+ * touches exactly those.
+ * <p>
+ * Blocked requests are recorded in a waits-for graph: a waiting
+ * transaction waits for every other holder whose mode is incompatible with
+ * the one it asked for. The graph has its own monitor, which is only taken
+ * when a request blocks or a resource with blocked requests changes hands.
+ * Whenever a transaction is about to wait, the graph is searched for a
+ * cycle through it. If there is one, the youngest transaction on the cycle
+ * (the one with the largest id) is chosen as the victim and its request
+ * fails with TransactionAbortedException; every other transaction keeps
+ * waiting. Transactions that are merely waiting for a long-running holder
+ * are never aborted.
+ */
 public class LockManager {
-    private static final int TIMEOUT = 10;
-    private static final int MAX_COUNT = 10;
-    private ConcurrentHashMap<PageId, ArrayList<TransactionId>> reads;
-    private ConcurrentHashMap<TransactionId, ArrayList<PageId>> locks;
-    private ConcurrentHashMap<PageId, TransactionId> writes;
-    private ConcurrentHashMap<TransactionId, Integer> xactsCount;
+    private static final int STRIPES = 64;
 
-    public LockManager() {
-        writes = new ConcurrentHashMap<PageId, TransactionId>();
-        reads = new ConcurrentHashMap<PageId, ArrayList<TransactionId>>();
-	    locks = new ConcurrentHashMap<TransactionId, ArrayList<PageId>>();
-	    xactsCount = new ConcurrentHashMap<TransactionId, Integer>();
+    /** Record locks one transaction may hold on a page before they are escalated. */
+    public static final int ESCALATION_THRESHOLD = 32;
+
+    /** Lock modes. */
+    public enum Mode {
+        IS, IX, S, SIX, X;
+
+        private static final boolean[][] COMPATIBLE = {
+            //          IS     IX     S      SIX    X
+            /* IS  */ { true,  true,  true,  true,  false },
+            /* IX  */ { true,  true,  false, false, false },
+            /* S   */ { true,  false, true,  false, false },
+            /* SIX */ { true,  false, false, false, false },
+            /* X   */ { false, false, false, false, false },
+        };
+
+        /** @return true if this mode may be held alongside other by another transaction */
+        public boolean isCompatibleWith(Mode other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        /** @return true if holding this mode gives everything other does */
+        public boolean covers(Mode other) {
+            return this == other || this == X || other == IS
+                || (this == SIX && other != X);
+        }
+
+        /** @return the weakest mode that covers both this and other */
+        public Mode combine(Mode other) {
+            if (covers(other))
+                return this;
+            if (other.covers(this))
+                return other;
+            return SIX;
+        }
+
+        /** @return the mode needed on the parent of a resource locked in this mode */
+        public Mode intention() {
+            return this == S || this == IS ? IS : IX;
+        }
     }
 
-    private ArrayList<PageId> getPages(TransactionId tid, PageId pid) {
-        ArrayList<PageId> pages;
-        if (locks.containsKey(tid)) 
-	        pages = locks.get(tid);
-        else {
-            pages = new ArrayList<PageId>();
-            locks.put(tid, pages);
+    /** The lock table entry for one resource. */
+    private static class Lock {
+        final HashMap<TransactionId, Mode> holders = new HashMap<TransactionId, Mode>(4);
+        /** Blocked requests and the mode they would hold once granted. */
+        final HashMap<TransactionId, Mode> waiters = new HashMap<TransactionId, Mode>(4);
+        final Condition changed;
+
+        Lock(Condition changed) {
+            this.changed = changed;
+        }
+
+        /** @return true if the entry can be dropped from the table */
+        boolean isUnused() {
+            return holders.isEmpty() && waiters.isEmpty();
         }
-        return pages;
     }
 
-    private boolean hasExclusiveLock(TransactionId tid, PageId pid) {
-	    return writes.get(pid) == tid;
+    private static class Stripe {
+        final ReentrantLock latch = new ReentrantLock();
+        final HashMap<Object, Lock> locks = new HashMap<Object, Lock>();
     }
 
-    private ArrayList<TransactionId> getReads(PageId pid) {
-        ArrayList<TransactionId> xacts = reads.get(pid);
-        if (xacts == null)
-            reads.put(pid, new ArrayList<TransactionId>());
-        return reads.get(pid);
+    /** What a transaction holds. Only changed under the latch of the resource's stripe. */
+    private static class Xact {
+        final ConcurrentHashMap<Object, Mode> held = new ConcurrentHashMap<Object, Mode>();
+        /** Number of record locks held on each page. */
+        final ConcurrentHashMap<PageId, Integer> records = new ConcurrentHashMap<PageId, Integer>();
     }
 
-    public synchronized void readLock(TransactionId tid, PageId pid) throws InterruptedException, TransactionAbortedException {
-        getPages(tid, pid).add(pid);
+    private final Stripe[] stripes;
+    private final ConcurrentHashMap<TransactionId, Xact> xacts =
+        new ConcurrentHashMap<TransactionId, Xact>();
 
-	    if (hasExclusiveLock(tid, pid)) {
-            return;
-        }
+    // the waits-for graph, guarded by its own monitor
+    private final Object graph = new Object();
+    private final HashMap<TransactionId, List<TransactionId>> waitsFor =
+        new HashMap<TransactionId, List<TransactionId>>();
+    private final HashMap<TransactionId, Object> waitingOn =
+        new HashMap<TransactionId, Object>();
 
-        while(true) {
-            if(!writes.containsKey(pid)) {
-                getReads(pid).add(tid);
-                return;
-            }
+    /** Transactions chosen as deadlock victims that have not yet ended. */
+    private final Set<TransactionId> victims =
+        Collections.newSetFromMap(new ConcurrentHashMap<TransactionId, Boolean>());
+    private final AtomicLong deadlocks = new AtomicLong();
+
+    public LockManager() {
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe();
+    }
+
+    private Stripe stripeFor(Object resource) {
+        int h = resource.hashCode() * 0x9E3779B9;
+        return stripes[(h >>> 16) % STRIPES];
+    }
+
+    private Xact xact(TransactionId tid) {
+        Xact x = xacts.get(tid);
+        if (x == null) {
+            x = new Xact();
+            Xact raced = xacts.putIfAbsent(tid, x);
+            if (raced != null)
+                x = raced;
         }
+        return x;
     }
 
-    private void incrementCounter(TransactionId tid) {
-        xactsCount.put(tid, new Integer(getCount(tid) + 1));
+    /** Shared page lock, with IS on the table. */
+    public void readLock(TransactionId tid, PageId pid) throws InterruptedException, TransactionAbortedException {
+        lockPage(tid, pid, Mode.S);
     }
 
-    private int getCount(TransactionId tid) {
-        if (!xactsCount.containsKey(tid))
-            return 0;
-        else
-            return xactsCount.get(tid).intValue();
+    /** Exclusive page lock, with IX on the table. */
+    public void writeLock(TransactionId tid, PageId pid) throws InterruptedException, TransactionAbortedException {
+        lockPage(tid, pid, Mode.X);
     }
 
-    private boolean canUpgradeLock(TransactionId tid, PageId pid) {
-        return reads.get(pid) != null && reads.get(pid).contains(tid) && reads.get(pid).size() == 1;
+    /**
+     * Locks a page in the given mode, after taking the matching intention
+     * lock on its table.
+     */
+    public void lockPage(TransactionId tid, PageId pid, Mode mode)
+        throws InterruptedException, TransactionAbortedException {
+        acquire(tid, Integer.valueOf(pid.getTableId()), mode.intention(), true);
+        acquire(tid, pid, mode, true);
     }
 
-    public synchronized void writeLock(TransactionId tid, PageId pid) throws InterruptedException, TransactionAbortedException {
-        getPages(tid, pid).add(pid);
+    /**
+     * Locks a record for reading or writing, after taking intention locks
+     * on its page and table. Nothing more is taken if the transaction's
+     * page lock already covers the record; past ESCALATION_THRESHOLD
+     * record locks on the page, the page itself is locked instead.
+     */
+    public void lockRecord(TransactionId tid, RecordId rid, boolean exclusive)
+        throws InterruptedException, TransactionAbortedException {
+        lockRecord(tid, rid, exclusive, true);
+    }
 
-        while(true) {
-            if (hasExclusiveLock(tid, pid)) {
-                return;
-            }
+    /**
+     * Like lockRecord for an exclusive lock, but gives up instead of waiting
+     * if another transaction holds the record (the intention locks above it
+     * are still waited for).
+     *
+     * @return true if the record is now locked
+     */
+    public boolean tryLockRecord(TransactionId tid, RecordId rid)
+        throws InterruptedException, TransactionAbortedException {
+        return lockRecord(tid, rid, true, false);
+    }
 
-            if (canUpgradeLock(tid, pid)) {
-                writes.put(pid, tid);
-            }
+    private boolean lockRecord(TransactionId tid, RecordId rid, boolean exclusive, boolean wait)
+        throws InterruptedException, TransactionAbortedException {
+        Mode mode = exclusive ? Mode.X : Mode.S;
+        PageId pid = rid.getPageId();
+        Xact x = xact(tid);
+        Mode onPage = x.held.get(pid);
+        if (onPage != null && onPage.covers(mode))
+            return true;
 
-            if(!writes.containsKey(pid) && getReads(pid).size() == 0) {
-                writes.put(pid, tid);
-                return;
+        Integer count = x.records.get(pid);
+        // escalating may have to wait for the page, so a caller that will
+        // not wait keeps to record locks
+        if (wait && count != null && count >= ESCALATION_THRESHOLD) {
+            escalate(tid, x, pid, mode);
+            return true;
+        }
+        lockPage(tid, pid, mode.intention());
+        return acquire(tid, rid, mode, wait);
+    }
+
+    /**
+     * Replaces a transaction's record locks on a page with one page lock:
+     * exclusive if it writes anything on the page, shared otherwise.
+     */
+    private void escalate(TransactionId tid, Xact x, PageId pid, Mode mode)
+        throws InterruptedException, TransactionAbortedException {
+        Mode onPage = x.held.get(pid);
+        boolean writes = mode == Mode.X || (onPage != null && onPage != Mode.IS);
+        lockPage(tid, pid, writes ? Mode.X : Mode.S);
+
+        ArrayList<RecordId> covered = new ArrayList<RecordId>();
+        for (Object resource : x.held.keySet()) {
+            if (resource instanceof RecordId && ((RecordId) resource).getPageId().equals(pid))
+                covered.add((RecordId) resource);
+        }
+        for (RecordId rid : covered)
+            unlock(tid, rid);
+    }
+
+    /**
+     * Grants the transaction the mode on the resource, waiting for
+     * conflicting holders to go if wait is set.
+     *
+     * @return true if the lock was granted; false only if wait is not set
+     */
+    private boolean acquire(TransactionId tid, Object resource, Mode mode, boolean wait)
+        throws InterruptedException, TransactionAbortedException {
+        // only this transaction adds to its own locks, so a lock it
+        // already holds can be checked without the latch
+        Mode held = heldMode(tid, resource);
+        if (held != null && held.covers(mode))
+            return true;
+
+        Stripe stripe = stripeFor(resource);
+        stripe.latch.lock();
+        try {
+            Lock lock = stripe.locks.get(resource);
+            if (lock == null) {
+                lock = new Lock(stripe.latch.newCondition());
+                stripe.locks.put(resource, lock);
             }
-            else {
-                if (getCount(tid) > MAX_COUNT) {
-                    try {
-                        Database.getBufferPool().transactionComplete(tid);
-                    } catch (IOException e) {
-                        e.printStackTrace();
+
+            try {
+                while (true) {
+                    if (victims.contains(tid))
+                        throw new TransactionAbortedException();
+                    if (grant(tid, resource, lock, mode))
+                        return true;
+                    if (!wait)
+                        return false;
+
+                    held = lock.holders.get(tid);
+                    lock.waiters.put(tid, held == null ? mode : held.combine(mode));
+                    TransactionId victim;
+                    Object victimResource = null;
+                    synchronized (graph) {
+                        updateWaitsFor(lock);
+                        waitingOn.put(tid, resource);
+                        victim = findDeadlockVictim(tid);
+                        if (victim != null) {
+                            deadlocks.incrementAndGet();
+                            victims.add(victim);
+                            victimResource = waitingOn.get(victim);
+                        }
                     }
-                    throw new TransactionAbortedException();
+                    if (victim == null)
+                        lock.changed.await();
+                    else if (victim.equals(tid))
+                        throw new TransactionAbortedException();
+                    else
+                        wake(victimResource, stripe);
                 }
+            } finally {
+                if (lock.waiters.remove(tid) != null) {
+                    synchronized (graph) {
+                        waitsFor.remove(tid);
+                        waitingOn.remove(tid);
+                    }
+                }
+                if (lock.isUnused())
+                    stripe.locks.remove(resource);
+            }
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    /**
+     * Wakes the requests blocked on a resource so that a victim among them
+     * sees it has been chosen. Called with the latch of the current stripe
+     * held, which is let go while the other stripe's latch is taken.
+     */
+    private void wake(Object resource, Stripe current) {
+        Stripe other = stripeFor(resource);
+        if (other != current) {
+            current.latch.unlock();
+            other.latch.lock();
+        }
+        try {
+            Lock lock = other.locks.get(resource);
+            if (lock != null)
+                lock.changed.signalAll();
+        } finally {
+            if (other != current) {
+                other.latch.unlock();
+                current.latch.lock();
+            }
+        }
+    }
+
+    /** Grants the request if it is compatible with every other holder. */
+    private boolean grant(TransactionId tid, Object resource, Lock lock, Mode mode) {
+        Mode held = lock.holders.get(tid);
+        if (held != null && held.covers(mode))
+            return true;
+        Mode want = held == null ? mode : held.combine(mode);
+        for (Map.Entry<TransactionId, Mode> h : lock.holders.entrySet()) {
+            if (!h.getKey().equals(tid) && !want.isCompatibleWith(h.getValue()))
+                return false;
+        }
+        lock.holders.put(tid, want);
 
-                incrementCounter(tid);
-                Thread.sleep(TIMEOUT);
+        Xact x = xact(tid);
+        x.held.put(resource, want);
+        if (held == null && resource instanceof RecordId) {
+            PageId pid = ((RecordId) resource).getPageId();
+            Integer count = x.records.get(pid);
+            x.records.put(pid, count == null ? 1 : count + 1);
+        }
+
+        // one more holder for blocked requests to wait for
+        if (!lock.waiters.isEmpty()) {
+            synchronized (graph) {
+                updateWaitsFor(lock);
             }
         }
+        return true;
     }
 
-    public synchronized void readUnlock(TransactionId tid, PageId pid) {
-        if (!holdsReadLock(tid, pid))
-            return;
+    /** Recomputes the waits-for edges of the requests blocked on a resource. */
+    private void updateWaitsFor(Lock lock) {
+        for (Map.Entry<TransactionId, Mode> w : lock.waiters.entrySet()) {
+            TransactionId waiter = w.getKey();
+            ArrayList<TransactionId> blockers = new ArrayList<TransactionId>(2);
+            for (Map.Entry<TransactionId, Mode> h : lock.holders.entrySet()) {
+                if (!h.getKey().equals(waiter) && !w.getValue().isCompatibleWith(h.getValue()))
+                    blockers.add(h.getKey());
+            }
+            waitsFor.put(waiter, blockers);
+        }
+    }
 
-    	if (locks.containsKey(tid)) {
-    	    locks.get(tid).remove(pid);
-    	}
+    /**
+     * Searches the waits-for graph for a cycle through the given (now
+     * waiting) transaction. Called with the graph's monitor held.
+     *
+     * @return the youngest transaction on the cycle, or null if there is none
+     */
+    private TransactionId findDeadlockVictim(TransactionId tid) {
+        // depth first search; path holds the current chain of waiters
+        ArrayList<TransactionId> path = new ArrayList<TransactionId>();
+        HashSet<TransactionId> visited = new HashSet<TransactionId>();
+        return search(tid, tid, path, visited);
+    }
 
-        getReads(pid).remove(tid);
+    private TransactionId search(TransactionId start, TransactionId t,
+                                 ArrayList<TransactionId> path,
+                                 HashSet<TransactionId> visited) {
+        List<TransactionId> blockers = waitsFor.get(t);
+        if (blockers == null)
+            return null;
+        path.add(t);
+        visited.add(t);
+        for (TransactionId next : blockers) {
+            if (next.equals(start)) {
+                TransactionId victim = start;
+                for (TransactionId member : path) {
+                    if (member.getId() > victim.getId())
+                        victim = member;
+                }
+                return victim;
+            }
+            if (!visited.contains(next) && !victims.contains(next)) {
+                TransactionId victim = search(start, next, path, visited);
+                if (victim != null)
+                    return victim;
+            }
+        }
+        path.remove(path.size() - 1);
+        return null;
     }
 
-    public synchronized void writeUnlock(TransactionId tid, PageId pid) {
-        if (!holdsWriteLock(tid, pid))
-            return;
+    /** Drops whatever lock the transaction holds on the resource. */
+    public void unlock(TransactionId tid, Object resource) {
+        Stripe stripe = stripeFor(resource);
+        stripe.latch.lock();
+        try {
+            Lock lock = stripe.locks.get(resource);
+            if (lock == null || lock.holders.remove(tid) == null)
+                return;
+
+            Xact x = xacts.get(tid);
+            if (x != null) {
+                x.held.remove(resource);
+                if (resource instanceof RecordId) {
+                    PageId pid = ((RecordId) resource).getPageId();
+                    Integer count = x.records.get(pid);
+                    if (count != null && count > 1)
+                        x.records.put(pid, count - 1);
+                    else
+                        x.records.remove(pid);
+                }
+            }
 
-    	if (locks.containsKey(tid)) {
-    	    locks.get(tid).remove(pid);
-    	}
+            if (!lock.waiters.isEmpty()) {
+                synchronized (graph) {
+                    updateWaitsFor(lock);
+                }
+                lock.changed.signalAll();
+            }
+            if (lock.isUnused())
+                stripe.locks.remove(resource);
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
 
-        writes.remove(pid);
+    /** Releases every lock held by the given transaction. */
+    public void releaseAll(TransactionId tid) {
+        Xact x = xacts.get(tid);
+        if (x != null) {
+            for (Object resource : x.held.keySet())
+                unlock(tid, resource);
+            xacts.remove(tid);
+        }
+        victims.remove(tid);
     }
 
-    public boolean holdsReadLock(TransactionId tid, PageId pid) {
-        return reads.get(pid) != null && reads.get(pid).contains(tid);
+    /** @return the mode the transaction holds on the resource, or null */
+    public Mode heldMode(TransactionId tid, Object resource) {
+        Xact x = xacts.get(tid);
+        return x == null ? null : x.held.get(resource);
     }
 
-    public boolean holdsWriteLock(TransactionId tid, PageId pid) {
-        return writes.get(pid) == tid;
+    /**
+     * @return the pages the transaction may have changed: those it holds
+     *   in X, SIX or IX mode
+     */
+    public List<PageId> pagesLockedForWrite(TransactionId tid) {
+        ArrayList<PageId> result = new ArrayList<PageId>();
+        Xact x = xacts.get(tid);
+        if (x != null) {
+            for (Map.Entry<Object, Mode> e : x.held.entrySet()) {
+                if (e.getKey() instanceof PageId && e.getValue().intention() == Mode.IX)
+                    result.add((PageId) e.getKey());
+            }
+        }
+        return result;
     }
 
+    /** @return the number of deadlocks found (and victims aborted) so far */
+    public long getDeadlockCount() {
+        return deadlocks.get();
+    }
 }
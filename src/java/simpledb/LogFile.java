@@ -265,7 +265,16 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // pages may have other constructors too; use Page(PageId, byte[])
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[0].isInstance(pid)
+                    && params[1] == byte[].class)
+                    pageConst = c;
+            }
+            if (pageConst == null)
+                throw new IOException("no Page(PageId, byte[]) constructor in " + pageClassName);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,7 +284,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -467,6 +476,44 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null)
+                    throw new NoSuchElementException("no log records for transaction " + tid.getId());
+
+                // the earliest before image of each page is its state
+                // before this transaction touched it
+                LinkedHashMap<PageId, Page> before = new LinkedHashMap<PageId, Page>();
+                raf.seek(first);
+                while (raf.getFilePointer() < currentOffset) {
+                    int type = raf.readInt();
+                    long record_tid = raf.readLong();
+                    switch (type) {
+                    case UPDATE_RECORD:
+                        Page image = readPageData(raf);
+                        readPageData(raf);
+                        if (record_tid == tid.getId() && !before.containsKey(image.getId()))
+                            before.put(image.getId(), image);
+                        break;
+                    case CHECKPOINT_RECORD:
+                        int numXactions = raf.readInt();
+                        while (numXactions-- > 0) {
+                            raf.readLong();
+                            raf.readLong();
+                        }
+                        break;
+                    }
+                    raf.readLong();
+                }
+                raf.seek(currentOffset);
+
+                for (Page image : before.values()) {
+                    PageId pid = image.getId();
+                    DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+                    file.writePage(image);
+                    if (file instanceof HeapFile)
+                        ((HeapFile) file).noteFreeSpace((HeapPage) image);
+                    Database.getBufferPool().discardPage(pid);
+                }
             }
         }
     }
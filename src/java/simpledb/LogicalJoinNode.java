@@ -23,6 +23,10 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** Whether to run the join as a {@link SortMergeJoin} rather than a
+     * nested-loops {@link Join}; chosen by the {@link JoinOptimizer} */
+    public boolean sortMerge;
+
     public LogicalJoinNode() {
     }
 
@@ -60,6 +64,15 @@ public class LogicalJoinNode {
             newp = p;
         
         LogicalJoinNode j2 = new LogicalJoinNode(t2Alias,t1Alias,f2PureName,f1PureName, newp);
+        j2.sortMerge = sortMerge;
+        return j2;
+    }
+
+    /** Return a new LogicalJoinNode for the same join, run as a
+     * {@link SortMergeJoin}. */
+    public LogicalJoinNode toSortMerge() {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias,t2Alias,f1PureName,f2PureName, p);
+        j2.sortMerge = true;
         return j2;
     }
     
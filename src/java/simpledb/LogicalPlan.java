@@ -271,6 +271,23 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Returns the constant a filter compares with, as a field of the type
+     * of the filtered field in td.
+     */
+    private static Field filterConstant(LogicalFilterNode lf, TupleDesc td) throws ParsingException {
+        Type ftyp;
+        try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
+            ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
+        } catch (java.util.NoSuchElementException e) {
+            throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+        }
+        if (ftyp == Type.INT_TYPE)
+            return new IntField(new Integer(lf.c).intValue());
+        else
+            return new StringField(lf.c, Type.STRING_LEN);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -306,6 +323,41 @@ public class LogicalPlan {
 
         }
 
+        // where an index on a filtered field makes reading the matching
+        // tuples cheaper than a sequential scan, an IndexScan replaces the
+        // table's SeqScan and that filter
+        HashMap<String,LogicalFilterNode> indexFilters = new HashMap<String,LogicalFilterNode>();
+        HashMap<String,Double> accessCosts = new HashMap<String,Double>();
+        for (LogicalFilterNode lf : filters) {
+            DbIterator scan = subplanMap.get(lf.tableAlias);
+            if (scan == null || lf.p == Predicate.Op.NOT_EQUALS || lf.p == Predicate.Op.LIKE)
+                continue;
+            int tableId = this.getTableId(lf.tableAlias);
+            int field;
+            try {
+                field = scan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName);
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            if (Database.getCatalog().getIndex(tableId, field) == null)
+                continue;
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(tableId));
+            double cost = s.estimateIndexScanCost(field, lf.p, filterConstant(lf, scan.getTupleDesc()));
+            Double best = accessCosts.get(lf.tableAlias);
+            if (cost < (best == null ? s.estimateScanCost() : best)) {
+                indexFilters.put(lf.tableAlias, lf);
+                accessCosts.put(lf.tableAlias, cost);
+            }
+        }
+        for (Map.Entry<String,LogicalFilterNode> e : indexFilters.entrySet()) {
+            LogicalFilterNode lf = e.getValue();
+            DbIterator scan = subplanMap.get(e.getKey());
+            int tableId = this.getTableId(e.getKey());
+            int field = scan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName);
+            subplanMap.put(e.getKey(), new IndexScan(t, Database.getCatalog().getIndex(tableId, field),
+                    e.getKey(), lf.p, filterConstant(lf, scan.getTupleDesc())));
+        }
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -314,19 +366,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
             }
 
-            Field f;
-            Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
-            
-            try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
-            } catch (java.util.NoSuchElementException e) {
-                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
-            }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            Field f = filterConstant(lf, subplan.getTupleDesc());
 
             Predicate p = null;
             try {
@@ -334,7 +374,8 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (indexFilters.get(lf.tableAlias) != lf)
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -0,0 +1,39 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Least recently used replacement. The pages are kept in an access-ordered
+ * LinkedHashMap and the victim is the least recently used clean page.
+ * Dirty pages at the old end of the list are skipped on every eviction, so
+ * eviction is linear in the number of dirty pages.
+ */
+public class LruPolicy implements ReplacementPolicy {
+    private LinkedHashMap<PageId, PageId> order =
+        new LinkedHashMap<PageId, PageId>(16, .75F, true);
+
+    public void pageAdded(PageId pid) {
+        order.put(pid, pid);
+    }
+
+    public void pageAccessed(PageId pid) {
+        order.get(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        order.remove(pid);
+    }
+
+    public PageId victim(Map<PageId, Page> resident) {
+        Iterator<PageId> it = order.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            Page page = resident.get(pid);
+            if (page == null || page.isDirty() == null) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+}
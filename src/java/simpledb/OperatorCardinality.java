@@ -45,6 +45,9 @@ public class OperatorCardinality {
                     childC = tableStats.get(
                             ((SeqScan) children[0]).getTableName())
                             .estimateTableCardinality(1.0);
+                } else if (children[0] instanceof IndexScan) {
+                    childC = indexScanCardinality((IndexScan) children[0],
+                            tableStats);
                 }
             }
             o.setEstimatedCardinality(childC);
@@ -52,6 +55,14 @@ public class OperatorCardinality {
         }
     }
 
+    /** The estimated number of tuples an IndexScan returns. */
+    private static int indexScanCardinality(IndexScan s,
+            Map<String, TableStats> tableStats) {
+        TableStats stats = tableStats.get(s.getTableName());
+        return stats.estimateTableCardinality(stats.estimateSelectivity(s
+                .getIndex().getKeyField(), s.getOp(), s.getValue()));
+    }
+
     private static boolean updateFilterCardinality(Filter f,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -82,6 +93,10 @@ public class OperatorCardinality {
                         ((SeqScan) child).getTableName())
                         .estimateTableCardinality(1.0) * selectivity) + 1);
                 return false;
+            } else if (child instanceof IndexScan) {
+                f.setEstimatedCardinality((int) (indexScanCardinality(
+                        (IndexScan) child, tableStats) * selectivity) + 1);
+                return false;
             }
         }
         f.setEstimatedCardinality(1);
@@ -123,6 +138,8 @@ public class OperatorCardinality {
         } else if (child1 instanceof SeqScan) {
             child1Card = (int) (tableStats.get(((SeqScan) child1)
                     .getTableName()).estimateTableCardinality(1.0));
+        } else if (child1 instanceof IndexScan) {
+            child1Card = indexScanCardinality((IndexScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -135,6 +152,8 @@ public class OperatorCardinality {
         } else if (child2 instanceof SeqScan) {
             child2Card = (int) (tableStats.get(((SeqScan) child2)
                     .getTableName()).estimateTableCardinality(1.0));
+        } else if (child2 instanceof IndexScan) {
+            child2Card = indexScanCardinality((IndexScan) child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -180,6 +199,8 @@ public class OperatorCardinality {
         } else if (child1 instanceof SeqScan) {
             child1Card = (int) (tableStats.get(((SeqScan) child1)
                     .getTableName()).estimateTableCardinality(1.0));
+        } else if (child1 instanceof IndexScan) {
+            child1Card = indexScanCardinality((IndexScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -192,6 +213,8 @@ public class OperatorCardinality {
         } else if (child2 instanceof SeqScan) {
             child2Card = (int) (tableStats.get(((SeqScan) child2)
                     .getTableName()).estimateTableCardinality(1.0));
+        } else if (child2 instanceof IndexScan) {
+            child2Card = indexScanCardinality((IndexScan) child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -222,6 +245,8 @@ public class OperatorCardinality {
         if (child instanceof SeqScan) {
             childCard = (int) (tableStats.get(((SeqScan) child).getTableName())
                     .estimateTableCardinality(1.0));
+        } else if (child instanceof IndexScan) {
+            childCard = indexScanCardinality((IndexScan) child, tableStats);
         }
 
         String[] tmp = a.groupFieldName().split("[.]");
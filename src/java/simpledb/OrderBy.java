@@ -1,13 +1,25 @@
 package simpledb;
 
+import java.io.*;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * A child of no more than a memory budget of tuples is sorted in memory.
+ * A larger one is external merge sorted: it is cut into sorted runs of
+ * the budget's size, which are written to temporary files in HeapFile
+ * page format, and the runs are merged with a loser tree. If there are
+ * more runs than the budget has room for one page of each, groups of
+ * runs are first merged into longer runs.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in tuples */
+    public final static int RUN_SIZE = 100000;
+
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
@@ -15,6 +27,11 @@ public class OrderBy extends Operator {
     private String orderByFieldName;
     private Iterator<Tuple> it;
     private boolean asc;
+    private final int maxTuples;
+    // the sorted runs of a child over budget, and the merge of them; runs
+    // is created by open, as it is not serialized
+    transient private ArrayList<SortRun> runs;
+    transient private LoserTree merge;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,7 +44,18 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, RUN_SIZE);
+    }
+
+    /**
+     * Creates a new OrderBy node with a memory budget other than RUN_SIZE.
+     *
+     * @param maxTuples
+     *            the most tuples to hold in memory at once
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int maxTuples) {
         this.child = child;
+        this.maxTuples = maxTuples;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
@@ -56,21 +84,128 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        cleanUp();
+        runs = new ArrayList<SortRun>();
+        // load the tuples in a collection, and sort it; spill it as a run
+        // whenever it reaches the budget with more tuples to come
+        TupleComparator cmp = new TupleComparator(orderByField, asc);
+        boolean sorted = false;
+        try {
+            while (child.hasNext()) {
+                childTups.add(child.next());
+                if (childTups.size() >= maxTuples && child.hasNext()) {
+                    Collections.sort(childTups, cmp);
+                    runs.add(writeRun(childTups.iterator()));
+                    childTups.clear();
+                }
+            }
+            Collections.sort(childTups, cmp);
+            if (!runs.isEmpty()) {
+                runs.add(writeRun(childTups.iterator()));
+                childTups.clear();
+                mergeRuns();
+            }
+            startOutput();
+            sorted = true;
+        } catch (IOException e) {
+            throw new DbException("cannot write sort run: " + e);
+        } finally {
+            // delete the runs written so far if the child or a run failed
+            if (!sorted)
+                cleanUp();
+        }
         super.open();
     }
 
+    private void startOutput() throws DbException {
+        if (runs.isEmpty()) {
+            it = childTups.iterator();
+            return;
+        }
+        try {
+            merge = new LoserTree(runs, new TupleComparator(orderByField, asc));
+        } catch (IOException e) {
+            throw new DbException("cannot read sort run: " + e);
+        }
+    }
+
+    /**
+     * Writes tuples, which must be in order, to a new run. The run is
+     * deleted again if it cannot be written in full.
+     */
+    private SortRun writeRun(Iterator<Tuple> tuples) throws IOException, DbException {
+        SortRun run = new SortRun(td);
+        boolean written = false;
+        try {
+            while (tuples.hasNext())
+                run.add(tuples.next());
+            run.finish();
+            written = true;
+        } finally {
+            if (!written)
+                run.delete();
+        }
+        return run;
+    }
+
+    /**
+     * Merges groups of runs into longer runs until there are few enough to
+     * give each a page of the budget.
+     */
+    private void mergeRuns() throws IOException, DbException {
+        int perPage = (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+        int fanIn = Math.max(2, maxTuples / perPage);
+        while (runs.size() > fanIn) {
+            // runs already merged stay in runs until the pass is done, and
+            // the new ones join them, so cleanUp deletes both on a failure
+            ArrayList<SortRun> merged = new ArrayList<SortRun>();
+            int n = runs.size();
+            for (int i = 0; i < n; i += fanIn) {
+                List<SortRun> group = runs.subList(i, Math.min(i + fanIn, n));
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                LoserTree tree = new LoserTree(group, new TupleComparator(orderByField, asc));
+                SortRun run;
+                try {
+                    run = writeRun(tree);
+                } finally {
+                    tree.close();
+                }
+                for (SortRun r : group)
+                    r.delete();
+                merged.add(run);
+                runs.add(run);
+            }
+            runs = merged;
+        }
+    }
+
+    /** Deletes the runs, and drops the tuples held in memory. */
+    private void cleanUp() {
+        if (merge != null)
+            merge.close();
+        merge = null;
+        if (runs != null) {
+            for (SortRun r : runs)
+                r.delete();
+            runs.clear();
+        }
+        childTups.clear();
+        it = null;
+    }
+
     public void close() {
         super.close();
-        it = null;
+        cleanUp();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (merge != null)
+            merge.close();
+        merge = null;
+        startOutput();
     }
 
     /**
@@ -82,6 +217,8 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (merge != null)
+            return merge.hasNext() ? merge.next() : null;
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -100,24 +237,193 @@ public class OrderBy extends Operator {
 
 }
 
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
+/**
+ * A sorted run of an OrderBy: a temporary file of full HeapFile pages of
+ * tuples, in order, that is not in the catalog.
+ */
+class SortRun {
+    private final File f;
+    private final TupleDesc td;
+    private final HeapPageId pid;
+    private OutputStream out;
+    private HeapPage page;
+    private int numPages;
+
+    SortRun(TupleDesc td) throws IOException {
+        this.f = File.createTempFile("sortrun", ".dat");
+        this.td = td;
+        this.pid = new HeapPageId(f.getAbsoluteFile().hashCode(), 0);
+        try {
+            this.out = new BufferedOutputStream(new FileOutputStream(f));
+        } catch (IOException e) {
+            f.delete();
+            throw e;
+        }
+    }
 
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
+    /** Appends t, which must not sort before the tuples added so far. */
+    void add(Tuple t) throws IOException, DbException {
+        if (page == null)
+            page = new HeapPage(pid, HeapPage.createEmptyPageData(), td);
+        // insertTuple takes over the tuple's record id, so insert a copy
+        Tuple copy = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            copy.setField(i, t.getField(i));
+        page.insertTuple(copy);
+        if (page.getNumEmptySlots() == 0)
+            flush();
     }
 
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+    private void flush() throws IOException {
+        out.write(page.getPageData());
+        numPages++;
+        page = null;
+    }
+
+    /** Writes out the last page, if it holds any tuples. */
+    void finish() throws IOException {
+        if (page != null)
+            flush();
+        out.close();
+        out = null;
+    }
+
+    /** @return a reader of the tuples of this run, in order */
+    RunReader reader() throws IOException {
+        return new RunReader();
+    }
+
+    /** Deletes the file, closing it first if it is still being written. */
+    void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // being thrown away
+            }
+        }
+        f.delete();
+    }
+
+    class RunReader {
+        private final DataInputStream in;
+        private int pagesLeft = numPages;
+        private Iterator<Tuple> tuples;
+
+        RunReader() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        }
+
+        /** @return the next tuple of the run, or null if there are none left */
+        Tuple next() throws IOException {
+            while (tuples == null || !tuples.hasNext()) {
+                if (pagesLeft == 0)
+                    return null;
+                byte[] data = HeapPage.createEmptyPageData();
+                in.readFully(data);
+                pagesLeft--;
+                tuples = new HeapPage(pid, data, td).iterator();
+            }
+            return tuples.next();
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // only read from
+            }
+        }
+    }
+}
+
+/**
+ * A k-way merge of sorted runs through a loser tree. Each internal node
+ * holds the run that lost the comparison there, and node 0 the overall
+ * winner; taking a tuple replays only the comparisons on the path from
+ * the winner's leaf to the root, log2 k of them. Ties go to the earlier
+ * run, so the merge is stable.
+ */
+class LoserTree implements Iterator<Tuple> {
+    private final SortRun.RunReader[] readers;
+    // the current tuple of each run, or null once it is exhausted
+    private final Tuple[] heads;
+    private final int[] tree;
+    private final TupleComparator cmp;
+    private final int k;
+
+    LoserTree(List<SortRun> runs, TupleComparator cmp) throws IOException {
+        this.k = runs.size();
+        this.cmp = cmp;
+        readers = new SortRun.RunReader[k];
+        heads = new Tuple[k];
+        tree = new int[k];
+        Arrays.fill(tree, -1);
+        try {
+            for (int i = 0; i < k; i++) {
+                readers[i] = runs.get(i).reader();
+                heads[i] = readers[i].next();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        for (int i = k - 1; i >= 0; i--)
+            replay(i);
+    }
+
+    /** @return true if run a's head comes before run b's */
+    private boolean beats(int a, int b) {
+        // -1 stands for a run ahead of all others, while the tree is built
+        if (a == -1)
+            return true;
+        if (b == -1)
+            return false;
+        if (heads[a] == null)
+            return false;
+        if (heads[b] == null)
+            return true;
+        int c = cmp.compare(heads[a], heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    /** Plays run s's head up from its leaf to the root. */
+    private void replay(int s) {
+        for (int t = (s + k) / 2; t > 0; t /= 2) {
+            if (beats(tree[t], s)) {
+                int loser = s;
+                s = tree[t];
+                tree[t] = loser;
+            }
+        }
+        tree[0] = s;
+    }
+
+    public boolean hasNext() {
+        return heads[tree[0]] != null;
+    }
+
+    public Tuple next() {
+        int w = tree[0];
+        Tuple t = heads[w];
+        if (t == null)
+            throw new NoSuchElementException();
+        try {
+            heads[w] = readers[w].next();
+        } catch (IOException e) {
+            throw new RuntimeException("cannot read sort run: " + e);
+        }
+        replay(w);
+        return t;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    void close() {
+        for (SortRun.RunReader r : readers)
+            if (r != null)
+                r.close();
     }
-    
 }
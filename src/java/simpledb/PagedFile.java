@@ -0,0 +1,291 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * PagedFile holds what SlottedFile, PaxFile and CompressedFile have in
+ * common: a headerless file of BufferPool.PAGE_SIZE pages identified by
+ * HeapPageIds, read and written with positional FileChannel I/O, inserts
+ * that reuse pages deletes have made room on before appending, and a scan
+ * that walks the pages in order through the BufferPool. Subclasses supply
+ * only the page format.
+ * <p>
+ * The page size is fixed at the default, since these files have no header
+ * to record another one in.
+ */
+abstract class PagedFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    final File f;
+    final TupleDesc td;
+    private transient RandomAccessFile raf;
+    private transient FileChannel channel;
+    private transient boolean writable;
+
+    // pages that have had tuples deleted from them since the file was
+    // opened, and so may have room for inserts before the last page does
+    private final TreeSet<Integer> freed = new TreeSet<Integer>();
+
+    PagedFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+    }
+
+    /**
+     * Returns a page of this file's format parsed from an image read from
+     * disk.
+     */
+    abstract Page createPage(HeapPageId pid, byte[] data) throws IOException;
+
+    /**
+     * Returns an iterator over all the tuples on a page of this file.
+     */
+    abstract Iterator<Tuple> pageIterator(Page page);
+
+    /**
+     * Returns the image of an empty page, for appending to the file.
+     * Formats that can be written override this, insertIntoPage and
+     * deleteFromPage.
+     */
+    byte[] emptyPageData() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Inserts t into page if it has room, and returns whether it did.
+     */
+    boolean insertIntoPage(Page page, Tuple t) throws DbException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Deletes t from page, which holds it.
+     */
+    void deleteFromPage(Page page, Tuple t) throws DbException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns the File backing this file on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the channel used for page I/O, opening the file read-only
+     * until the first write, as HeapFile does.
+     */
+    private synchronized FileChannel getChannel(boolean write) throws IOException {
+        if (channel != null && channel.isOpen() && write && !writable)
+            closeChannel();
+        if (channel == null || !channel.isOpen()) {
+            raf = new RandomAccessFile(f, write ? "rw" : "r");
+            channel = raf.getChannel();
+            writable = write;
+        }
+        return channel;
+    }
+
+    // positional reads and writes, retried once on a channel closed by an
+    // interrupted thread or by a reopen for writing; see HeapFile.readFully
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                while (buf.hasRemaining()) {
+                    if (getChannel(false).read(buf, position + buf.position()) < 0)
+                        break;
+                }
+                return;
+            } catch (ClosedChannelException e) {
+                if (attempt > 0 || Thread.currentThread().isInterrupted())
+                    throw e;
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buf, long position) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                while (buf.hasRemaining())
+                    getChannel(true).write(buf, position + buf.position());
+                return;
+            } catch (ClosedChannelException e) {
+                if (attempt > 0 || Thread.currentThread().isInterrupted())
+                    throw e;
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        try {
+            readFully(ByteBuffer.wrap(data), (long) pid.pageNumber() * BufferPool.PAGE_SIZE);
+            return createPage(new HeapPageId(pid.getTableId(), pid.pageNumber()), data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writeFully(ByteBuffer.wrap(page.getPageData()),
+                (long) page.getId().pageNumber() * BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Returns the number of pages in this file.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.PAGE_SIZE);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> pageList = new ArrayList<Page>();
+        BufferPool bp = Database.getBufferPool();
+
+        // try pages that deletes have made room on, then the last page
+        ArrayList<Integer> candidates;
+        synchronized (freed) {
+            candidates = new ArrayList<Integer>(freed);
+        }
+        int last = numPages() - 1;
+        if (last >= 0 && !candidates.contains(last))
+            candidates.add(last);
+        for (int pgNo : candidates) {
+            Page page = bp.getPage(tid, new HeapPageId(getId(), pgNo), Permissions.READ_WRITE);
+            if (insertIntoPage(page, t)) {
+                pageList.add(page);
+                return pageList;
+            }
+            synchronized (freed) {
+                freed.remove(pgNo);
+            }
+        }
+
+        // no room anywhere: append a new page. Another inserter may fill it
+        // first, in which case we append again.
+        while (true) {
+            HeapPageId pid;
+            synchronized (this) {
+                pid = new HeapPageId(getId(), numPages());
+                writeFully(ByteBuffer.wrap(emptyPageData()),
+                        (long) pid.pageNumber() * BufferPool.PAGE_SIZE);
+            }
+            Page page = bp.getPage(tid, pid, Permissions.READ_WRITE);
+            if (insertIntoPage(page, t)) {
+                pageList.add(page);
+                return pageList;
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        PageId pid = t.getRecordId().getPageId();
+        Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        deleteFromPage(page, t);
+        synchronized (freed) {
+            freed.add(pid.pageNumber());
+        }
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() {
+        closeChannel();
+    }
+
+    private synchronized void closeChannel() {
+        if (channel == null)
+            return;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        raf = null;
+        channel = null;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new PageWalker(tid) {
+            private static final long serialVersionUID = 1L;
+
+            Iterator<Tuple> tuples(Page page) {
+                return pageIterator(page);
+            }
+        };
+    }
+
+    /**
+     * Iterator over the tuples of this file, reading its pages in order
+     * through the BufferPool and taking the tuples of each from tuples().
+     */
+    abstract class PageWalker implements DbFileIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private int pageNo;
+        private Iterator<Tuple> pageIt;
+
+        PageWalker(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        abstract Iterator<Tuple> tuples(Page page);
+
+        public void open() throws DbException, TransactionAbortedException {
+            pageNo = -1;
+            pageIt = Collections.<Tuple>emptyList().iterator();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (pageIt == null)
+                return false;
+            while (!pageIt.hasNext()) {
+                if (pageNo + 1 >= numPages())
+                    return false;
+                pageNo++;
+                pageIt = tuples(Database.getBufferPool().getPage(tid,
+                        new HeapPageId(getId(), pageNo), Permissions.READ_ONLY, true));
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return pageIt.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            pageIt = null;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PaxFile is a DbFile of PaxPages, for tables that are mostly read by scans
+ * needing a few of many fields. The file is a sequence of
+ * BufferPool.PAGE_SIZE pages, as for a HeapFile, and its pages are
+ * identified by HeapPageIds. Tables are created in this format by
+ * {@link HeapFileEncoder#convertToPax}, and loaded with the
+ * <code>pax</code> option in the catalog file.
+ * <p>
+ * Inserts and deletes lock whole pages.
+ *
+ * @see PaxPage
+ */
+public class PaxFile extends PagedFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     */
+    public PaxFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    Page createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+
+    Iterator<Tuple> pageIterator(Page page) {
+        return ((PaxPage) page).iterator();
+    }
+
+    byte[] emptyPageData() {
+        return PaxPage.createPageData(td, new ArrayList<Tuple>(), BufferPool.PAGE_SIZE);
+    }
+
+    boolean insertIntoPage(Page page, Tuple t) throws DbException {
+        PaxPage p = (PaxPage) page;
+        if (p.getNumEmptySlots() == 0)
+            return false;
+        p.insertTuple(t);
+        return true;
+    }
+
+    void deleteFromPage(Page page, Tuple t) throws DbException {
+        ((PaxPage) page).deleteTuple(t);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("TupleDesc mismatch");
+        return super.insertTuple(tid, t);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file cut down to the
+     * given fields, which reads only their minipages of each page.
+     *
+     * @param columns the fields to return, in order
+     */
+    public DbFileIterator iterator(TransactionId tid, final int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        boolean whole = columns.length == td.numFields();
+        for (int k = 0; k < columns.length; k++) {
+            types[k] = td.getFieldType(columns[k]);
+            names[k] = td.getFieldName(columns[k]);
+            whole &= columns[k] == k;
+        }
+        final TupleDesc projected = whole ? td : new TupleDesc(types, names);
+        return new PageWalker(tid) {
+            private static final long serialVersionUID = 1L;
+
+            Iterator<Tuple> tuples(Page page) {
+                return ((PaxPage) page).iterator(columns, projected);
+            }
+        };
+    }
+}
@@ -0,0 +1,249 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * PaxPage is a page of a PaxFile. It holds as many tuples as a HeapPage of
+ * the same schema, and has the same header bitmap of used slots, but lays
+ * the tuples out column by column: after the header comes one minipage
+ * per field, holding that field of every slot in slot order. A scan that
+ * needs only some of the fields reads and decodes just their minipages.
+ *
+ * @see PaxFile
+ */
+public class PaxPage implements Page {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int numSlots;
+    final int headerSize;
+    // offset of each field's minipage
+    final int[] columnStart;
+    byte[] header;
+    int numEmpty;
+
+    // the page as it was read; never modified
+    final byte[] data;
+    // tuples inserted since the page was read, by slot; other used slots
+    // are decoded from data
+    final Tuple[] inserted;
+
+    boolean dirty;
+    TransactionId tid;
+    byte[] oldData;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk. data
+     * must not be changed afterwards.
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = numSlots(td, data.length);
+        this.headerSize = (numSlots + 7) / 8;
+        this.columnStart = columnStarts(td, numSlots);
+        this.data = data;
+        this.header = Arrays.copyOf(data, headerSize);
+        this.inserted = new Tuple[numSlots];
+        numEmpty = numSlots;
+        for (int i = 0; i < numSlots; i++)
+            if (isSlotUsed(i))
+                numEmpty--;
+        oldData = data;
+    }
+
+    /** Number of tuple slots on a page of pageSize bytes, as for a HeapPage. */
+    static int numSlots(TupleDesc td, int pageSize) {
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
+    }
+
+    private static int[] columnStarts(TupleDesc td, int numSlots) {
+        int[] starts = new int[td.numFields()];
+        for (int j = 0; j < starts.length; j++)
+            starts[j] = (numSlots + 7) / 8 + numSlots * td.getOffset(j);
+        return starts;
+    }
+
+    /**
+     * Serializes tuples into a page of pageSize bytes, putting tuple i in
+     * slot i; null entries become empty slots.
+     */
+    public static byte[] createPageData(TupleDesc td, List<Tuple> tuples, int pageSize) {
+        int slots = numSlots(td, pageSize);
+        if (tuples.size() > slots)
+            throw new IllegalArgumentException("more tuples than slots on a page");
+        byte[] page = new byte[pageSize];
+        int[] starts = columnStarts(td, slots);
+        for (int i = 0; i < tuples.size(); i++) {
+            if (tuples.get(i) != null) {
+                page[i / 8] |= 1 << (i % 8);
+                writeTuple(page, td, starts, i, tuples.get(i));
+            }
+        }
+        return page;
+    }
+
+    private static void writeTuple(byte[] page, TupleDesc td, int[] starts, int slot, Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int j = 0; j < td.numFields(); j++) {
+            int len = td.getFieldType(j).getLen();
+            baos.reset();
+            try {
+                t.getField(j).serialize(dos);
+            } catch (IOException e) {
+                // writing to memory cannot fail
+                throw new RuntimeException(e);
+            }
+            System.arraycopy(baos.toByteArray(), 0, page, starts[j] + slot * len, len);
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public synchronized PaxPage getBeforeImage() {
+        try {
+            return new PaxPage(pid, oldData);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    public synchronized void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+    public synchronized byte[] getPageData() {
+        byte[] page = data.clone();
+        System.arraycopy(header, 0, page, 0, headerSize);
+        for (int i = 0; i < numSlots; i++) {
+            if (inserted[i] != null && isSlotUsed(i))
+                writeTuple(page, td, columnStart, i, inserted[i]);
+        }
+        return page;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public synchronized int getNumEmptySlots() {
+        return numEmpty;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public synchronized boolean isSlotUsed(int i) {
+        return (header[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value)
+            header[i / 8] |= 1 << (i % 8);
+        else
+            header[i / 8] &= ~(1 << (i % 8));
+    }
+
+    /**
+     * Adds the specified tuple to the first empty slot of the page; the
+     * tuple is updated to reflect that it is now stored on this page.
+     *
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (numEmpty == 0)
+            throw new DbException("Page is full");
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("TupleDesc mismatch");
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                markSlotUsed(i, true);
+                numEmpty--;
+                inserted[i] = t;
+                t.setRecordId(new RecordId(pid, i));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("Tuple not found on page");
+        int slot = rid.tupleno();
+        if (!isSlotUsed(slot))
+            throw new DbException("Tuple slot is already empty");
+        markSlotUsed(slot, false);
+        numEmpty++;
+        inserted[slot] = null;
+    }
+
+    public synchronized void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = tid;
+    }
+
+    public synchronized TransactionId isDirty() {
+        return dirty ? tid : null;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *         this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        int[] all = new int[td.numFields()];
+        for (int j = 0; j < all.length; j++)
+            all[j] = j;
+        return iterator(all, td);
+    }
+
+    /**
+     * Returns the tuples on this page cut down to the given fields, reading
+     * only their minipages.
+     *
+     * @param columns the fields to return, in order
+     * @param projected the TupleDesc of the returned tuples
+     */
+    public synchronized Iterator<Tuple> iterator(int[] columns, TupleDesc projected) {
+        ArrayList<Tuple> l = new ArrayList<Tuple>(numSlots - numEmpty);
+        for (int i = 0; i < numSlots; i++)
+            if (isSlotUsed(i))
+                l.add(new Tuple(projected));
+        for (int k = 0; k < columns.length; k++) {
+            int j = columns[k];
+            Type type = td.getFieldType(j);
+            int len = type.getLen();
+            // walk one minipage from start to end
+            int n = 0;
+            for (int i = 0; i < numSlots; i++) {
+                if (!isSlotUsed(i))
+                    continue;
+                Field f = inserted[i] != null
+                    ? inserted[i].getField(j) : type.parse(data, columnStart[j] + i * len);
+                l.get(n++).setField(k, f);
+            }
+        }
+        int n = 0;
+        for (int i = 0; i < numSlots; i++)
+            if (isSlotUsed(i))
+                l.get(n++).setRecordId(new RecordId(pid, i));
+        return Collections.unmodifiableList(l).iterator();
+    }
+}
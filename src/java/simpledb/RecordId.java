@@ -61,7 +61,7 @@ public class RecordId implements Serializable {
             return false;
         RecordId other = (RecordId) o;
 
-        return other.hashCode() == hashCode();
+        return other.tupleno == tupleno && other.pid.equals(pid);
     }
 
     /**
@@ -73,7 +73,7 @@ public class RecordId implements Serializable {
     @Override
     public int hashCode() {
         // some code goes here
-        return Integer.parseInt(pid.hashCode() + "" + tupleno);
+        return 31 * pid.hashCode() + tupleno;
     }
 
 }
@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.util.Map;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool evicts when it needs
+ * room for another page. A policy only tracks PageIds; the pages themselves
+ * stay in the BufferPool, which tells the policy about every page it adds,
+ * hits and drops. Policies are not thread safe; the BufferPool calls them
+ * while holding the lock of the shard they belong to.
+ * <p>
+ * The BufferPool runs in NO STEAL mode, so a policy must never pick a dirty
+ * page.
+ *
+ * @see BufferPool
+ */
+public interface ReplacementPolicy {
+
+    /** The replacement policies a BufferPool can be built with. */
+    public enum Kind {
+        /** Least recently used. */
+        LRU {
+            public ReplacementPolicy create(int capacity) {
+                return new LruPolicy();
+            }
+        },
+        /** CLOCK (second chance). */
+        CLOCK {
+            public ReplacementPolicy create(int capacity) {
+                return new ClockPolicy();
+            }
+        },
+        /** CLOCK-Pro, which separates hot pages from cold ones. */
+        CLOCK_PRO {
+            public ReplacementPolicy create(int capacity) {
+                return new ClockProPolicy(capacity);
+            }
+        };
+
+        /**
+         * Creates a new, empty policy of this kind.
+         *
+         * @param capacity the number of pages the policy is expected to
+         *   manage; some policies use it to size their history
+         */
+        public abstract ReplacementPolicy create(int capacity);
+    }
+
+    /**
+     * Called when a page is brought into the pool.
+     *
+     * @param pid the id of the page that was added
+     */
+    public void pageAdded(PageId pid);
+
+    /**
+     * Called when a page that is already in the pool is requested again.
+     *
+     * @param pid the id of the page that was accessed
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the pool other than through victim(), for
+     * example when it is discarded by the recovery code.
+     *
+     * @param pid the id of the page that was removed
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Picks a clean page to evict and stops tracking it. The caller is
+     * responsible for removing the page from the pool.
+     *
+     * @param resident the pages currently tracked by this policy, by id
+     * @return the id of the page to evict, or null if every tracked page is
+     *   dirty
+     */
+    public PageId victim(Map<PageId, Page> resident);
+}
@@ -16,6 +16,9 @@ public class SeqScan implements DbIterator {
     private DbFile dbFile;
     private DbFileIterator it;
     private TransactionId tid;
+    // the fields returned, or null for all of them
+    private int[] columns;
+    private transient TupleDesc projected;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -44,6 +47,21 @@ public class SeqScan implements DbIterator {
         this.it = dbFile.iterator(tid);
     }
 
+    /**
+     * Creates a sequential scan that returns only the given fields of each
+     * tuple, in the given order. On a PaxFile only the pages' minipages for
+     * those fields are read; on a HeapFile only those fields are decoded.
+     *
+     * @param columns
+     *            the indexes of the fields to return
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this(tid, tableid, tableAlias);
+        this.columns = columns.clone();
+        if (dbFile instanceof PaxFile)
+            this.it = ((PaxFile) dbFile).iterator(tid, this.columns);
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -78,6 +96,7 @@ public class SeqScan implements DbIterator {
         // some code goes here
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.projected = null;
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -104,14 +123,15 @@ public class SeqScan implements DbIterator {
             return null;
         
         TupleDesc fileDesc = dbFile.getTupleDesc();
-        int numFields = fileDesc.numFields();
+        int numFields = columns == null ? fileDesc.numFields() : columns.length;
         
         String[] names = new String[numFields];
         Type[] types = new Type[numFields];
 
         for (int i = 0; i < numFields; i++) {
-            types[i] = fileDesc.getFieldType(i);
-            names[i] = tableAlias + "." + fileDesc.getFieldName(i);
+            int field = columns == null ? i : columns[i];
+            types[i] = fileDesc.getFieldType(field);
+            names[i] = tableAlias + "." + fileDesc.getFieldName(field);
         }
 
         return new TupleDesc(types, names);
@@ -130,7 +150,20 @@ public class SeqScan implements DbIterator {
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        return it.next();
+        Tuple t = it.next();
+        if (columns == null || dbFile instanceof PaxFile)
+            return t;
+        return project(t);
+    }
+
+    private Tuple project(Tuple t) {
+        if (projected == null)
+            projected = getTupleDesc();
+        Tuple out = new Tuple(projected);
+        for (int i = 0; i < columns.length; i++)
+            out.setField(i, t.getField(columns[i]));
+        out.setRecordId(t.getRecordId());
+        return out;
     }
 
     public void close() {
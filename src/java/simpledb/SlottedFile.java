@@ -0,0 +1,58 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedFile is a DbFile of SlottedPages, for tables whose string fields
+ * are mostly much shorter than Type.STRING_LEN. The file is a sequence of
+ * BufferPool.PAGE_SIZE pages, as for a HeapFile, and its pages are
+ * identified by HeapPageIds. Unlike a HeapFile, it has no header, so its
+ * page size is always the default. Tables are created in this format by
+ * {@link HeapFileEncoder#convertSlotted}, and loaded with the
+ * <code>slotted</code> option in the catalog file.
+ * <p>
+ * Inserts and deletes lock whole pages.
+ *
+ * @see SlottedPage
+ */
+public class SlottedFile extends PagedFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    Page createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new SlottedPage(pid, data);
+    }
+
+    Iterator<Tuple> pageIterator(Page page) {
+        return ((SlottedPage) page).iterator();
+    }
+
+    byte[] emptyPageData() {
+        return SlottedPage.createEmptyPageData();
+    }
+
+    boolean insertIntoPage(Page page, Tuple t) throws DbException {
+        return ((SlottedPage) page).insertTuple(t);
+    }
+
+    void deleteFromPage(Page page, Tuple t) throws DbException {
+        ((SlottedPage) page).deleteTuple(t);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (SlottedPage.recordSize(t) + SlottedPage.SLOT_SIZE
+                > BufferPool.PAGE_SIZE - SlottedPage.HEADER_SIZE)
+            throw new DbException("tuple is larger than a page");
+        return super.insertTuple(tid, t);
+    }
+}
@@ -0,0 +1,260 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedPage is a page of a SlottedFile. Unlike a HeapPage, whose slots
+ * all have the fixed width of the widest possible tuple, a SlottedPage
+ * stores each tuple in just the bytes it needs, so that short strings do
+ * not take up STRING_LEN bytes each.
+ * <p>
+ * The page starts with a two-byte count of directory entries and the
+ * two-byte offset of the start of the record area. Then comes the slot
+ * directory, which has a two-byte record offset and a two-byte record
+ * length per slot. An offset of 0 marks an empty slot. Records are packed
+ * at the end of the page, growing towards the directory. Within a record,
+ * an int field takes 4 bytes and a string field takes a two-byte length
+ * followed by its characters.
+ * <p>
+ * Slot numbers, and with them RecordIds, stay the same when other tuples
+ * on the page are deleted. The free space left by a delete is reclaimed
+ * the next time the page is written, since getPageData always packs the
+ * records.
+ *
+ * @see SlottedFile
+ */
+public class SlottedPage implements Page {
+
+    static final int HEADER_SIZE = 4;
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    // the size of the page image this page was read from and writes back
+    final int pageSize;
+    // the tuple in each slot, null for an empty slot
+    final ArrayList<Tuple> slots = new ArrayList<Tuple>();
+    // total size of the records of the tuples in slots
+    int recordBytes;
+    boolean dirty;
+    TransactionId tid;
+
+    byte[] oldData;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in
+     * the format described in the class comment.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = data.length;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int numSlots = buf.getShort(0) & 0xffff;
+        for (int i = 0; i < numSlots; i++) {
+            int offset = buf.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xffff;
+            if (offset == 0) {
+                slots.add(null);
+                continue;
+            }
+            DataInputStream dis = new DataInputStream(
+                    new ByteArrayInputStream(data, offset, data.length - offset));
+            Tuple t = readRecord(td, dis);
+            t.setRecordId(new RecordId(pid, i));
+            slots.add(t);
+            recordBytes += recordSize(t);
+        }
+        oldData = data;
+    }
+
+    private static Tuple readRecord(TupleDesc td, DataInputStream dis) throws IOException {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                t.setField(j, new IntField(dis.readInt()));
+            } else {
+                byte[] bs = new byte[dis.readUnsignedShort()];
+                dis.readFully(bs);
+                t.setField(j, new StringField(new String(bs), Type.STRING_LEN));
+            }
+        }
+        return t;
+    }
+
+    private static void writeRecord(Tuple t, DataOutputStream dos) throws IOException {
+        TupleDesc td = t.getTupleDesc();
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                dos.writeInt(((IntField) t.getField(j)).getValue());
+            } else {
+                String s = ((StringField) t.getField(j)).getValue();
+                dos.writeShort(s.length());
+                dos.writeBytes(s);
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes the record of t takes up on a page, not
+     *         counting its slot directory entry.
+     */
+    public static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                size += 4;
+            else
+                size += 2 + ((StringField) t.getField(j)).getValue().length();
+        }
+        return size;
+    }
+
+    /**
+     * Serializes tuples into a page of pageSize bytes, putting tuple i in
+     * slot i; null entries become empty slots.
+     *
+     * @throws IllegalArgumentException if the tuples do not fit
+     */
+    public static byte[] createPageData(List<Tuple> tuples, int pageSize) {
+        byte[] data = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        int end = pageSize;
+        for (int i = 0; i < tuples.size(); i++) {
+            Tuple t = tuples.get(i);
+            if (t == null)
+                continue;
+            baos.reset();
+            try {
+                writeRecord(t, dos);
+            } catch (IOException e) {
+                // writing to memory cannot fail
+                throw new RuntimeException(e);
+            }
+            end -= baos.size();
+            if (end < HEADER_SIZE + tuples.size() * SLOT_SIZE)
+                throw new IllegalArgumentException("tuples do not fit on a page");
+            System.arraycopy(baos.toByteArray(), 0, data, end, baos.size());
+            buf.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) end);
+            buf.putShort(HEADER_SIZE + i * SLOT_SIZE + 2, (short) baos.size());
+        }
+        buf.putShort(0, (short) tuples.size());
+        buf.putShort(2, (short) end);
+        return data;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage of the default page size, which SlottedFiles always use.
+     */
+    public static byte[] createEmptyPageData() {
+        return createPageData(new ArrayList<Tuple>(), BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public synchronized SlottedPage getBeforeImage() {
+        try {
+            return new SlottedPage(pid, oldData);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    public synchronized void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+    public synchronized byte[] getPageData() {
+        return createPageData(slots, pageSize);
+    }
+
+    /**
+     * Returns the number of bytes left for records and their directory
+     * entries.
+     */
+    public synchronized int getFreeSpace() {
+        return pageSize - HEADER_SIZE - slots.size() * SLOT_SIZE - recordBytes;
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot or in
+     * a new one; the tuple is updated to reflect that it is now stored on
+     * this page.
+     *
+     * @return false if the page has no room for the tuple
+     * @throws DbException if tupledesc is mismatch.
+     */
+    public synchronized boolean insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("TupleDesc mismatch");
+
+        int slot = slots.indexOf(null);
+        int needed = recordSize(t) + (slot < 0 ? SLOT_SIZE : 0);
+        if (needed > getFreeSpace())
+            return false;
+        if (slot < 0) {
+            slot = slots.size();
+            slots.add(t);
+        } else {
+            slots.set(slot, t);
+        }
+        recordBytes += recordSize(t);
+        t.setRecordId(new RecordId(pid, slot));
+        return true;
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("Tuple not found on page");
+        int slot = rid.tupleno();
+        if (slot >= slots.size() || slots.get(slot) == null)
+            throw new DbException("Tuple slot is already empty");
+
+        recordBytes -= recordSize(slots.get(slot));
+        slots.set(slot, null);
+        // empty slots at the end of the directory need no entry
+        while (!slots.isEmpty() && slots.get(slots.size() - 1) == null)
+            slots.remove(slots.size() - 1);
+    }
+
+    public synchronized void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = tid;
+    }
+
+    public synchronized TransactionId isDirty() {
+        return dirty ? tid : null;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *         this iterator throws an UnsupportedOperationException)
+     */
+    public synchronized Iterator<Tuple> iterator() {
+        ArrayList<Tuple> l = new ArrayList<Tuple>(slots.size());
+        for (Tuple t : slots)
+            if (t != null)
+                l.add(t);
+        return Collections.unmodifiableList(l).iterator();
+    }
+}
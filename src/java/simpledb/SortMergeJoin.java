@@ -0,0 +1,221 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin is a Join that sorts both children on their join fields
+ * and merges them, for equality and range predicates. The right child is
+ * read into memory once, and is only sorted if it does not already arrive
+ * in order; the left child is sorted by an OrderBy, which sorts externally
+ * past the memory budget. Two cursors then move through the sorted right
+ * child as the left join value grows: the first right tuple not less than
+ * it, and the first one greater than it. The right tuples matching a left
+ * tuple are always the run between them, those before the first cursor,
+ * or those from the second on, so runs of repeated values on either side
+ * are joined in full while each cursor passes over the right child only
+ * once.
+ * <p>
+ * If the right child holds more tuples than the budget, the join falls
+ * back to Join's block nested loops.
+ */
+public class SortMergeJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private final int maxTuples;
+    private transient TupleDesc comboTD;
+    private transient OrderBy left;
+    private transient ArrayList<Tuple> right;
+    // true if the right child is over budget, and Join does the joining
+    private transient boolean nested;
+    // the left tuple being joined, and the right tuples left to join it with
+    private transient Tuple lt;
+    private transient int rPos;
+    private transient int rEnd;
+    // first right tuple whose join value is >= / > that of left tuple li
+    private transient int ge;
+    private transient int gt;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be EQUALS, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or
+     *            GREATER_THAN_OR_EQ
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, BLOCK_SIZE);
+    }
+
+    /**
+     * Constructor for a join with a memory budget other than
+     * Join.BLOCK_SIZE.
+     *
+     * @param maxTuples
+     *            the most tuples of either child to hold in memory at once
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int maxTuples) {
+        super(p, child1, child2, maxTuples);
+        if (!canMerge(p.getOperator()))
+            throw new IllegalArgumentException("cannot sort-merge join on " + p.getOperator());
+        this.p = p;
+        this.maxTuples = maxTuples;
+    }
+
+    /** @return true if a SortMergeJoin can join on op */
+    public static boolean canMerge(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+            || op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN
+            || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /**
+     * Reads all tuples of child, and sorts them on field unless they were
+     * already in order. If child holds more than maxTuples tuples, it is
+     * rewound instead.
+     *
+     * @return the sorted tuples, or null if there were too many
+     */
+    private static ArrayList<Tuple> readSorted(DbIterator child, int field, int maxTuples)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> l = new ArrayList<Tuple>();
+        boolean sorted = true;
+        while (child.hasNext()) {
+            if (l.size() == maxTuples) {
+                child.rewind();
+                return null;
+            }
+            Tuple t = child.next();
+            if (sorted && !l.isEmpty() && l.get(l.size() - 1).getField(field)
+                    .compare(Predicate.Op.GREATER_THAN, t.getField(field)))
+                sorted = false;
+            l.add(t);
+        }
+        if (!sorted)
+            Collections.sort(l, new TupleComparator(field, true));
+        return l;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        comboTD = getTupleDesc();
+        start();
+    }
+
+    /**
+     * Opens and reads the right child, then opens the left one: through an
+     * OrderBy, which opens it itself, or directly for Join's nested loops
+     * if the right child was over budget.
+     */
+    protected void openChildren() throws DbException, TransactionAbortedException {
+        DbIterator[] children = getChildren();
+        children[1].open();
+        right = readSorted(children[1], p.getField2(), maxTuples);
+        nested = right == null;
+        if (nested) {
+            children[0].open();
+        } else {
+            left = new OrderBy(p.getField1(), true, children[0], maxTuples);
+            left.open();
+        }
+    }
+
+    private void start() {
+        lt = null;
+        rPos = rEnd = 0;
+        ge = gt = 0;
+    }
+
+    public void close() {
+        super.close();
+        if (left != null)
+            left.close();
+        left = null;
+        right = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (nested) {
+            super.rewind();
+            return;
+        }
+        left.rewind();
+        start();
+    }
+
+    /**
+     * Moves to left tuple t, and sets [rPos, rEnd) to the right tuples it
+     * joins with.
+     */
+    private void nextLeft(Tuple t) {
+        lt = t;
+        Field value = t.getField(p.getField1());
+        int f = p.getField2();
+        while (ge < right.size()
+                && right.get(ge).getField(f).compare(Predicate.Op.LESS_THAN, value))
+            ge++;
+        if (gt < ge)
+            gt = ge;
+        while (gt < right.size()
+                && right.get(gt).getField(f).compare(Predicate.Op.LESS_THAN_OR_EQ, value))
+            gt++;
+
+        // left value op right value
+        switch (p.getOperator()) {
+        case EQUALS:
+            rPos = ge;
+            rEnd = gt;
+            break;
+        case LESS_THAN:
+            rPos = gt;
+            rEnd = right.size();
+            break;
+        case LESS_THAN_OR_EQ:
+            rPos = ge;
+            rEnd = right.size();
+            break;
+        case GREATER_THAN:
+            rPos = 0;
+            rEnd = ge;
+            break;
+        default:
+            rPos = 0;
+            rEnd = gt;
+            break;
+        }
+    }
+
+    /**
+     * Returns the next pair of left and right tuples that satisfy the join
+     * predicate, concatenated as by Join.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (nested)
+            return super.fetchNext();
+        if (left == null)
+            return null;
+        while (rPos >= rEnd) {
+            if (!left.hasNext())
+                return null;
+            nextLeft(left.next());
+        }
+        Tuple t1 = lt;
+        Tuple t2 = right.get(rPos++);
+        Tuple t = new Tuple(comboTD);
+        int td1n = t1.getTupleDesc().numFields();
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+}
@@ -70,6 +70,10 @@ public class TableStats {
     private StringHistogram[] stringHistMap;
     private TupleDesc td;
     private int numTuples;
+    // pages in the table's file, for formats where they cannot be worked
+    // out from the tuple size; 0 otherwise
+    private int numPages;
+    private int pageSize = BufferPool.PAGE_SIZE;
     private int ioCostPerPage;
 
     /**
@@ -94,6 +98,10 @@ public class TableStats {
         DbFile f = Database.getCatalog().getDbFile(tableid);
         DbFileIterator it = f.iterator(new TransactionId());
         td = f.getTupleDesc();
+        if (f instanceof PagedFile)
+            numPages = ((PagedFile) f).numPages();
+        else if (f instanceof HeapFile)
+            pageSize = ((HeapFile) f).getPageSize();
         int[] maxMap = new int[td.numFields()];
         int[] minMap = new int[td.numFields()];
         this.ioCostPerPage = ioCostPerPage;
@@ -190,11 +198,29 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        double tuplesPerPage = BufferPool.PAGE_SIZE / td.getSize();
+        if (this.numPages > 0)
+            return this.numPages * ioCostPerPage;
+        double tuplesPerPage = pageSize / td.getSize();
         double numPages = (numTuples - 1) / tuplesPerPage + 1;
         return numPages * ioCostPerPage;
     }
 
+    /**
+     * Estimates the cost of reading the tuples that satisfy
+     * <tt>field op constant</tt> through a BTreeFile index on field: a
+     * descent to the first matching leaf, the leaves holding the matching
+     * entries, and a page read for every matching tuple, since an index
+     * does not keep its table's tuples in key order.
+     *
+     * @return The estimated cost of the index scan, comparable with
+     *         estimateScanCost()
+     */
+    public double estimateIndexScanCost(int field, Predicate.Op op, Field constant) {
+        double matching = numTuples * estimateSelectivity(field, op, constant);
+        double leaves = Math.ceil(matching / BTreeLeafPage.capacity(td.getFieldType(field)));
+        return (1 + leaves + matching) * ioCostPerPage;
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
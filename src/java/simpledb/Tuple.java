@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
 
@@ -17,6 +18,11 @@ public class Tuple implements Serializable {
     private Field [] fields;
     private RecordId rid;
 
+    // the serialized tuple that unset fields are decoded from, if any
+    private transient ByteBuffer data;
+    private transient int offset;
+    private transient boolean changed;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -30,6 +36,36 @@ public class Tuple implements Serializable {
         this.fields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple over a serialized tuple in data, starting at offset.
+     * Fields are decoded one at a time, the first time they are asked for,
+     * so that a tuple that is filtered out on one field never has its
+     * other fields decoded. data must not change while the tuple is in use.
+     */
+    Tuple(TupleDesc td, ByteBuffer data, int offset) {
+        this(td);
+        this.data = data;
+        this.offset = offset;
+    }
+
+    /**
+     * @return true if this tuple reads its fields from data at offset and
+     *         none of them has been changed since, so that those bytes are
+     *         still its serialized form.
+     */
+    boolean isBackedBy(ByteBuffer data, int offset) {
+        return this.data == data && this.offset == offset && !changed;
+    }
+
+    /**
+     * If this tuple decodes its fields out of from, switches it over to to,
+     * which must hold the same bytes.
+     */
+    void rebase(ByteBuffer from, ByteBuffer to) {
+        if (data == from)
+            data = to;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -71,6 +107,7 @@ public class Tuple implements Serializable {
         if (td.getFieldType(i) != f.getType())
             throw new RuntimeException();
         fields[i] = f;
+        changed = true;
     }
 
     /**
@@ -81,7 +118,23 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return fields[i];
+        Field f = fields[i];
+        if (f == null && data != null) {
+            f = td.getFieldType(i).parse(data, offset + td.getOffset(i));
+            fields[i] = f;
+        }
+        return f;
+    }
+
+    private void decodeAll() {
+        for (int i = 0; i < fields.length; i++)
+            getField(i);
+    }
+
+    // the backing bytes are not serialized, so decode everything first
+    private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
+        decodeAll();
+        out.defaultWriteObject();
     }
 
     /**
@@ -94,6 +147,7 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         // some code goes here
+        decodeAll();
         String s = "";
         for(int i = 0; i < fields.length; i++) {
             if (fields[i] == null)
@@ -113,6 +167,7 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
+        decodeAll();
         return Arrays.asList(fields).iterator();
     }
 }
@@ -37,6 +37,9 @@ public class TupleDesc implements Serializable {
 
     private ArrayList<TDItem> tdList = new ArrayList<TDItem>();
 
+    // field offsets, computed by the first call to getOffset
+    private transient int[] offsets;
+
     /**
      * @return
      *        An iterator which iterates over all the field TDItems
@@ -143,6 +146,21 @@ public class TupleDesc implements Serializable {
         throw new NoSuchElementException();
     }
 
+    /**
+     * @return The byte offset of field i within a serialized tuple of this
+     *         TupleDesc.
+     */
+    public int getOffset(int i) {
+        int[] offs = offsets;
+        if (offs == null) {
+            offs = new int[tdList.size()];
+            for (int j = 1; j < offs.length; j++)
+                offs[j] = offs[j - 1] + tdList.get(j - 1).fieldType.getLen();
+            offsets = offs;
+        }
+        return offs[i];
+    }
+
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
      *         Note that tuples from a given TupleDesc are of a fixed size.
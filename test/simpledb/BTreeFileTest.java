@@ -0,0 +1,203 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+    }
+
+    private BTreeFile createIndex(HeapFile table) throws IOException {
+        File f = File.createTempFile("btree", ".idx");
+        f.deleteOnExit();
+        f.delete();
+        BTreeFile index = new BTreeFile(f, table, 0);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    private static Tuple tuple(HeapFile table, int a, int b) {
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(a));
+        t.setField(1, new IntField(b));
+        return t;
+    }
+
+    private static ArrayList<ArrayList<Integer>> matching(ArrayList<ArrayList<Integer>> tuples,
+            Predicate.Op op, int value) {
+        ArrayList<ArrayList<Integer>> l = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples)
+            if (new IntField(t.get(0)).compare(op, new IntField(value)))
+                l.add(t);
+        return l;
+    }
+
+    /**
+     * Unit test for BTreeFile.insertTuple(): inserts through the BufferPool
+     * split leaves and the root, and the entries come back in key order.
+     */
+    @Test public void insertSplits() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        BTreeFile index = createIndex(table);
+        for (int i = 0; i < ROWS; i++)
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    tuple(table, (i * 7919) % ROWS, i));
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertTrue(index.numPages() > 2 + ROWS / BTreeLeafPage.capacity(Type.INT_TYPE));
+        tid = new TransactionId();
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        for (int i = 0; i < ROWS; i++) {
+            assertTrue(it.hasNext());
+            assertEquals(new IntField(i), it.next().getField(0));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * Unit test for IndexScan over a bulk loaded BTreeFile: every
+     * predicate returns the same tuples as a filtered sequential scan,
+     * with repeated keys.
+     */
+    @Test public void buildAndScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, 500, null, tuples);
+        BTreeFile index = createIndex(table);
+        index.build();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        Predicate.Op[] ops = {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+            Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+            Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.NOT_EQUALS};
+        int[] values = {-1, 0, 250, 499, 500};
+        for (Predicate.Op op : ops) {
+            for (int v : values) {
+                SystemTestUtil.matchTuples(
+                        new IndexScan(tid, index, "t", op, new IntField(v)),
+                        matching(tuples, op, v));
+            }
+        }
+
+        // in key order
+        IndexScan scan = new IndexScan(tid, index, "t", Predicate.Op.GREATER_THAN, new IntField(100));
+        scan.open();
+        int last = 101;
+        while (scan.hasNext()) {
+            int key = ((IntField) scan.next().getField(0)).getValue();
+            assertTrue(key >= last);
+            last = key;
+        }
+        scan.close();
+    }
+
+    /**
+     * Unit test for BufferPool.deleteTuple() keeping an index in sync, and
+     * for an aborted insert leaving no entry behind.
+     */
+    @Test public void deleteAndAbort() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, 500, null, tuples);
+        BTreeFile index = createIndex(table);
+        index.build();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        IndexScan scan = new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(42));
+        scan.open();
+        ArrayList<Tuple> found = new ArrayList<Tuple>();
+        while (scan.hasNext())
+            found.add(scan.next());
+        scan.close();
+        for (Tuple t : found)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(
+                new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(42)),
+                new ArrayList<ArrayList<Integer>>());
+        Database.getBufferPool().insertTuple(tid, table.getId(), tuple(table, 42, 7));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(
+                new IndexScan(tid, index, "t", Predicate.Op.LESS_THAN_OR_EQ, new IntField(42)),
+                matching(tuples, Predicate.Op.LESS_THAN, 42));
+    }
+
+    private Tuple find(BTreeFile index, int key) throws Exception {
+        TransactionId reader = new TransactionId();
+        IndexScan scan = new IndexScan(reader, index, "t", Predicate.Op.EQUALS, new IntField(key));
+        scan.open();
+        Tuple t = scan.next();
+        scan.close();
+        Database.getBufferPool().transactionComplete(reader);
+        return t;
+    }
+
+    /**
+     * Unit test for BTreeFile locking: transactions deleting and inserting
+     * entries in different leaves, without splitting them, do not wait for
+     * each other.
+     */
+    @Test public void writersToDifferentLeaves() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        final BTreeFile index = createIndex(table);
+        for (int i = 0; i < ROWS; i++)
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    tuple(table, (i * 7919) % ROWS, i));
+        Database.getBufferPool().transactionComplete(tid);
+        Tuple first = find(index, 0);
+        final Tuple last = find(index, ROWS - 1);
+
+        TransactionId t1 = new TransactionId();
+        index.deleteTuple(t1, first);
+        index.insertTuple(t1, first);
+
+        final TransactionId t2 = new TransactionId();
+        final Exception[] failed = new Exception[1];
+        Thread other = new Thread() {
+            public void run() {
+                try {
+                    index.deleteTuple(t2, last);
+                    index.insertTuple(t2, last);
+                } catch (Exception e) {
+                    failed[0] = e;
+                }
+            }
+        };
+        other.start();
+        other.join(10000);
+        assertFalse("blocked behind another leaf's writer", other.isAlive());
+        assertNull(failed[0]);
+        Database.getBufferPool().transactionComplete(t1);
+        Database.getBufferPool().transactionComplete(t2);
+
+        tid = new TransactionId();
+        assertEquals(0, ((IntField) find(index, 0).getField(0)).getValue());
+        assertEquals(ROWS - 1, ((IntField) find(index, ROWS - 1).getField(0)).getValue());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE};
+    private static final String[] CITIES = {"Berkeley", "Oakland", "Albany", "Emeryville"};
+
+    private HeapFile heap;
+    private TransactionId tid;
+
+    /**
+     * Writes a HeapFile of ROWS rows: a row number, a small number and a
+     * city name. The first and last rows hold the extreme int values.
+     */
+    @Before public void writeHeapFile() throws Exception {
+        File text = File.createTempFile("compressed", ".txt");
+        text.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(text));
+        pw.println(Integer.MIN_VALUE + "," + Integer.MAX_VALUE + ",");
+        for (int i = 1; i < ROWS - 1; i++)
+            pw.println(i + "," + (i % 10) + "," + CITIES[i % CITIES.length]);
+        pw.println(Integer.MAX_VALUE + "," + Integer.MIN_VALUE + ",x");
+        pw.close();
+
+        File dat = File.createTempFile("compressed", ".dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convert(text, dat, BufferPool.PAGE_SIZE, TYPES.length, TYPES, ',');
+        heap = new HeapFile(dat, new TupleDesc(TYPES));
+        Database.getCatalog().addTable(heap, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    private CompressedFile convert() throws IOException {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convertCompressed(heap, f);
+        CompressedFile cf = new CompressedFile(f, heap.getTupleDesc());
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        return cf;
+    }
+
+    private ArrayList<Tuple> scan(DbFile f) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convertCompressed(): every tuple reads
+     * back unchanged, from far fewer pages.
+     */
+    @Test public void convertAndScan() throws Exception {
+        CompressedFile f = convert();
+        ArrayList<Tuple> expected = scan(heap);
+        ArrayList<Tuple> actual = scan(f);
+        assertEquals(ROWS, actual.size());
+        for (int i = 0; i < ROWS; i++)
+            assertEquals(expected.get(i).toString(), actual.get(i).toString());
+        assertTrue(f.numPages() * 5 < heap.numPages());
+    }
+
+    /**
+     * Unit test for CompressedPage.Builder: a page is filled no further
+     * than fits, and a column with one value on the page takes no bits.
+     */
+    @Test public void builderFillsPage() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE});
+        CompressedPage.Builder b = new CompressedPage.Builder(td, 64);
+        int n = 0;
+        while (b.add(Utility.getHeapTuple(n, 1)))
+            n++;
+        // 2 + 4 + 1 header bytes leave 57 bytes, which hold the 65 values
+        // 0 to 64 at 7 bits each
+        assertEquals(65, n);
+        assertEquals(64, b.build().length);
+
+        b = new CompressedPage.Builder(td, 64);
+        for (int i = 0; i < 1000; i++)
+            assertTrue(b.add(Utility.getHeapTuple(42, 1)));
+    }
+
+    /**
+     * Unit test for CompressedFile.insertTuple(), deleteTuple() and
+     * writePage(): the table is read-only.
+     */
+    @Test public void readOnly() throws Exception {
+        CompressedFile f = convert();
+        Tuple t = scan(f).get(0);
+        try {
+            Database.getBufferPool().deleteTuple(tid, t);
+            fail("expected DbException");
+        } catch (DbException e) {
+        }
+        try {
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+            fail("expected DbException");
+        } catch (DbException e) {
+        }
+        try {
+            f.writePage(f.readPage(t.getRecordId().getPageId()));
+            fail("expected IOException");
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedFileTest.class);
+    }
+}
@@ -3,10 +3,14 @@ package simpledb;
 import simpledb.TestUtil.LockGrabber;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class DeadlockTest extends TestUtil.CreateHeapFile {
@@ -211,6 +215,64 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * Not-so-unit test of throughput under contention. THREADS transactions
+   * at a time each write-lock two of the three pages in random order, so
+   * some of them deadlock. Prints commits and aborts per second; every
+   * abort must be the victim of a deadlock the lock manager found.
+   */
+  @Test public void testContentionThroughput() throws Exception {
+    final int THREADS = 4;
+    final long RUN_MILLIS = 2000;
+    final PageId[] pages = {p0, p1, p2};
+    final long deadline = System.currentTimeMillis() + RUN_MILLIS;
+    final AtomicInteger commits = new AtomicInteger();
+    final AtomicInteger aborts = new AtomicInteger();
+    final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+    Thread[] workers = new Thread[THREADS];
+    for (int i = 0; i < THREADS; i++) {
+      workers[i] = new Thread() {
+        public void run() {
+          Random r = new Random();
+          while (System.currentTimeMillis() < deadline) {
+            TransactionId tid = new TransactionId();
+            int first = r.nextInt(pages.length);
+            int second = (first + 1 + r.nextInt(pages.length - 1)) % pages.length;
+            try {
+              try {
+                bp.getPage(tid, pages[first], Permissions.READ_WRITE);
+                Thread.sleep(1);
+                bp.getPage(tid, pages[second], Permissions.READ_WRITE);
+                bp.transactionComplete(tid, true);
+                commits.incrementAndGet();
+              } catch (TransactionAbortedException e) {
+                bp.transactionComplete(tid, false);
+                aborts.incrementAndGet();
+              }
+            } catch (Exception e) {
+              // give up, but let the other threads finish
+              failure.set(e);
+              bp.releasePage(tid, pages[first]);
+              bp.releasePage(tid, pages[second]);
+              return;
+            }
+          }
+        }
+      };
+      workers[i].start();
+    }
+    for (Thread w : workers)
+      w.join();
+
+    assertNull(failure.get());
+    System.out.println("testContentionThroughput: "
+        + (commits.get() * 1000 / RUN_MILLIS) + " commits/s, "
+        + (aborts.get() * 1000 / RUN_MILLIS) + " aborts/s");
+    assertTrue(commits.get() > 0);
+    assertEquals(aborts.get(), bp.getDeadlockCount());
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,160 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+
+  private static int[] random(int n, int max, long seed) {
+    Random r = new Random(seed);
+    int[] values = new int[n];
+    for (int i = 0; i < n; i++)
+      values[i] = r.nextInt(max);
+    return values;
+  }
+
+  /** @return the tuples of it, as sorted strings */
+  private static ArrayList<String> collect(DbIterator it) throws Exception {
+    ArrayList<String> l = new ArrayList<String>();
+    it.open();
+    while (it.hasNext())
+      l.add(it.next().toString());
+    it.close();
+    Collections.sort(l);
+    return l;
+  }
+
+  private void checkAgainstJoin(int[] left, int[] right, int maxTuples) throws Exception {
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 2);
+    Join expected = new Join(pred, TestUtil.createTupleList(width1, left),
+        TestUtil.createTupleList(width2, right));
+    HashEquiJoin actual = new HashEquiJoin(pred, TestUtil.createTupleList(width1, left),
+        TestUtil.createTupleList(width2, right), maxTuples);
+    assertEquals(collect(expected), collect(actual));
+  }
+
+  /**
+   * A build side that fits in memory is joined in one pass.
+   */
+  @Test public void inMemory() throws Exception {
+    checkAgainstJoin(random(2 * 300, 100, 1), random(3 * 200, 100, 2), HashEquiJoin.MAP_SIZE);
+  }
+
+  /**
+   * A build side many times the budget is partitioned to disk, and some
+   * partitions are split again.
+   */
+  @Test public void spills() throws Exception {
+    checkAgainstJoin(random(2 * 2000, 500, 3), random(3 * 1000, 500, 4), 40);
+  }
+
+  /**
+   * A single join value over budget cannot be partitioned apart, and is
+   * joined a budget at a time.
+   */
+  @Test public void oneValue() throws Exception {
+    int[] left = new int[2 * 300];
+    int[] right = new int[3 * 50];
+    Arrays.fill(left, 7);
+    Arrays.fill(right, 7);
+    checkAgainstJoin(left, right, 20);
+  }
+
+  /**
+   * String join fields are hashed as Fields rather than in an IntHashTable.
+   */
+  @Test public void stringKeys() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 50; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField("k" + (i % 10), Type.STRING_LEN));
+      t.setField(1, new IntField(i));
+      tuples.add(t);
+    }
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join expected = new Join(pred, new TupleIterator(td, tuples), new TupleIterator(td, tuples));
+    HashEquiJoin actual = new HashEquiJoin(pred, new TupleIterator(td, tuples),
+        new TupleIterator(td, tuples), 20);
+    ArrayList<String> l = collect(actual);
+    assertEquals(250, l.size());
+    assertEquals(collect(expected), l);
+  }
+
+  /**
+   * Unit test for HashEquiJoin.rewind() after spilling
+   */
+  @Test public void rewind() throws Exception {
+    int[] left = random(2 * 500, 100, 5);
+    int[] right = random(3 * 300, 100, 6);
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 2);
+    HashEquiJoin op = new HashEquiJoin(pred, TestUtil.createTupleList(width1, left),
+        TestUtil.createTupleList(width2, right), 30);
+    op.open();
+    int n = 0;
+    while (op.hasNext()) {
+      op.next();
+      n++;
+    }
+    assertTrue(n > 0);
+    op.rewind();
+    int m = 0;
+    while (op.hasNext()) {
+      op.next();
+      m++;
+    }
+    op.close();
+    assertEquals(n, m);
+  }
+
+  /**
+   * The partitions spilled before a child fails, on either side, are
+   * deleted without waiting for close.
+   */
+  @Test public void failedChildDeletesPartitions() throws Exception {
+    int[] left = random(2 * 500, 100, 7);
+    int[] right = random(3 * 300, 100, 8);
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 2);
+    Set<String> before = TestUtil.tempFiles("hashjoin");
+
+    HashEquiJoin op = new HashEquiJoin(pred,
+        new TestUtil.FailingIterator(TestUtil.createTupleList(width1, left), 400),
+        TestUtil.createTupleList(width2, right), 30);
+    try {
+      op.open();
+      fail("expected the build child's DbException");
+    } catch (DbException e) {
+      // expected
+    }
+    assertEquals(before, TestUtil.tempFiles("hashjoin"));
+
+    op = new HashEquiJoin(pred, TestUtil.createTupleList(width1, left),
+        new TestUtil.FailingIterator(TestUtil.createTupleList(width2, right), 200), 30);
+    op.open();
+    try {
+      while (op.hasNext())
+        op.next();
+      fail("expected the probe child's DbException");
+    } catch (DbException e) {
+      // expected
+    }
+    assertEquals(before, TestUtil.tempFiles("hashjoin"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
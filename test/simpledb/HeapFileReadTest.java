@@ -3,8 +3,10 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
 import java.util.*;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -77,6 +79,22 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() through memory mappings
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        assertTrue(mapped.isMemoryMapped());
+
+        HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        assertEquals(484, page.getNumEmptySlots());
+        assertTrue(Arrays.equals(
+                ((HeapPage) hf.readPage(pid)).getPageData(), page.getPageData()));
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -121,6 +139,59 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.getPageSize(): a file written with 8 KB pages
+     * says so in its header, and reads back in full.
+     */
+    @Test
+    public void pageSizeFromHeader() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 2000; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        File f = File.createTempFile("large", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, 8192, 2);
+
+        HeapFile large = new HeapFile(f, td);
+        Database.getCatalog().addTable(large, SystemTestUtil.getUUID());
+        assertEquals(8192, large.getPageSize());
+        // 1008 tuples fit on an 8 KB page
+        assertEquals(2, large.numPages());
+        assertEquals(BufferPool.PAGE_SIZE, hf.getPageSize());
+
+        DbFileIterator it = large.iterator(tid);
+        it.open();
+        for (int i = 0; i < 2000; i++)
+            assertEquals(new IntField(-i), it.next().getField(1));
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * A table whose file cannot be written to can still be scanned.
+     */
+    @Test
+    public void readOnlyFile() throws Exception {
+        hf.close();
+        File f = hf.getFile();
+        assertTrue(f.setWritable(false));
+        try {
+            // superusers may write anyway, and then there is nothing to test
+            Assume.assumeTrue(!f.canWrite());
+            DbFileIterator it = hf.iterator(tid);
+            it.open();
+            int count = 0;
+            while (it.hasNext()) {
+                assertNotNull(it.next());
+                count++;
+            }
+            assertEquals(20, count);
+            it.close();
+        } finally {
+            f.setWritable(true);
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -3,6 +3,7 @@ package simpledb;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import java.io.File;
 import java.util.*;
 
 import static org.junit.Assert.*;
@@ -64,6 +65,144 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(504, p.getNumEmptySlots());
     }
 
+    /**
+     * A memory mapped file must see pages appended after it was first mapped.
+     */
+    @Test public void addTupleMemoryMapped() throws Exception {
+        HeapFile mapped = new HeapFile(empty.getFile(), empty.getTupleDesc(), true);
+        Database.getCatalog().addTable(mapped, "mapped");
+        assertEquals(504, ((HeapPage) mapped.readPage(
+                new HeapPageId(mapped.getId(), 0))).getNumEmptySlots());
+
+        for (int i = 0; i < 505; ++i) {
+            Database.getBufferPool().insertTuple(tid, mapped.getId(),
+                    Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, mapped.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(0, ((HeapPage) mapped.readPage(
+                new HeapPageId(mapped.getId(), 0))).getNumEmptySlots());
+        HeapPageId pid = new HeapPageId(mapped.getId(), 1);
+        assertTrue(Arrays.equals(((HeapPage) empty.readPage(pid)).getPageData(),
+                ((HeapPage) mapped.readPage(pid)).getPageData()));
+    }
+
+    /**
+     * A page read through a mapping decodes its tuples out of the mapping
+     * until it is changed, and from its own copy after that, even once the
+     * file is written under it.
+     */
+    @Test public void changedMappedPageIsCopied() throws Exception {
+        HeapFile mapped = new HeapFile(empty.getFile(), empty.getTupleDesc(), true);
+        Database.getCatalog().addTable(mapped, "mapped");
+        HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        mapped.writePage(page);
+
+        HeapPage read = (HeapPage) mapped.readPage(pid);
+        Tuple t = read.getTuple(0);
+        read.insertTuple(Utility.getHeapTuple(2, 2));
+        HeapPage other = new HeapPage(pid, HeapPage.createEmptyPageData());
+        other.insertTuple(Utility.getHeapTuple(3, 2));
+        mapped.writePage(other);
+
+        assertEquals(new IntField(3),
+                ((HeapPage) mapped.readPage(pid)).getTuple(0).getField(0));
+        assertEquals(new IntField(1), t.getField(0));
+        assertEquals(new IntField(2), read.getTuple(1).getField(0));
+        assertEquals(new IntField(1), read.getBeforeImage().getTuple(0).getField(0));
+        assertEquals(null, read.getBeforeImage().getTuple(1));
+    }
+
+    /**
+     * Unit test for HeapFile.writePages(): out of order pages with a gap
+     * land where writePage would have put them.
+     */
+    @Test public void writePages() throws Exception {
+        ArrayList<HeapPage> pages = new ArrayList<HeapPage>();
+        for (int pgNo : new int[] {4, 0, 2, 1}) {
+            HeapPage page = new HeapPage(new HeapPageId(empty.getId(), pgNo),
+                    HeapPage.createEmptyPageData());
+            page.insertTuple(Utility.getHeapTuple(pgNo, 2));
+            pages.add(page);
+        }
+        empty.writePages(pages);
+
+        assertEquals(5, empty.numPages());
+        for (HeapPage page : pages) {
+            assertTrue(Arrays.equals(page.getPageData(),
+                    empty.readPage(page.getId()).getPageData()));
+        }
+        HeapPage gap = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), 3));
+        assertEquals(504, gap.getNumEmptySlots());
+    }
+
+    /**
+     * Inserts go to pages the free-space map lists, without locking full
+     * pages on the way, and the map survives reopening the file.
+     */
+    @Test public void insertUsesFreeSpaceMap() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 3 * 504; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            empty.insertTuple(tid, t);
+            tuples.add(t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(FreeSpaceMap.sidecarFor(empty.getFile()).exists());
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(3, t.getRecordId().getPageId().pageNumber());
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(empty.getId(), 0)));
+        Database.getBufferPool().deleteTuple(tid, tuples.get(504 + 7));
+        Database.getBufferPool().transactionComplete(tid);
+
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(reopened, "reopened");
+        tid = new TransactionId();
+        t = Utility.getHeapTuple(-2, 2);
+        reopened.insertTuple(tid, t);
+        assertEquals(new RecordId(new HeapPageId(reopened.getId(), 1), 7), t.getRecordId());
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(reopened.getId(), 0)));
+    }
+
+    /**
+     * A file created with 16 KB pages keeps them when reopened, and a pool
+     * sized in bytes makes room for them by evicting.
+     */
+    @Test public void largePages() throws Exception {
+        File f = File.createTempFile("large", ".dat");
+        f.deleteOnExit();
+        HeapFile large = new HeapFile(f, Utility.getTupleDesc(2), 16384);
+        Database.getCatalog().addTable(large, "large");
+        // 2016 tuples fit on a 16 KB page
+        for (int i = 0; i <= 2016; ++i)
+            Database.getBufferPool().insertTuple(tid, large.getId(), Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2, large.numPages());
+        assertEquals(HeapFile.FILE_HEADER_SIZE + 2 * 16384, f.length());
+
+        HeapFile reopened = new HeapFile(f, Utility.getTupleDesc(2));
+        assertEquals(16384, reopened.getPageSize());
+        Database.getCatalog().addTable(reopened, "large");
+        BufferPool bp = Database.resetBufferPoolBytes(20000);
+        tid = new TransactionId();
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(2017, count);
+        assertEquals(2, bp.getMissCount());
+    }
+
     /**
      * JUnit suite target
      */
@@ -120,6 +120,31 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getPageData(): tuples decoded lazily from the
+     * page and tuples changed or added since are both written back.
+     */
+    @Test public void getPageDataAfterChanges() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        Tuple second = it.next();
+        page.deleteTuple(first);
+        second.setField(1, new IntField(-1));
+        page.insertTuple(Utility.getHeapTuple(-2, 2));
+
+        page = new HeapPage(pid, page.getPageData());
+        it = page.iterator();
+        assertEquals(-2, ((IntField) it.next().getField(0)).getValue());
+        Tuple tup = it.next();
+        assertEquals(EXAMPLE_VALUES[1][0], ((IntField) tup.getField(0)).getValue());
+        assertEquals(-1, ((IntField) tup.getField(1)).getValue());
+        for (int row = 2; it.hasNext(); row++)
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) it.next().getField(1)).getValue());
+    }
+
     /**
      * JUnit suite target
      */
@@ -4,6 +4,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +128,81 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.nextFreeSlot(): empty slots are found in
+     * order across header words, and a full page has none.
+     */
+    @Test public void nextFreeSlot() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        while (page.getNumEmptySlots() > 0) {
+            Tuple t = Utility.getHeapTuple(tuples.size(), 2);
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        assertEquals(-1, page.nextFreeSlot(0));
+
+        int last = page.getNumSlots() - 1;
+        for (int slot : new int[] {3, 64, 130, last})
+            page.deleteTuple(tuples.get(slot));
+        assertEquals(3, page.nextFreeSlot(0));
+        assertEquals(3, page.nextFreeSlot(3));
+        assertEquals(64, page.nextFreeSlot(4));
+        assertEquals(130, page.nextFreeSlot(65));
+        assertEquals(last, page.nextFreeSlot(131));
+        assertEquals(-1, page.nextFreeSlot(last + 1));
+    }
+
+    /**
+     * Unit test for HeapPage.insertTuple(): a slot freed by a delete is
+     * the next one filled, and the header survives a round trip through
+     * getPageData.
+     */
+    @Test public void insertReusesFirstEmptySlot() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int slots = page.getNumSlots();
+        Tuple[] added = new Tuple[slots];
+        for (int i = 0; i < slots; ++i) {
+            added[i] = Utility.getHeapTuple(i, 2);
+            page.insertTuple(added[i]);
+            assertEquals(i, added[i].getRecordId().tupleno());
+        }
+
+        page.deleteTuple(added[200]);
+        page.deleteTuple(added[70]);
+        page.deleteTuple(added[slots - 1]);
+        assertEquals(3, page.getNumEmptySlots());
+
+        page = new HeapPage(pid, page.getPageData());
+        assertEquals(3, page.getNumEmptySlots());
+        int[] expected = {70, 200, slots - 1};
+        for (int slot : expected) {
+            Tuple t = Utility.getHeapTuple(-1, 2);
+            page.insertTuple(t);
+            assertEquals(slot, t.getRecordId().tupleno());
+        }
+        assertEquals(0, page.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapPage.getBeforeImage(): the image is the page as of
+     * the last setBeforeImage(), whenever the change after it came.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA,
+                page.getBeforeImage().getPageData()));
+
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA,
+                page.getBeforeImage().getPageData()));
+
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        assertTrue(Arrays.equals(committed, page.getBeforeImage().getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,68 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntHashTableTest extends SimpleDbTestBase {
+
+    /**
+     * Keys get dense groups in order of first insertion, through resizes.
+     */
+    @Test public void groups() {
+        IntHashTable table = new IntHashTable();
+        for (int i = 0; i < 1000; i++)
+            assertEquals(i, table.add(i * 7919 - 500000));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, table.add(i * 7919 - 500000));
+            assertEquals(i, table.find(i * 7919 - 500000));
+            assertEquals(i * 7919 - 500000, table.key(i));
+        }
+        assertEquals(1000, table.size());
+        assertEquals(-1, table.find(1));
+    }
+
+    /**
+     * The rows of a key are chained in the order they were added.
+     */
+    @Test public void rows() {
+        IntHashTable table = new IntHashTable();
+        Random r = new Random(1);
+        HashMap<Integer, ArrayList<Integer>> expected = new HashMap<Integer, ArrayList<Integer>>();
+        for (int i = 0; i < 5000; i++) {
+            int key = r.nextInt(300) - 150;
+            assertEquals(i, table.addRow(key));
+            if (!expected.containsKey(key))
+                expected.put(key, new ArrayList<Integer>());
+            expected.get(key).add(i);
+        }
+        assertEquals(5000, table.rows());
+        for (int key = -200; key < 200; key++) {
+            ArrayList<Integer> actual = new ArrayList<Integer>();
+            for (int row = table.firstRow(key); row != -1; row = table.nextRow(row))
+                actual.add(row);
+            ArrayList<Integer> e = expected.get(key);
+            assertEquals(e == null ? new ArrayList<Integer>() : e, actual);
+        }
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(-1, table.firstRow(0));
+        assertEquals(0, table.addRow(0));
+        assertEquals(0, table.firstRow(0));
+        assertEquals(-1, table.nextRow(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntHashTableTest.class);
+    }
+}
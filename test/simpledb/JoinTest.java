@@ -105,6 +105,27 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() with a budget too small to hold the right
+   * child, so that the left child is joined a block at a time
+   */
+  @Test public void blockJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    Join op = new Join(pred, scan1, scan2, 3);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+    for (int pass = 0; pass < 2; pass++) {
+      op.rewind();
+      int n = 0;
+      while (op.hasNext()) {
+        assertNotNull(op.next());
+        n++;
+      }
+      assertEquals(11, n);
+    }
+  }
+
   /**
    * JUnit suite target
    */
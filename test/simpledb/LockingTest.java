@@ -4,6 +4,7 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class LockingTest extends TestUtil.CreateHeapFile {
@@ -83,8 +84,20 @@ public class LockingTest extends TestUtil.CreateHeapFile {
    */
   public void grabLock(TransactionId tid, PageId pid, Permissions perm,
       boolean expected) throws Exception {
+    checkGrabber(new TestUtil.LockGrabber(tid, pid, perm), expected);
+  }
 
-    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+  /**
+   * Like grabLock(TransactionId, PageId, Permissions, boolean), for a
+   * record lock.
+   */
+  public void grabLock(TransactionId tid, RecordId rid, Permissions perm,
+      boolean expected) throws Exception {
+    checkGrabber(new TestUtil.LockGrabber(tid, rid, perm), expected);
+  }
+
+  private void checkGrabber(TestUtil.LockGrabber t, boolean expected)
+      throws Exception {
     t.start();
 
     // if we don't have the lock after TIMEOUT, we assume blocking.
@@ -186,6 +199,70 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test for BufferPool.getPage() assuming locking.
+   * A transaction blocked behind a long-running holder keeps waiting, and
+   * gets the lock once the holder finishes; there is no deadlock, so
+   * nothing is aborted.
+   */
+  @Test public void longWaitIsNotAborted() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+    t.start();
+
+    Thread.sleep(5 * TIMEOUT);
+    assertEquals(false, t.acquired());
+    assertNull(t.getError());
+
+    bp.transactionComplete(tid1);
+    t.join(10 * TIMEOUT);
+    assertEquals(true, t.acquired());
+    assertNull(t.getError());
+    assertEquals(0, bp.getDeadlockCount());
+  }
+
+  /**
+   * Unit test for BufferPool.getPage() with record locks.
+   * Write locks on different records of the same page do not conflict.
+   */
+  @Test public void acquireRecordWriteLocksOnSamePage() throws Exception {
+    bp.getPage(tid1, new RecordId(p0, 0), Permissions.READ_WRITE);
+    grabLock(tid2, new RecordId(p0, 1), Permissions.READ_WRITE, true);
+  }
+
+  /**
+   * Unit test for BufferPool.getPage() with record locks.
+   * Write locks on the same record conflict.
+   */
+  @Test public void acquireRecordWriteLocksOnSameRecord() throws Exception {
+    bp.getPage(tid1, new RecordId(p0, 0), Permissions.READ_WRITE);
+    grabLock(tid2, new RecordId(p0, 0), Permissions.READ_WRITE, false);
+  }
+
+  /**
+   * Unit test for BufferPool.getPage() with record locks.
+   * A page read lock blocks writers of any record on the page, but not
+   * readers.
+   */
+  @Test public void pageReadLockBlocksRecordWrite() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    grabLock(tid2, new RecordId(p0, 5), Permissions.READ_ONLY, true);
+    grabLock(tid2, new RecordId(p0, 6), Permissions.READ_WRITE, false);
+  }
+
+  /**
+   * Unit test for BufferPool.getPage() with record locks.
+   * Past LockManager.ESCALATION_THRESHOLD record locks on a page, the
+   * transaction locks the whole page instead.
+   */
+  @Test public void recordLocksEscalate() throws Exception {
+    for (int i = 0; i <= LockManager.ESCALATION_THRESHOLD; i++)
+      bp.getPage(tid1, new RecordId(p0, i), Permissions.READ_WRITE);
+    assertTrue(bp.holdsLock(tid1, p0));
+    grabLock(tid2, new RecordId(p1, 0), Permissions.READ_WRITE, true);
+    grabLock(tid2, new RecordId(p0, 500), Permissions.READ_ONLY, false);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,108 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogicalPlanTest extends SimpleDbTestBase {
+    private static final int ROWS = 20000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private TransactionId tid;
+
+    /**
+     * Creates table t of ROWS rows, with an index on its first column.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, ROWS, null, tuples, "c");
+        Database.getCatalog().addTable(table, "t");
+        File f = File.createTempFile("index", ".idx");
+        f.deleteOnExit();
+        f.delete();
+        BTreeFile index = new BTreeFile(f, table, 0);
+        Database.getCatalog().addIndex(index);
+        index.build();
+        TableStats.setTableStats("t", new TableStats(table.getId(), 100));
+        tid = new TransactionId();
+    }
+
+    private DbIterator plan(String query) throws Exception {
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, query);
+        return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    /** @return the access method at the bottom of a single-table plan */
+    private static DbIterator scanOf(DbIterator plan) {
+        while (plan instanceof Operator)
+            plan = ((Operator) plan).getChildren()[0];
+        return plan;
+    }
+
+    private static int countFilters(DbIterator plan) {
+        int n = 0;
+        for (; plan instanceof Operator; plan = ((Operator) plan).getChildren()[0])
+            if (plan instanceof Filter)
+                n++;
+        return n;
+    }
+
+    private ArrayList<ArrayList<Integer>> matching(int lo, int hi, int minSecond) {
+        ArrayList<ArrayList<Integer>> l = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples)
+            if (t.get(0) >= lo && t.get(0) < hi && t.get(1) > minSecond)
+                l.add(t);
+        return l;
+    }
+
+    /**
+     * A selective predicate on the indexed field is answered by an
+     * IndexScan in place of the SeqScan and the Filter.
+     */
+    @Test public void selectiveFilterUsesIndex() throws Exception {
+        DbIterator plan = plan("SELECT * FROM t WHERE t.c0 = 17;");
+        assertTrue(scanOf(plan) instanceof IndexScan);
+        assertEquals(0, countFilters(plan));
+        OperatorCardinality.updateOperatorCardinality((Operator) plan,
+                new HashMap<String, Integer>(Collections.singletonMap("t",
+                        Database.getCatalog().getTableId("t"))), TableStats.getStatsMap());
+        String explain = new QueryPlanVisualizer().getQueryPlanTree(plan);
+        assertTrue(explain, explain.contains("index scan(t, t.c0=17)"));
+        SystemTestUtil.matchTuples(plan, matching(17, 18, Integer.MIN_VALUE));
+
+        plan = plan("SELECT * FROM t WHERE t.c0 < 20 AND t.c1 > " + ROWS / 2 + ";");
+        assertTrue(scanOf(plan) instanceof IndexScan);
+        assertEquals(1, countFilters(plan));
+        SystemTestUtil.matchTuples(plan, matching(Integer.MIN_VALUE, 20, ROWS / 2));
+    }
+
+    /**
+     * Predicates that select much of the table, or that the index cannot
+     * narrow, keep the sequential scan.
+     */
+    @Test public void broadFilterScans() throws Exception {
+        DbIterator plan = plan("SELECT * FROM t WHERE t.c0 > 100;");
+        assertTrue(scanOf(plan) instanceof SeqScan);
+        assertEquals(1, countFilters(plan));
+        SystemTestUtil.matchTuples(plan, matching(101, Integer.MAX_VALUE, Integer.MIN_VALUE));
+
+        plan = plan("SELECT * FROM t WHERE t.c1 = 17;");
+        assertTrue(scanOf(plan) instanceof SeqScan);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogicalPlanTest.class);
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  int width = 2;
+
+  /** @return n tuples of random values in field 0, and i in field 1 */
+  private static int[] random(int n, int max, long seed) {
+    Random r = new Random(seed);
+    int[] values = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      values[2 * i] = r.nextInt(max);
+      values[2 * i + 1] = i;
+    }
+    return values;
+  }
+
+  /** @return the tuples of it, as strings, in the order it returns them */
+  private static ArrayList<String> drain(DbIterator it) throws Exception {
+    ArrayList<String> l = new ArrayList<String>();
+    while (it.hasNext())
+      l.add(it.next().toString());
+    return l;
+  }
+
+  /** @return the tuples of values, stably sorted on field 0 */
+  private static ArrayList<String> sorted(int[] values, final boolean asc) throws Exception {
+    DbIterator input = TestUtil.createTupleList(2, values);
+    ArrayList<Tuple> l = new ArrayList<Tuple>();
+    while (input.hasNext())
+      l.add(input.next());
+    Collections.sort(l, new TupleComparator(0, asc));
+    ArrayList<String> s = new ArrayList<String>();
+    for (Tuple t : l)
+      s.add(t.toString());
+    return s;
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() on a child that fits in memory
+   */
+  @Test public void inMemory() throws Exception {
+    int[] values = random(500, 100, 1);
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(width, values));
+    op.open();
+    assertEquals(sorted(values, true), drain(op));
+  }
+
+  /**
+   * A child five times the budget is sorted into runs on disk and merged,
+   * and the order is the same as a stable in-memory sort, both ways.
+   */
+  @Test public void external() throws Exception {
+    int[] values = random(5000, 1000, 2);
+    for (boolean asc : new boolean[] { true, false }) {
+      OrderBy op = new OrderBy(0, asc, TestUtil.createTupleList(width, values), 1000);
+      op.open();
+      assertEquals(sorted(values, asc), drain(op));
+      op.close();
+    }
+  }
+
+  /**
+   * With room for fewer pages than there are runs, runs are merged in
+   * more than one pass.
+   */
+  @Test public void multiPass() throws Exception {
+    int[] values = random(3000, 50, 3);
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(width, values), 100);
+    op.open();
+    assertEquals(sorted(values, true), drain(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy.rewind(), and for opening an OrderBy again
+   */
+  @Test public void rewind() throws Exception {
+    int[] values = random(2000, 300, 4);
+    ArrayList<String> expected = sorted(values, true);
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(width, values), 400);
+    op.open();
+    assertEquals(expected, drain(op));
+    op.rewind();
+    assertEquals(expected, drain(op));
+    op.close();
+    op.open();
+    assertEquals(expected, drain(op));
+    op.close();
+
+    op = new OrderBy(0, true, TestUtil.createTupleList(width, values));
+    op.open();
+    assertEquals(expected, drain(op));
+    op.close();
+    op.open();
+    assertEquals(expected, drain(op));
+  }
+
+  /**
+   * An OrderBy that has been serialized, as query plans are, can still be
+   * opened, including its sorted runs.
+   */
+  @Test public void serialized() throws Exception {
+    int[] values = random(2000, 300, 5);
+    DbIterator child = TestUtil.createTupleList(width, values);
+    child.close(); // an open TupleIterator holds an unserializable iterator
+    OrderBy op = new OrderBy(0, true, child, 400);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(op);
+    out.close();
+    op = (OrderBy) new ObjectInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    op.open();
+    assertEquals(sorted(values, true), drain(op));
+    op.close();
+  }
+
+  /**
+   * The runs written before the child fails are deleted, without waiting
+   * for close.
+   */
+  @Test public void failedChildDeletesRuns() throws Exception {
+    int[] values = random(3000, 300, 6);
+    Set<String> before = TestUtil.tempFiles("sortrun");
+    OrderBy op = new OrderBy(0, true,
+        new TestUtil.FailingIterator(TestUtil.createTupleList(width, values), 2500), 400);
+    try {
+      op.open();
+      fail("expected the child's DbException");
+    } catch (DbException e) {
+      // expected
+    }
+    assertEquals(before, TestUtil.tempFiles("sortrun"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
@@ -0,0 +1,111 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxFileTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 4;
+    private static final int ROWS = 1000;
+
+    private HeapFile heap;
+    private PaxFile pax;
+    private TransactionId tid;
+
+    /**
+     * Converts a random table to a PaxFile.
+     */
+    @Before public void convert() throws Exception {
+        heap = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, null);
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convertToPax(heap, f);
+        pax = new PaxFile(f, heap.getTupleDesc());
+        Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    private ArrayList<Tuple> scan(DbIterator it) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convertToPax(): every tuple keeps its
+     * fields and its RecordId.
+     */
+    @Test public void convertAndScan() throws Exception {
+        ArrayList<Tuple> expected = scan(new SeqScan(tid, heap.getId(), ""));
+        ArrayList<Tuple> actual = scan(new SeqScan(tid, pax.getId(), ""));
+        assertEquals(ROWS, actual.size());
+        assertEquals(heap.numPages(), pax.numPages());
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals(expected.get(i).toString(), actual.get(i).toString());
+            assertEquals(expected.get(i).getRecordId().tupleno(),
+                    actual.get(i).getRecordId().tupleno());
+        }
+    }
+
+    /**
+     * Unit test for SeqScan with a list of fields, over both a HeapFile and
+     * a PaxFile.
+     */
+    @Test public void projectedScan() throws Exception {
+        int[] columns = {3, 1};
+        ArrayList<Tuple> all = scan(new SeqScan(tid, heap.getId(), ""));
+        for (DbFile f : new DbFile[] {heap, pax}) {
+            SeqScan scan = new SeqScan(tid, f.getId(), "t", columns);
+            TupleDesc td = scan.getTupleDesc();
+            assertEquals(2, td.numFields());
+            assertEquals("t." + heap.getTupleDesc().getFieldName(3), td.getFieldName(0));
+            ArrayList<Tuple> tuples = scan(scan);
+            assertEquals(ROWS, tuples.size());
+            for (int i = 0; i < ROWS; i++) {
+                assertEquals(all.get(i).getField(3), tuples.get(i).getField(0));
+                assertEquals(all.get(i).getField(1), tuples.get(i).getField(1));
+            }
+        }
+    }
+
+    /**
+     * Unit test for PaxFile.insertTuple() and deleteTuple() through the
+     * BufferPool.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        ArrayList<Tuple> tuples = scan(new SeqScan(tid, pax.getId(), ""));
+        Tuple deleted = tuples.get(5);
+        bp.deleteTuple(tid, deleted);
+        Tuple t = Utility.getHeapTuple(-7, COLUMNS);
+        bp.insertTuple(tid, pax.getId(), t);
+        // the slot freed by the delete is the first empty one
+        assertEquals(deleted.getRecordId(), t.getRecordId());
+        bp.transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        tuples = scan(new SeqScan(tid, pax.getId(), "", new int[] {2}));
+        assertEquals(ROWS, tuples.size());
+        assertEquals(new IntField(-7), tuples.get(5).getField(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
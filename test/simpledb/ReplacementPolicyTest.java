@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class ReplacementPolicyTest {
+
+    /** A page that only knows its id and whether it is dirty. */
+    private static class DummyPage implements Page {
+        private final PageId pid;
+        private TransactionId dirtier;
+
+        DummyPage(PageId pid) {
+            this.pid = pid;
+        }
+
+        public PageId getId() { return pid; }
+        public TransactionId isDirty() { return dirtier; }
+        public void markDirty(boolean dirty, TransactionId tid) {
+            dirtier = dirty ? tid : null;
+        }
+        public byte[] getPageData() { return new byte[0]; }
+        public Page getBeforeImage() { return this; }
+        public void setBeforeImage() { }
+    }
+
+    private final HashMap<PageId, Page> pages = new HashMap<PageId, Page>();
+
+    private PageId add(ReplacementPolicy policy, int pgNo) {
+        PageId pid = new HeapPageId(0, pgNo);
+        pages.put(pid, new DummyPage(pid));
+        policy.pageAdded(pid);
+        return pid;
+    }
+
+    private PageId evict(ReplacementPolicy policy) {
+        PageId pid = policy.victim(pages);
+        if (pid != null)
+            pages.remove(pid);
+        return pid;
+    }
+
+    /**
+     * Every policy must skip dirty pages, and give up once all pages are
+     * dirty.
+     */
+    @Test public void neverEvictsDirtyPages() {
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            pages.clear();
+            ReplacementPolicy policy = kind.create(4);
+            PageId p0 = add(policy, 0);
+            PageId p1 = add(policy, 1);
+            PageId p2 = add(policy, 2);
+            TransactionId tid = new TransactionId();
+            pages.get(p0).markDirty(true, tid);
+            pages.get(p2).markDirty(true, tid);
+            policy.pageAccessed(p1);
+
+            assertEquals(kind.toString(), p1, evict(policy));
+            assertNull(kind.toString(), evict(policy));
+
+            pages.get(p2).markDirty(false, tid);
+            assertEquals(kind.toString(), p2, evict(policy));
+        }
+    }
+
+    /**
+     * Removed pages must not be chosen as victims.
+     */
+    @Test public void forgetsRemovedPages() {
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            pages.clear();
+            ReplacementPolicy policy = kind.create(4);
+            PageId p0 = add(policy, 0);
+            PageId p1 = add(policy, 1);
+            policy.pageRemoved(p0);
+            pages.remove(p0);
+
+            assertEquals(kind.toString(), p1, evict(policy));
+            assertNull(kind.toString(), evict(policy));
+        }
+    }
+
+    /**
+     * LRU evicts the least recently accessed page.
+     */
+    @Test public void lruOrder() {
+        ReplacementPolicy policy = ReplacementPolicy.Kind.LRU.create(4);
+        PageId p0 = add(policy, 0);
+        PageId p1 = add(policy, 1);
+        PageId p2 = add(policy, 2);
+        policy.pageAccessed(p0);
+
+        assertEquals(p1, evict(policy));
+        assertEquals(p2, evict(policy));
+        assertEquals(p0, evict(policy));
+    }
+
+    /**
+     * CLOCK gives a referenced page a second chance.
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy policy = ReplacementPolicy.Kind.CLOCK.create(4);
+        PageId p0 = add(policy, 0);
+        PageId p1 = add(policy, 1);
+        PageId p2 = add(policy, 2);
+        policy.pageAccessed(p0);
+        policy.pageAccessed(p1);
+
+        assertEquals(p2, evict(policy));
+        assertEquals(p0, evict(policy));
+        assertEquals(p1, evict(policy));
+    }
+
+    /**
+     * A page that CLOCK-Pro has seen reused survives a long run of pages
+     * that are touched only once, while LRU loses it.
+     */
+    @Test public void clockProResistsScans() {
+        assertTrue(survivesScan(ReplacementPolicy.Kind.CLOCK_PRO));
+        assertFalse(survivesScan(ReplacementPolicy.Kind.LRU));
+    }
+
+    private boolean survivesScan(ReplacementPolicy.Kind kind) {
+        pages.clear();
+        int capacity = 8;
+        ReplacementPolicy policy = kind.create(capacity);
+        PageId hot = add(policy, 0);
+        policy.pageAccessed(hot);
+
+        for (int i = 1; i < 100; i++) {
+            if (pages.size() == capacity) {
+                if (hot.equals(evict(policy)))
+                    return false;
+            }
+            add(policy, i);
+        }
+        return true;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
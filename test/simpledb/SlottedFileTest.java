@@ -0,0 +1,132 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 2000;
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE};
+
+    private File text;
+    private TransactionId tid;
+
+    /**
+     * Writes a text table of ROWS rows, each an int and a short name.
+     */
+    @Before public void writeText() throws Exception {
+        text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(text));
+        for (int i = 0; i < ROWS; i++)
+            pw.println(i + ",name" + i);
+        pw.close();
+        tid = new TransactionId();
+    }
+
+    private SlottedFile convert() throws IOException {
+        File dat = File.createTempFile("slotted", ".dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convertSlotted(text, dat, BufferPool.PAGE_SIZE, 2, TYPES, ',');
+        SlottedFile f = new SlottedFile(dat, new TupleDesc(TYPES));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    private ArrayList<Tuple> scan(DbFile f) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convertSlotted(): every row reads back,
+     * in far fewer pages than the fixed-width format takes.
+     */
+    @Test public void convertAndScan() throws Exception {
+        SlottedFile f = convert();
+        ArrayList<Tuple> tuples = scan(f);
+        assertEquals(ROWS, tuples.size());
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals(i, ((IntField) tuples.get(i).getField(0)).getValue());
+            assertEquals("name" + i, ((StringField) tuples.get(i).getField(1)).getValue());
+        }
+
+        File heap = File.createTempFile("heap", ".dat");
+        heap.deleteOnExit();
+        HeapFileEncoder.convert(text, heap, BufferPool.PAGE_SIZE, 2, TYPES, ',');
+        assertTrue(f.numPages() * 5 < heap.length() / BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Unit test for SlottedPage: deleting keeps the other slot numbers, and
+     * the space is used again by inserts.
+     */
+    @Test public void deleteAndInsert() throws Exception {
+        SlottedFile f = convert();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SlottedPage page = (SlottedPage) f.readPage(new HeapPageId(f.getId(), 0));
+        int free = page.getFreeSpace();
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        Tuple second = it.next();
+
+        page.deleteTuple(first);
+        assertTrue(page.getFreeSpace() > free);
+        page = new SlottedPage(page.getId(), page.getPageData());
+        Tuple moved = page.iterator().next();
+        assertEquals(second.getRecordId(), moved.getRecordId());
+        assertEquals(second.getField(1), moved.getField(1));
+
+        Tuple t = new Tuple(new TupleDesc(TYPES));
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("x", Type.STRING_LEN));
+        assertTrue(page.insertTuple(t));
+        assertEquals(first.getRecordId(), t.getRecordId());
+        assertEquals(free, page.getFreeSpace() + SlottedPage.recordSize(t)
+                - SlottedPage.recordSize(first));
+    }
+
+    /**
+     * Unit test for SlottedFile.insertTuple() and deleteTuple() through the
+     * BufferPool.
+     */
+    @Test public void insertThroughBufferPool() throws Exception {
+        SlottedFile f = convert();
+        int pages = f.numPages();
+        BufferPool bp = Database.getBufferPool();
+        ArrayList<Tuple> tuples = scan(f);
+        bp.deleteTuple(tid, tuples.get(0));
+        for (int i = 0; i < 100; i++) {
+            Tuple t = new Tuple(new TupleDesc(TYPES));
+            t.setField(0, new IntField(ROWS + i));
+            t.setField(1, new StringField("new" + i, Type.STRING_LEN));
+            bp.insertTuple(tid, f.getId(), t);
+        }
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(ROWS - 1 + 100, scan(f).size());
+        assertTrue(f.numPages() <= pages + 1);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedFileTest.class);
+    }
+}
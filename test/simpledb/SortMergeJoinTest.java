@@ -0,0 +1,238 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+  DbIterator gtJoin;
+
+  /**
+   * Initialize each unit test; the inputs are the same as JoinTest's, but
+   * out of order
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 5, 6,
+                    1, 2,
+                    7, 8,
+                    3, 4 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 4, 5, 6,
+                    1, 2, 3,
+                    5, 6, 7,
+                    3, 4, 5,
+                    2, 3, 4 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+    this.gtJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] {
+                    3, 4, 1, 2, 3, // 1, 2 < 3
+                    3, 4, 2, 3, 4,
+                    5, 6, 1, 2, 3, // 1, 2, 3, 4 < 5
+                    5, 6, 2, 3, 4,
+                    5, 6, 3, 4, 5,
+                    5, 6, 4, 5, 6,
+                    7, 8, 1, 2, 3, // 1, 2, 3, 4, 5 < 7
+                    7, 8, 2, 3, 4,
+                    7, 8, 3, 4, 5,
+                    7, 8, 4, 5, 6,
+                    7, 8, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using an = predicate
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using a &gt; predicate
+   */
+  @Test public void gtJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Every merge predicate gives the same tuples as a nested-loops Join,
+   * on inputs with long runs of repeated values.
+   */
+  @Test public void duplicateRuns() throws Exception {
+    Random r = new Random(1);
+    int[] left = new int[2 * 200];
+    int[] right = new int[3 * 150];
+    for (int i = 0; i < left.length; i++)
+      left[i] = r.nextInt(20);
+    for (int i = 0; i < right.length; i++)
+      right[i] = r.nextInt(20);
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+        Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ };
+    for (Predicate.Op o : ops) {
+      JoinPredicate pred = new JoinPredicate(1, o, 2);
+      Join expected = new Join(pred, TestUtil.createTupleList(width1, left),
+          TestUtil.createTupleList(width2, right));
+      SortMergeJoin actual = new SortMergeJoin(pred, TestUtil.createTupleList(width1, left),
+          TestUtil.createTupleList(width2, right));
+      assertEquals(o.toString(), collect(expected), collect(actual));
+    }
+  }
+
+  /**
+   * A left child over the memory budget is sorted externally, and a right
+   * child over it makes the join fall back to nested loops; either way
+   * the tuples are those of a nested-loops Join.
+   */
+  @Test public void overBudget() throws Exception {
+    Random r = new Random(2);
+    int[] left = new int[2 * 200];
+    int[] right = new int[3 * 150];
+    for (int i = 0; i < left.length; i++)
+      left[i] = r.nextInt(20);
+    for (int i = 0; i < right.length; i++)
+      right[i] = r.nextInt(20);
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN };
+    for (int budget : new int[] { 160, 50 }) {
+      for (Predicate.Op o : ops) {
+        JoinPredicate pred = new JoinPredicate(1, o, 2);
+        Join expected = new Join(pred, TestUtil.createTupleList(width1, left),
+            TestUtil.createTupleList(width2, right));
+        SortMergeJoin actual = new SortMergeJoin(pred, TestUtil.createTupleList(width1, left),
+            TestUtil.createTupleList(width2, right), budget);
+        assertEquals(o + " within " + budget, collect(expected), collect(actual));
+      }
+    }
+  }
+
+  /**
+   * The left child is opened once, by the OrderBy sorting it, or by the
+   * join itself when the right child is over budget.
+   */
+  @Test public void opensLeftOnce() throws Exception {
+    final int[] opens = new int[1];
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    while (scan1.hasNext())
+      tuples.add(scan1.next());
+    for (int budget : new int[] { 10, 2 }) {
+      opens[0] = 0;
+      DbIterator left = new TupleIterator(scan1.getTupleDesc(), tuples) {
+        private static final long serialVersionUID = 1L;
+
+        public void open() {
+          opens[0]++;
+          super.open();
+        }
+      };
+      SortMergeJoin j = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+          left, scan2, budget);
+      assertEquals(3, collect(j).size());
+      assertEquals("opens within " + budget, 1, opens[0]);
+    }
+  }
+
+  /** @return the tuples of it, as sorted strings */
+  private static ArrayList<String> collect(DbIterator it) throws Exception {
+    ArrayList<String> l = new ArrayList<String>();
+    it.open();
+    while (it.hasNext())
+      l.add(it.next().toString());
+    it.close();
+    Collections.sort(l);
+    return l;
+  }
+
+  /**
+   * A SortMergeJoin cannot evaluate a != predicate.
+   */
+  @Test(expected = IllegalArgumentException.class) public void notEquals() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0), scan1, scan2);
+  }
+
+  /**
+   * JoinOptimizer prices a sort-merge join below nested loops once the
+   * inputs are large, and instantiates it.
+   */
+  @Test public void optimizerChoosesSortMerge() throws Exception {
+    JoinOptimizer jo = new JoinOptimizer(new LogicalPlan(), new Vector<LogicalJoinNode>());
+    LogicalJoinNode nl = new LogicalJoinNode("a", "b", "a.c0", "b.c0", Predicate.Op.LESS_THAN);
+    LogicalJoinNode sm = nl.toSortMerge();
+    assertTrue(jo.estimateJoinCost(sm, 10000, 10000, 1000, 1000)
+        < jo.estimateJoinCost(nl, 10000, 10000, 1000, 1000));
+    assertTrue(sm.swapInnerOuter().sortMerge);
+
+    TupleIterator a = new TupleIterator(Utility.getTupleDesc(width1, "a."), new ArrayList<Tuple>());
+    TupleIterator b = new TupleIterator(Utility.getTupleDesc(width2, "b."), new ArrayList<Tuple>());
+    DbIterator j = JoinOptimizer.instantiateJoin(new LogicalJoinNode("a", "b", "0", "0",
+        Predicate.Op.EQUALS).toSortMerge(), a, b);
+    assertTrue(j instanceof SortMergeJoin);
+  }
+
+  /**
+   * Past Join.BLOCK_SIZE, JoinOptimizer prices a sort-merge join with a
+   * right side over budget above nested loops, which it falls back to,
+   * and charges a left side over budget for writing and reading its
+   * sorted runs.
+   */
+  @Test public void optimizerCostsOverBudget() throws Exception {
+    JoinOptimizer jo = new JoinOptimizer(new LogicalPlan(), new Vector<LogicalJoinNode>());
+    LogicalJoinNode nl = new LogicalJoinNode("a", "b", "a.c0", "b.c0", Predicate.Op.EQUALS);
+    LogicalJoinNode sm = nl.toSortMerge();
+    int big = 2 * Join.BLOCK_SIZE;
+    assertTrue(jo.estimateJoinCost(sm, 1000, big, 1000, 100000)
+        > jo.estimateJoinCost(nl, 1000, big, 1000, 100000));
+    assertTrue(jo.estimateJoinCost(sm, big, big, 100000, 100000)
+        > jo.estimateJoinCost(nl, big, big, 100000, 100000));
+
+    double cost1 = 1e9;
+    assertTrue(jo.estimateJoinCost(sm, big, 1000, cost1, 1000) > 3 * cost1);
+    assertTrue(jo.estimateJoinCost(sm, Join.BLOCK_SIZE, 1000, cost1, 1000) < 2 * cost1);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
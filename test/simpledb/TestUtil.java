@@ -239,6 +239,9 @@ public class TestUtil {
 		public TupleDesc getTupleDesc() {			
 			return td;
 		}
+
+        public void close() {
+        }
     }
 
     /**
@@ -298,6 +301,64 @@ public class TestUtil {
 		}
     }
 
+    /**
+     * An iterator over another that fails with a DbException once it has
+     * returned limit tuples, for testing operators' error paths.
+     */
+    public static class FailingIterator extends Operator {
+        private static final long serialVersionUID = 1L;
+
+        private DbIterator child;
+        private final int limit;
+        private int returned;
+
+        public FailingIterator(DbIterator child, int limit) {
+            this.child = child;
+            this.limit = limit;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            returned = 0;
+            super.open();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+            returned = 0;
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (returned++ == limit)
+                throw new DbException("child failed");
+            return child.hasNext() ? child.next() : null;
+        }
+
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { child };
+        }
+
+        public void setChildren(DbIterator[] children) {
+            child = children[0];
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+    }
+
+    /**
+     * @return the names of the files in the temporary directory that start
+     *   with prefix, such as the spill files of an operator
+     */
+    public static Set<String> tempFiles(String prefix) {
+        HashSet<String> names = new HashSet<String>();
+        for (String name : new File(System.getProperty("java.io.tmpdir")).list())
+            if (name.startsWith(prefix))
+                names.add(name);
+        return names;
+    }
+
     /**
      * Helper class that attempts to acquire a lock on a given page in a new
      * thread.
@@ -309,6 +370,7 @@ public class TestUtil {
 
         TransactionId tid;
         PageId pid;
+        RecordId rid;
         Permissions perm;
         boolean acquired;
         Exception error;
@@ -330,9 +392,22 @@ public class TestUtil {
             this.elock = new Object();
         }
 
+        /**
+         * @param tid the transaction on whose behalf we want to acquire the lock
+         * @param rid the record over which we want to acquire the lock
+         * @param perm the desired lock permissions
+         */
+        public LockGrabber(TransactionId tid, RecordId rid, Permissions perm) {
+            this(tid, rid.getPageId(), perm);
+            this.rid = rid;
+        }
+
         public void run() {
             try {
-                Database.getBufferPool().getPage(tid, pid, perm);
+                if (rid != null)
+                    Database.getBufferPool().getPage(tid, rid, perm);
+                else
+                    Database.getBufferPool().getPage(tid, pid, perm);
                 synchronized(alock) {
                     acquired = true;
                 }
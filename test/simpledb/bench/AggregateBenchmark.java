@@ -0,0 +1,67 @@
+package simpledb.bench;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * SUM of one column of a wide table, read by a SeqScan of every column,
+ * by a SeqScan of just that column, and by the same projected SeqScan
+ * over a PaxFile copy of the table. The pool is emptied before every
+ * round, so every page is read in again (from the OS page cache).
+ */
+public class AggregateBenchmark {
+    private static final int PAGES = 1000;
+    private static final int COLUMNS = 20;
+    private static final int ROUNDS = 5;
+    private static final int FIELD = 7;
+
+    private static long sum(TransactionId tid, SeqScan scan, int field) throws Exception {
+        Aggregate agg = new Aggregate(scan, field, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        agg.open();
+        long sum = ((IntField) agg.next().getField(0)).getValue();
+        agg.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return sum;
+    }
+
+    public static void main(String[] args) throws Exception {
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        HeapFile heap = new HeapFile(BenchUtil.writeFullTable(COLUMNS, PAGES), td);
+        Database.getCatalog().addTable(heap, "wide");
+        File paxFile = File.createTempFile("bench", ".pax");
+        paxFile.deleteOnExit();
+        HeapFileEncoder.convertToPax(heap, paxFile);
+        PaxFile pax = new PaxFile(paxFile, td);
+        Database.getCatalog().addTable(pax, "wide_pax");
+
+        long expected = -1;
+        int[] columns = {FIELD};
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int variant = 0; variant < 3; variant++) {
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                TransactionId tid = new TransactionId();
+                long start = System.nanoTime();
+                long sum;
+                String name;
+                if (variant == 0) {
+                    sum = sum(tid, new SeqScan(tid, heap.getId(), ""), FIELD);
+                    name = "HeapFile, all columns";
+                } else if (variant == 1) {
+                    sum = sum(tid, new SeqScan(tid, heap.getId(), "", columns), 0);
+                    name = "HeapFile, 1 column";
+                } else {
+                    sum = sum(tid, new SeqScan(tid, pax.getId(), "", columns), 0);
+                    name = "PaxFile, 1 column";
+                }
+                long nanos = System.nanoTime() - start;
+                if (expected < 0)
+                    expected = sum;
+                if (sum != expected)
+                    throw new IllegalStateException("wrong sum " + sum);
+                BenchUtil.report(name, nanos, PAGES, "pages");
+            }
+        }
+    }
+
+}
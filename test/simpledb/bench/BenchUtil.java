@@ -0,0 +1,76 @@
+package simpledb.bench;
+
+import java.io.*;
+
+import simpledb.*;
+
+/**
+ * Helpers shared by the benchmarks in this package. Benchmarks are plain
+ * main() programs rather than JUnit tests so that they stay out of the
+ * regular test runs; run one with
+ * <pre>
+ *     ant runbench -Dbench=HeapFileScanBenchmark
+ * </pre>
+ */
+public class BenchUtil {
+
+    /**
+     * Writes a table of the given width whose pages are all completely full
+     * and adds it to the catalog. Every page holds the same tuples, with
+     * tuple i of a page holding the value i in every column.
+     *
+     * @param columns number of integer columns
+     * @param pages number of pages to write
+     * @return the file backing the new table (not yet opened as a HeapFile)
+     */
+    public static File writeFullTable(int columns, int pages) throws IOException {
+        File f = File.createTempFile("bench", ".dat");
+        f.deleteOnExit();
+
+        // build one full page; the page constructor needs the schema to be
+        // in the catalog
+        HeapFile scratch = Utility.openHeapFile(columns, f);
+        HeapPage page = new HeapPage(new HeapPageId(scratch.getId(), 0),
+                HeapPage.createEmptyPageData());
+        try {
+            for (int i = 0; page.getNumEmptySlots() > 0; i++)
+                page.insertTuple(Utility.getHeapTuple(i, columns));
+        } catch (DbException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] data = page.getPageData();
+
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(f));
+        for (int p = 0; p < pages; p++)
+            os.write(data);
+        os.close();
+        return f;
+    }
+
+    /**
+     * Scans every tuple of the given table with a SeqScan in its own
+     * transaction.
+     *
+     * @return the number of tuples read
+     */
+    public static int scan(int tableId) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, tableId, "");
+        int count = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    /** Prints one line of benchmark output. */
+    public static void report(String name, long nanos, long ops, String unit) {
+        double secs = nanos / 1e9;
+        System.out.println(String.format("%-36s %10.1f ms %14.0f %s/s",
+                name, nanos / 1e6, ops / secs, unit));
+    }
+}
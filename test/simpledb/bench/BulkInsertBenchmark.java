@@ -0,0 +1,57 @@
+package simpledb.bench;
+
+import simpledb.*;
+
+/**
+ * Inserts INSERTS tuples, one transaction per round, into a table that
+ * starts out as PAGES full pages. Without a free-space map every insert
+ * locks and reads each full page before reaching one with room. The first
+ * round includes building the map from the pages on disk.
+ * <p>
+ * Then fills FILL_PAGES pages of an empty table of FILL_PAGE_SIZE byte
+ * pages through HeapFile.insertTuple, which has to find a free slot on a
+ * page that gets fuller with every insert.
+ */
+public class BulkInsertBenchmark {
+    private static final int PAGES = 2000;
+    private static final int COLUMNS = 2;
+    private static final int INSERTS = 1000;
+    private static final int ROUNDS = 5;
+    private static final int FILL_PAGES = 8;
+    private static final int FILL_PAGE_SIZE = 1 << 14;
+
+    public static void main(String[] args) throws Exception {
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        HeapFile f = new HeapFile(BenchUtil.writeFullTable(COLUMNS, PAGES), td);
+        Database.getCatalog().addTable(f, "bulk");
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            Transaction t = new Transaction();
+            t.start();
+            long start = System.nanoTime();
+            for (int i = 0; i < INSERTS; i++)
+                bp.insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(i, COLUMNS));
+            t.commit();
+            BenchUtil.report("bulk insert, round " + round,
+                    System.nanoTime() - start, INSERTS, "tuples");
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            java.io.File file = java.io.File.createTempFile("fill", ".dat");
+            file.deleteOnExit();
+            HeapFile empty = new HeapFile(file, td, FILL_PAGE_SIZE);
+            Database.getCatalog().addTable(empty, "fill" + round);
+            int n = (FILL_PAGE_SIZE * 8) / (td.getSize() * 8 + 1) * FILL_PAGES;
+            Transaction t = new Transaction();
+            t.start();
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++)
+                bp.insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(i, COLUMNS));
+            BenchUtil.report("HeapFile.insertTuple, filling pages, round " + round,
+                    System.nanoTime() - start, n, "tuples");
+            t.commit();
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+package simpledb.bench;
+
+import simpledb.*;
+
+/**
+ * Time to commit a transaction that has dirtied PAGES pages, with the
+ * default NO STEAL pool and with STEAL plus the background flusher. The
+ * transaction spends THINK_MILLIS after its updates before committing,
+ * which gives the flusher time to write its pages ahead of the commit.
+ */
+public class CommitLatencyBenchmark {
+    private static final int PAGES = 1000;
+    private static final int COLUMNS = 2;
+    private static final int ROUNDS = 5;
+    private static final long THINK_MILLIS = 1000;
+    private static final long FLUSH_INTERVAL_MILLIS = 50;
+
+    public static void main(String[] args) throws Exception {
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        HeapFile f = new HeapFile(BenchUtil.writeFullTable(COLUMNS, PAGES), td);
+        Database.getCatalog().addTable(f, "commit");
+
+        for (int round = 0; round < ROUNDS; round++) {
+            for (boolean steal : new boolean[] {false, true}) {
+                BufferPool bp = Database.resetBufferPool(2 * PAGES);
+                if (steal) {
+                    bp.setSteal(true);
+                    bp.startFlusher(FLUSH_INTERVAL_MILLIS);
+                }
+
+                Transaction t = new Transaction();
+                t.start();
+                for (int p = 0; p < PAGES; p++) {
+                    HeapPage page = (HeapPage) bp.getPage(t.getId(),
+                            new HeapPageId(f.getId(), p), Permissions.READ_WRITE);
+                    bp.deleteTuple(t.getId(), page.iterator().next());
+                }
+                Thread.sleep(THINK_MILLIS);
+
+                long start = System.nanoTime();
+                t.commit();
+                BenchUtil.report("commit, " + (steal ? "STEAL + flusher" : "NO STEAL"),
+                        System.nanoTime() - start, PAGES, "pages");
+                bp.stopFlusher();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package simpledb.bench;
+
+import java.io.*;
+
+import simpledb.*;
+
+/**
+ * SeqScan of a history-like table (an increasing id and time, a small
+ * status code and one of a few category names) stored as a HeapFile and
+ * as a CompressedFile. The pool is emptied before every round, so every
+ * page is read in again (from the OS page cache).
+ */
+public class CompressedScanBenchmark {
+    private static final int ROWS = 100000;
+    private static final int ROUNDS = 5;
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE,
+        Type.STRING_TYPE};
+    private static final String[] CATEGORIES = {"deposit", "withdrawal", "transfer",
+        "fee", "interest"};
+
+    public static void main(String[] args) throws Exception {
+        File text = File.createTempFile("bench", ".txt");
+        text.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(text)));
+        for (int i = 0; i < ROWS; i++)
+            pw.println(i + "," + (1300000000 + i * 7) + "," + (i % 4) + ","
+                    + CATEGORIES[(i / 3) % CATEGORIES.length]);
+        pw.close();
+
+        TupleDesc td = new TupleDesc(TYPES);
+        File heapFile = File.createTempFile("bench", ".dat");
+        heapFile.deleteOnExit();
+        HeapFileEncoder.convert(text, heapFile, BufferPool.PAGE_SIZE, TYPES.length, TYPES, ',');
+        HeapFile heap = new HeapFile(heapFile, td);
+        Database.getCatalog().addTable(heap, "history");
+        File compressedFile = File.createTempFile("bench", ".dat");
+        compressedFile.deleteOnExit();
+        HeapFileEncoder.convertCompressed(heap, compressedFile);
+        CompressedFile compressed = new CompressedFile(compressedFile, td);
+        Database.getCatalog().addTable(compressed, "history_compressed");
+
+        System.out.println(String.format("%-36s %10.1f MB", "HeapFile bytes read",
+                heapFile.length() / 1e6));
+        System.out.println(String.format("%-36s %10.1f MB", "CompressedFile bytes read",
+                compressedFile.length() / 1e6));
+        for (int round = 0; round < ROUNDS; round++) {
+            for (DbFile f : new DbFile[] {heap, compressed}) {
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                long start = System.nanoTime();
+                int count = BenchUtil.scan(f.getId());
+                long nanos = System.nanoTime() - start;
+                if (count != ROWS)
+                    throw new IllegalStateException("wrong count " + count);
+                BenchUtil.report(f == heap ? "HeapFile scan" : "CompressedFile scan",
+                        nanos, ROWS, "tuples");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+package simpledb.bench;
+
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Concurrent SeqScan readers over a table that fits in the buffer pool.
+ * Every thread runs full scans of the same table in its own transactions,
+ * so all page lookups are buffer pool hits and the run measures how well
+ * getPage scales with the number of threads. Thread counts go up to twice
+ * the number of available processors.
+ */
+public class ConcurrentScanBenchmark {
+    private static final int PAGES = 2000;
+    private static final int COLUMNS = 2;
+    private static final int SCANS_PER_THREAD = 8;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        HeapFile f = new HeapFile(BenchUtil.writeFullTable(COLUMNS, PAGES), td);
+        Database.getCatalog().addTable(f, "scan");
+        Database.resetBufferPool(PAGES);
+        BenchUtil.scan(f.getId()); // warm the pool
+
+        int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int threads = 1; threads <= maxThreads; threads *= 2)
+                run(f.getId(), threads);
+        }
+    }
+
+    private static void run(final int tableId, int threads) throws Exception {
+        final List<Throwable> errors =
+            Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int s = 0; s < SCANS_PER_THREAD; s++)
+                            BenchUtil.scan(tableId);
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : workers)
+            t.start();
+        for (Thread t : workers)
+            t.join();
+        long nanos = System.nanoTime() - start;
+
+        if (!errors.isEmpty())
+            throw new RuntimeException(errors.get(0));
+        BenchUtil.report("SeqScan, " + threads + " thread(s)", nanos,
+                (long) threads * SCANS_PER_THREAD * PAGES, "pages");
+    }
+
+}
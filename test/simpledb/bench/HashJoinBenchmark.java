@@ -0,0 +1,58 @@
+package simpledb.bench;
+
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * An equality join whose build side is BUILD_ROWS tuples, many times the
+ * in-memory budget, by HashEquiJoin with that budget and by SortMergeJoin.
+ */
+public class HashJoinBenchmark {
+    private static final int BUILD_ROWS = 200000;
+    private static final int PROBE_ROWS = 200000;
+    private static final int BUDGET = 10000;
+    private static final int ROUNDS = 3;
+
+    private static TupleIterator input(int rows, int seed) {
+        Random r = new Random(seed);
+        TupleDesc td = Utility.getTupleDesc(2);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(r.nextInt(BUILD_ROWS)));
+            t.setField(1, new IntField(i));
+            tuples.add(t);
+        }
+        return new TupleIterator(td, tuples);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] kinds = {"HashEquiJoin", "SortMergeJoin"};
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        for (int round = 0; round < ROUNDS; round++) {
+            long expected = -1;
+            for (String kind : kinds) {
+                DbIterator left = input(BUILD_ROWS, 1);
+                DbIterator right = input(PROBE_ROWS, 2);
+                DbIterator j = kind.equals("HashEquiJoin")
+                    ? new HashEquiJoin(p, left, right, BUDGET)
+                    : new SortMergeJoin(p, left, right);
+                long start = System.nanoTime();
+                long n = 0;
+                j.open();
+                while (j.hasNext()) {
+                    j.next();
+                    n++;
+                }
+                j.close();
+                long nanos = System.nanoTime() - start;
+                if (expected < 0)
+                    expected = n;
+                if (n != expected)
+                    throw new IllegalStateException(kind + " returned " + n);
+                BenchUtil.report(kind, nanos, n, "tuples");
+            }
+        }
+    }
+}
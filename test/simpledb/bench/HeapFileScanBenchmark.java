@@ -0,0 +1,80 @@
+package simpledb.bench;
+
+import java.io.*;
+
+import simpledb.*;
+
+/**
+ * Cold sequential scan of a 10k page table, comparing HeapFile's shared
+ * FileChannel and a memory mapped HeapFile against the old behaviour of
+ * opening and closing a RandomAccessFile for every page read. Each round reads every page once
+ * straight through readPage, then once through a SeqScan on a freshly reset
+ * buffer pool.
+ */
+public class HeapFileScanBenchmark {
+    private static final int PAGES = 10000;
+    private static final int COLUMNS = 2;
+    private static final int ROUNDS = 5;
+
+    /** Reads pages the way HeapFile did before it kept its file open. */
+    static class ReopeningHeapFile extends HeapFile {
+        private static final long serialVersionUID = 1L;
+
+        private final File f;
+
+        ReopeningHeapFile(File f, TupleDesc td) {
+            super(f, td);
+            this.f = f;
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            try {
+                RandomAccessFile fp = new RandomAccessFile(f, "r");
+                byte[] page = new byte[BufferPool.PAGE_SIZE];
+                fp.seek((long) BufferPool.PAGE_SIZE * pid.pageNumber());
+                fp.read(page, 0, BufferPool.PAGE_SIZE);
+                fp.close();
+                return new HeapPage((HeapPageId) pid, page);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        HeapFile channel = new HeapFile(BenchUtil.writeFullTable(COLUMNS, PAGES), td);
+        HeapFile reopening = new ReopeningHeapFile(BenchUtil.writeFullTable(COLUMNS, PAGES), td);
+        HeapFile mapped = new HeapFile(BenchUtil.writeFullTable(COLUMNS, PAGES), td, true);
+        Database.getCatalog().addTable(channel, "channel");
+        Database.getCatalog().addTable(reopening, "reopening");
+        Database.getCatalog().addTable(mapped, "mapped");
+
+        for (int round = 0; round < ROUNDS; round++) {
+            readPages("readPage, open/close per page", reopening);
+            readPages("readPage, shared FileChannel", channel);
+            readPages("readPage, memory mapped", mapped);
+            scan("SeqScan, open/close per page", reopening);
+            scan("SeqScan, shared FileChannel", channel);
+            scan("SeqScan, memory mapped", mapped);
+        }
+    }
+
+    /** Calls readPage directly for every page, bypassing the buffer pool. */
+    private static void readPages(String name, HeapFile f) {
+        int pages = f.numPages();
+        long start = System.nanoTime();
+        for (int i = 0; i < pages; i++)
+            f.readPage(new HeapPageId(f.getId(), i));
+        BenchUtil.report(name, System.nanoTime() - start, pages, "pages");
+    }
+
+    private static void scan(String name, HeapFile f) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long start = System.nanoTime();
+        BenchUtil.scan(f.getId());
+        BenchUtil.report(name, System.nanoTime() - start, f.numPages(), "pages");
+    }
+
+}
@@ -0,0 +1,69 @@
+package simpledb.bench;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import simpledb.*;
+
+/**
+ * In-memory HeapPage operations: filling an empty page one insert at a
+ * time, asking a full page for its free slots, and iterating a page that
+ * has every eighth slot in use. No I/O is involved.
+ */
+public class HeapPageBenchmark {
+    private static final int COLUMNS = 2;
+    private static final int REPEATS = 2000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile f = Utility.createEmptyHeapFile(
+                java.io.File.createTempFile("page", ".dat").getAbsolutePath(), COLUMNS);
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        byte[] empty = HeapPage.createEmptyPageData();
+        Tuple tuple = Utility.getHeapTuple(1, COLUMNS);
+
+        HeapPage full = new HeapPage(pid, empty);
+        while (full.getNumEmptySlots() > 0)
+            full.insertTuple(tuple);
+        HeapPage sparse = new HeapPage(pid, full.getPageData());
+        ArrayList<Tuple> parsed = new ArrayList<Tuple>();
+        for (Iterator<Tuple> it = sparse.iterator(); it.hasNext(); )
+            parsed.add(it.next());
+        for (int i = 0; i < parsed.size(); i++) {
+            if (i % 8 != 0)
+                sparse.deleteTuple(parsed.get(i));
+        }
+        int slots = full.getNumSlots();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            HeapPage[] pages = new HeapPage[REPEATS];
+            for (int r = 0; r < REPEATS; r++)
+                pages[r] = new HeapPage(pid, empty);
+            long start = System.nanoTime();
+            long ops = 0;
+            for (HeapPage page : pages) {
+                for (int i = 0; i < slots; i++)
+                    page.insertTuple(tuple);
+                ops += slots;
+            }
+            BenchUtil.report("insertTuple, filling a page", System.nanoTime() - start, ops, "tuples");
+
+            start = System.nanoTime();
+            long sink = 0;
+            for (int r = 0; r < REPEATS * 100; r++)
+                sink += full.getNumEmptySlots();
+            BenchUtil.report("getNumEmptySlots, full page", System.nanoTime() - start, REPEATS * 100, "calls");
+
+            start = System.nanoTime();
+            ops = 0;
+            for (int r = 0; r < REPEATS * 10; r++) {
+                for (Iterator<Tuple> i = sparse.iterator(); i.hasNext(); i.next())
+                    ops++;
+            }
+            BenchUtil.report("iterator, 1/8 full page", System.nanoTime() - start, ops, "tuples");
+            if (sink != 0)
+                throw new IllegalStateException("full page has free slots");
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Range and equality lookups on a table of ROWS tuples with distinct keys
+ * in random order, through an IndexScan on a BTreeFile and through a
+ * Filter over a SeqScan. The pool is emptied before every query, so every
+ * page is read in again (from the OS page cache).
+ */
+public class IndexScanBenchmark {
+    private static final int ROWS = 500000;
+    private static final int ROUNDS = 5;
+    // fractions of the table selected by the range queries
+    private static final double[] SELECTIVITIES = {0.0001, 0.001, 0.01, 0.1};
+
+    private static int count(TransactionId tid, DbIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (int i = 0; i < ROWS; i++)
+            keys.add(i);
+        Collections.shuffle(keys, new Random(0));
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(keys.get(i), i)));
+        File f = File.createTempFile("bench", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        HeapFile table = Utility.openHeapFile(2, f);
+        File idx = File.createTempFile("bench", ".idx");
+        idx.deleteOnExit();
+        idx.delete();
+        BTreeFile index = new BTreeFile(idx, table, 0);
+        Database.getCatalog().addIndex(index);
+        long start = System.nanoTime();
+        index.build();
+        BenchUtil.report("build index", System.nanoTime() - start, ROWS, "tuples");
+
+        for (int round = 0; round < ROUNDS; round++) {
+            for (double s : SELECTIVITIES) {
+                IntField bound = new IntField((int) (ROWS * s));
+                for (int variant = 0; variant < 2; variant++) {
+                    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                    TransactionId tid = new TransactionId();
+                    DbIterator it = variant == 0
+                        ? new IndexScan(tid, index, "t", Predicate.Op.LESS_THAN, bound)
+                        : new Filter(new Predicate(0, Predicate.Op.LESS_THAN, bound),
+                                new SeqScan(tid, table.getId(), "t"));
+                    start = System.nanoTime();
+                    int n = count(tid, it);
+                    long nanos = System.nanoTime() - start;
+                    if (n != bound.getValue())
+                        throw new IllegalStateException("wrong count " + n);
+                    BenchUtil.report((variant == 0 ? "IndexScan" : "Filter+SeqScan")
+                            + ", " + (s * 100) + "%", nanos, 1, "queries");
+                }
+            }
+            for (int variant = 0; variant < 2; variant++) {
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                TransactionId tid = new TransactionId();
+                IntField key = new IntField(ROWS / 2);
+                DbIterator it = variant == 0
+                    ? new IndexScan(tid, index, "t", Predicate.Op.EQUALS, key)
+                    : new Filter(new Predicate(0, Predicate.Op.EQUALS, key),
+                            new SeqScan(tid, table.getId(), "t"));
+                start = System.nanoTime();
+                if (count(tid, it) != 1)
+                    throw new IllegalStateException("key not found");
+                BenchUtil.report((variant == 0 ? "IndexScan" : "Filter+SeqScan") + ", equality",
+                        System.nanoTime() - start, 1, "queries");
+            }
+        }
+    }
+}
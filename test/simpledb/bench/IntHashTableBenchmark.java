@@ -0,0 +1,94 @@
+package simpledb.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Build and probe of an in-memory hash join table on int keys, as a
+ * HashMap from IntField to lists of tuples and as an IntHashTable of row
+ * numbers. Reports throughput and the bytes allocated per build tuple by
+ * each, as HotSpot counts them for the running thread.
+ */
+public class IntHashTableBenchmark {
+    private static final int ROWS = 1000000;
+    private static final int KEYS = ROWS / 4;
+    private static final int ROUNDS = 5;
+
+    private static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long hashMap(ArrayList<Tuple> build, ArrayList<Tuple> probe) {
+        HashMap<Field, ArrayList<Tuple>> map = new HashMap<Field, ArrayList<Tuple>>();
+        for (Tuple t : build) {
+            Field f = t.getField(0);
+            ArrayList<Tuple> l = map.get(f);
+            if (l == null) {
+                l = new ArrayList<Tuple>();
+                map.put(f, l);
+            }
+            l.add(t);
+        }
+        long matches = 0;
+        for (Tuple t : probe) {
+            ArrayList<Tuple> l = map.get(t.getField(0));
+            if (l != null)
+                matches += l.size();
+        }
+        return matches;
+    }
+
+    private static long intHashTable(ArrayList<Tuple> build, ArrayList<Tuple> probe) {
+        IntHashTable table = new IntHashTable();
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        for (Tuple t : build) {
+            rows.add(t);
+            table.addRow(((IntField) t.getField(0)).getValue());
+        }
+        long matches = 0;
+        for (Tuple t : probe) {
+            int key = ((IntField) t.getField(0)).getValue();
+            for (int r = table.firstRow(key); r != -1; r = table.nextRow(r))
+                matches++;
+        }
+        return matches;
+    }
+
+    private static ArrayList<Tuple> input(int seed) {
+        Random r = new Random(seed);
+        TupleDesc td = Utility.getTupleDesc(1);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(r.nextInt(2 * KEYS)));
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ArrayList<Tuple> build = input(1);
+        ArrayList<Tuple> probe = input(2);
+        for (int round = 0; round < ROUNDS; round++) {
+            long expected = -1;
+            for (int variant = 0; variant < 2; variant++) {
+                long bytes = allocated();
+                long start = System.nanoTime();
+                long matches = variant == 0 ? hashMap(build, probe) : intHashTable(build, probe);
+                long nanos = System.nanoTime() - start;
+                bytes = allocated() - bytes;
+                if (expected < 0)
+                    expected = matches;
+                if (matches != expected)
+                    throw new IllegalStateException("wrong count " + matches);
+                String name = variant == 0 ? "HashMap" : "IntHashTable";
+                BenchUtil.report(name + " build+probe", nanos, 2L * ROWS, "tuples");
+                System.out.println(String.format("%-36s %10.1f bytes/build tuple",
+                        name + " allocation", bytes / (double) ROWS));
+            }
+        }
+    }
+}
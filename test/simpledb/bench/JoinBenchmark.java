@@ -0,0 +1,66 @@
+package simpledb.bench;
+
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Equality and range joins of two in-memory inputs of ROWS tuples each,
+ * with random join values, by each join operator.
+ */
+public class JoinBenchmark {
+    private static final int ROWS = 3000;
+    private static final int ROUNDS = 5;
+
+    private static TupleIterator input(int seed) {
+        Random r = new Random(seed);
+        TupleDesc td = Utility.getTupleDesc(2);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(r.nextInt(ROWS)));
+            t.setField(1, new IntField(i));
+            tuples.add(t);
+        }
+        return new TupleIterator(td, tuples);
+    }
+
+    private static DbIterator join(String kind, JoinPredicate p) {
+        DbIterator left = input(1);
+        DbIterator right = input(2);
+        if (kind.equals("Join"))
+            return new Join(p, left, right);
+        if (kind.equals("HashEquiJoin"))
+            return new HashEquiJoin(p, left, right);
+        return new SortMergeJoin(p, left, right);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] kinds = {"Join", "SortMergeJoin", "HashEquiJoin"};
+        Predicate.Op[] ops = {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN};
+        for (int round = 0; round < ROUNDS; round++) {
+            for (Predicate.Op op : ops) {
+                long expected = -1;
+                for (String kind : kinds) {
+                    if (kind.equals("HashEquiJoin") && op != Predicate.Op.EQUALS)
+                        continue;
+                    DbIterator j = join(kind, new JoinPredicate(0, op, 0));
+                    long start = System.nanoTime();
+                    long n = 0;
+                    j.open();
+                    while (j.hasNext()) {
+                        j.next();
+                        n++;
+                    }
+                    j.close();
+                    long nanos = System.nanoTime() - start;
+                    if (expected < 0)
+                        expected = n;
+                    if (n != expected)
+                        throw new IllegalStateException(kind + " returned " + n);
+                    BenchUtil.report(kind + " " + op, nanos, n, "tuples");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package simpledb.bench;
+
+import simpledb.*;
+
+/**
+ * Nested-loops Join of two SeqScans of about 10k tuples each. With a
+ * budget of one tuple the inner table is rescanned for every outer tuple,
+ * as a tuple-at-a-time join would; with a budget of 5000 it is rescanned
+ * once per block; with the default budget it is read once into memory.
+ */
+public class NestedLoopJoinBenchmark {
+    private static final int PAGES = 20;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        HeapFile a = new HeapFile(BenchUtil.writeFullTable(2, PAGES), td);
+        HeapFile b = new HeapFile(BenchUtil.writeFullTable(2, PAGES), td);
+        Database.getCatalog().addTable(a, "a");
+        Database.getCatalog().addTable(b, "b");
+        int rows = BenchUtil.scan(a.getId());
+        BenchUtil.scan(b.getId());
+
+        int[] budgets = {1, 5000, Join.BLOCK_SIZE};
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int budget : budgets) {
+                TransactionId tid = new TransactionId();
+                Join j = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                        new SeqScan(tid, a.getId(), "a"), new SeqScan(tid, b.getId(), "b"),
+                        budget);
+                long start = System.nanoTime();
+                long n = 0;
+                j.open();
+                while (j.hasNext()) {
+                    j.next();
+                    n++;
+                }
+                j.close();
+                long nanos = System.nanoTime() - start;
+                Database.getBufferPool().transactionComplete(tid);
+                // every value appears once per page of each table
+                if (n != (long) rows * PAGES)
+                    throw new IllegalStateException("wrong count " + n);
+                BenchUtil.report("Join, budget " + budget, nanos, (long) rows * rows, "pairs");
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package simpledb.bench;
+
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * OrderBy of ROWS in-memory tuples on a random column, all in memory and
+ * as an external merge sort with budgets of a tenth and a hundredth of
+ * the input.
+ */
+public class OrderByBenchmark {
+    private static final int ROWS = 1000000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        Random r = new Random(1);
+        TupleDesc td = Utility.getTupleDesc(2);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(r.nextInt()));
+            t.setField(1, new IntField(i));
+            tuples.add(t);
+        }
+
+        int[] budgets = {ROWS, ROWS / 10, ROWS / 100};
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int budget : budgets) {
+                OrderBy o = new OrderBy(0, true, new TupleIterator(td, tuples), budget);
+                long start = System.nanoTime();
+                long n = 0;
+                int last = Integer.MIN_VALUE;
+                o.open();
+                while (o.hasNext()) {
+                    int v = ((IntField) o.next().getField(0)).getValue();
+                    if (v < last)
+                        throw new IllegalStateException("out of order");
+                    last = v;
+                    n++;
+                }
+                o.close();
+                long nanos = System.nanoTime() - start;
+                if (n != ROWS)
+                    throw new IllegalStateException("wrong count " + n);
+                BenchUtil.report("OrderBy, budget " + budget, nanos, n, "tuples");
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * The same table stored with each page size in PAGE_SIZES, under a pool of
+ * POOL_BYTES bytes: a SeqScan with a cold pool, then UPDATES point updates
+ * (delete a random tuple and insert a new one), each its own committed
+ * transaction.
+ */
+public class PageSizeBenchmark {
+    private static final int[] PAGE_SIZES = {4096, 8192, 16384, 32768, 65536};
+    private static final int ROWS = 200000;
+    private static final int COLUMNS = 4;
+    private static final long POOL_BYTES = 1 << 20;
+    private static final int UPDATES = 500;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            for (int j = 0; j < COLUMNS; j++)
+                row.add(i + j);
+            rows.add(row);
+        }
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        HeapFile[] files = new HeapFile[PAGE_SIZES.length];
+        for (int i = 0; i < PAGE_SIZES.length; i++) {
+            File f = File.createTempFile("bench", ".dat");
+            f.deleteOnExit();
+            HeapFileEncoder.convert(rows, f, PAGE_SIZES[i], COLUMNS);
+            files[i] = new HeapFile(f, td);
+            Database.getCatalog().addTable(files[i], "pages" + PAGE_SIZES[i]);
+        }
+
+        Random rand = new Random(0);
+        for (int round = 0; round < ROUNDS; round++) {
+            for (HeapFile f : files) {
+                String name = (f.getPageSize() / 1024) + " KB pages, ";
+
+                Database.resetBufferPoolBytes(POOL_BYTES);
+                ArrayList<Tuple> tuples = new ArrayList<Tuple>(ROWS);
+                TransactionId tid = new TransactionId();
+                long start = System.nanoTime();
+                DbFileIterator it = f.iterator(tid);
+                it.open();
+                while (it.hasNext())
+                    tuples.add(it.next());
+                it.close();
+                BenchUtil.report(name + "scan", System.nanoTime() - start, ROWS, "tuples");
+                Database.getBufferPool().transactionComplete(tid);
+
+                Database.resetBufferPoolBytes(POOL_BYTES);
+                start = System.nanoTime();
+                for (int i = 0; i < UPDATES; i++) {
+                    int victim = rand.nextInt(tuples.size());
+                    tid = new TransactionId();
+                    BufferPool bp = Database.getBufferPool();
+                    bp.deleteTuple(tid, tuples.get(victim));
+                    Tuple t = Utility.getHeapTuple(victim, COLUMNS);
+                    bp.insertTuple(tid, f.getId(), t);
+                    bp.transactionComplete(tid);
+                    tuples.set(victim, t);
+                }
+                BenchUtil.report(name + "point updates", System.nanoTime() - start,
+                        UPDATES, "txns");
+            }
+        }
+    }
+
+}
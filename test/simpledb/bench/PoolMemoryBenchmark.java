@@ -0,0 +1,50 @@
+package simpledb.bench;
+
+import simpledb.*;
+
+/**
+ * Heap used by a BufferPool holding PAGES pages, measured as the growth in
+ * used heap once they are all cached: first with pages that were only
+ * read, then with pages that a committed transaction changed.
+ */
+public class PoolMemoryBenchmark {
+    private static final int PAGES = 2000;
+    private static final int COLUMNS = 2;
+    private static final int ROUNDS = 3;
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    public static void main(String[] args) throws Exception {
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        HeapFile f = new HeapFile(BenchUtil.writeFullTable(COLUMNS, PAGES), td);
+        Database.getCatalog().addTable(f, "memory");
+
+        for (int round = 0; round < ROUNDS; round++) {
+            for (boolean write : new boolean[] {false, true}) {
+                BufferPool bp = Database.resetBufferPool(PAGES);
+                long before = usedHeap();
+                TransactionId tid = new TransactionId();
+                for (int p = 0; p < PAGES; p++) {
+                    HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), p),
+                            write ? Permissions.READ_WRITE : Permissions.READ_ONLY);
+                    if (write)
+                        bp.deleteTuple(tid, page.iterator().next());
+                }
+                // a changed page stays in the pool after its commit
+                bp.transactionComplete(tid, write);
+                long used = usedHeap() - before;
+                System.out.println(String.format("%-36s %10.1f MB %10.0f bytes/page",
+                        PAGES + (write ? " committed pages" : " read-only pages"),
+                        used / 1e6, (double) used / PAGES));
+            }
+        }
+    }
+
+}
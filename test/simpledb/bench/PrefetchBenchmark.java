@@ -0,0 +1,58 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.concurrent.locks.LockSupport;
+
+import simpledb.*;
+
+/**
+ * Cold SeqScan of a 2000 page table with and without read-ahead. The table
+ * file is small enough to sit in the OS page cache, so readPage is made to
+ * wait READ_LATENCY_MICROS per page to stand in for a disk; with
+ * read-ahead that wait overlaps with the scan's own work.
+ */
+public class PrefetchBenchmark {
+    private static final int PAGES = 2000;
+    private static final int COLUMNS = 2;
+    private static final int ROUNDS = 3;
+    private static final long READ_LATENCY_MICROS = 100;
+    private static final int[] DEPTHS = {0, 2, 8, 32};
+
+    /** A HeapFile on a slow disk. */
+    static class SlowHeapFile extends HeapFile {
+        private static final long serialVersionUID = 1L;
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            long until = System.nanoTime() + READ_LATENCY_MICROS * 1000;
+            Page page = super.readPage(pid);
+            long left;
+            while ((left = until - System.nanoTime()) > 0)
+                LockSupport.parkNanos(left);
+            return page;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        HeapFile f = new SlowHeapFile(BenchUtil.writeFullTable(COLUMNS, PAGES), td);
+        Database.getCatalog().addTable(f, "slow");
+
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int depth : DEPTHS) {
+                // large enough that the depth is not capped
+                BufferPool bp = Database.resetBufferPool(Math.max(BufferPool.DEFAULT_PAGES, 4 * depth));
+                bp.setPrefetchDepth(depth);
+                long start = System.nanoTime();
+                BenchUtil.scan(f.getId());
+                BenchUtil.report("SeqScan, read-ahead " + depth + " pages",
+                        System.nanoTime() - start, PAGES, "pages");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that sequential scans read ahead on the prefetch thread, that no
+ * page is read twice, and that read-ahead does not show up as cache hits.
+ */
+public class PrefetchTest extends SimpleDbTestBase {
+    private static final int PAGES = 30;
+
+    /** Counts readPage calls, and those made off the calling thread. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        private static final long serialVersionUID = 1L;
+
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicInteger backgroundReads = new AtomicInteger();
+        final Thread owner = Thread.currentThread();
+
+        InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            reads.incrementAndGet();
+            if (Thread.currentThread() != owner)
+                backgroundReads.incrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    private InstrumentedHeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * PAGES, 1000, null, tuples);
+        table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    }
+
+    @Test public void readsAhead() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setPrefetchDepth(8);
+        assertEquals(8, bp.getPrefetchDepth());
+
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(PAGES, table.reads.get());
+        assertTrue(table.backgroundReads.get() > 0);
+
+        // every page was a miss, whether it was read ahead or not
+        assertEquals(0, bp.getHitCount());
+        assertEquals(PAGES, bp.getMissCount());
+        assertEquals(table.backgroundReads.get(), bp.getPrefetchCount());
+
+        // the second scan is served from the pool
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(PAGES, table.reads.get());
+        assertEquals(PAGES, bp.getHitCount());
+    }
+
+    @Test public void depthIsCapped() {
+        BufferPool bp = Database.resetBufferPool(16);
+        bp.setPrefetchDepth(100);
+        assertEquals(4, bp.getPrefetchDepth());
+        bp = Database.resetBufferPool(2);
+        assertEquals(0, bp.getPrefetchDepth());
+    }
+
+    @Test public void noReadAheadWhenOff() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setPrefetchDepth(0);
+
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(PAGES, table.reads.get());
+        assertEquals(0, table.backgroundReads.get());
+        assertEquals(0, bp.getPrefetchCount());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PrefetchTest.class);
+    }
+}
@@ -0,0 +1,183 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that transactions changing different records of the same page
+ * do not block each other, and that aborting one undoes only its changes.
+ */
+public class RecordLockingTest extends SimpleDbTestBase {
+    private static final int TUPLES = 500;
+    private static final long TIMEOUT = 5000;
+
+    private HeapFile f;
+    private ArrayList<Tuple> tuples;
+
+    @Before public void setUp() throws Exception {
+        // one page with a few free slots
+        f = SystemTestUtil.createRandomHeapFile(2, TUPLES, null, null);
+        assertEquals(1, f.numPages());
+        tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = ((HeapPage) f.readPage(new HeapPageId(f.getId(), 0))).iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private static Tuple row(int value) {
+        Tuple t = new Tuple(Utility.getTupleDesc(2));
+        t.setField(0, new IntField(value));
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    /** Values of the first column of every tuple in the table. */
+    private ArrayList<Integer> contents() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), f.getId(), "");
+        scan.open();
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        while (scan.hasNext())
+            values.add(((IntField) scan.next().getField(0)).getValue());
+        scan.close();
+        t.commit();
+        return values;
+    }
+
+    @Test public void disjointRecordsOnOnePage() throws Exception {
+        final BufferPool bp = Database.getBufferPool();
+        Transaction t1 = new Transaction();
+        t1.start();
+        bp.deleteTuple(t1.getId(), tuples.get(0));
+        bp.insertTuple(t1.getId(), f.getId(), row(-1));
+
+        final Transaction t2 = new Transaction();
+        t2.start();
+        final Exception[] error = new Exception[1];
+        Thread other = new Thread() {
+            public void run() {
+                try {
+                    bp.deleteTuple(t2.getId(), tuples.get(1));
+                    bp.insertTuple(t2.getId(), f.getId(), row(-2));
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            }
+        };
+        other.start();
+        other.join(TIMEOUT);
+        assertFalse("second transaction blocked on the first", other.isAlive());
+        assertNull(error[0]);
+
+        t1.transactionComplete(true);
+        t2.commit();
+
+        ArrayList<Integer> values = contents();
+        assertEquals(TUPLES, values.size());
+        assertTrue(values.contains(((IntField) tuples.get(0).getField(0)).getValue()));
+        assertFalse(values.contains(-1));
+        assertTrue(values.contains(-2));
+
+        // what reached disk agrees
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(values, contents());
+    }
+
+    /** Sorted values of the first column of every tuple on disk, bypassing the pool. */
+    private ArrayList<Integer> onDisk() throws Exception {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < f.numPages(); i++) {
+            Iterator<Tuple> it = ((HeapPage) f.readPage(new HeapPageId(f.getId(), i))).iterator();
+            while (it.hasNext())
+                values.add(((IntField) it.next().getField(0)).getValue());
+        }
+        Collections.sort(values);
+        return values;
+    }
+
+    private ArrayList<Integer> sorted(ArrayList<Integer> values) {
+        values = new ArrayList<Integer>(values);
+        Collections.sort(values);
+        return values;
+    }
+
+    /**
+     * Two record-locked writers on one page: the first commits while the
+     * second still has changes there, and the second then aborts. Neither
+     * time may the second's uncommitted changes reach disk, where a crash
+     * would leave them.
+     */
+    @Test public void commitBesideUncommittedWriter() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        ArrayList<Integer> before = onDisk();
+        int v0 = ((IntField) tuples.get(0).getField(0)).getValue();
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        bp.deleteTuple(t1.getId(), tuples.get(0));
+        bp.insertTuple(t1.getId(), f.getId(), row(-1));
+        Transaction t2 = new Transaction();
+        t2.start();
+        bp.deleteTuple(t2.getId(), tuples.get(1));
+        bp.insertTuple(t2.getId(), f.getId(), row(-2));
+        assertEquals(1, f.numPages());
+
+        t1.commit();
+        ArrayList<Integer> committed = new ArrayList<Integer>(before);
+        committed.remove(Integer.valueOf(v0));
+        committed.add(-1);
+        committed = sorted(committed);
+        assertEquals(committed, onDisk());
+
+        t2.abort();
+        assertEquals(committed, onDisk());
+        assertEquals(committed, sorted(contents()));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(committed, sorted(contents()));
+    }
+
+    /**
+     * As above, with the first writer aborting while the second still has
+     * changes on the page, and the second committing afterwards.
+     */
+    @Test public void abortBesideUncommittedWriter() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        ArrayList<Integer> before = onDisk();
+        int v1 = ((IntField) tuples.get(1).getField(0)).getValue();
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        bp.deleteTuple(t1.getId(), tuples.get(0));
+        bp.insertTuple(t1.getId(), f.getId(), row(-1));
+        Transaction t2 = new Transaction();
+        t2.start();
+        bp.deleteTuple(t2.getId(), tuples.get(1));
+        bp.insertTuple(t2.getId(), f.getId(), row(-2));
+
+        t1.abort();
+        assertEquals(before, onDisk());
+
+        t2.commit();
+        ArrayList<Integer> committed = new ArrayList<Integer>(before);
+        committed.remove(Integer.valueOf(v1));
+        committed.add(-2);
+        committed = sorted(committed);
+        assertEquals(committed, onDisk());
+        assertEquals(committed, sorted(contents()));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(RecordLockingTest.class);
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that a large sequential scan does not push a small, frequently
+ * used set of pages out of the buffer pool.
+ */
+public class ScanResistanceTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 20;
+    private static final int HOT_PAGES = 5;
+    private static final int SCAN_PAGES = 100;
+    private static final int TUPLES_PER_PAGE = 504; // two int columns
+    private static final int ROUNDS = 10;
+
+    private HeapFile hot;
+    private HeapFile big;
+
+    @Before public void setUp() throws Exception {
+        hot = SystemTestUtil.createRandomHeapFile(2, HOT_PAGES * TUPLES_PER_PAGE, null, null);
+        big = SystemTestUtil.createRandomHeapFile(2, SCAN_PAGES * TUPLES_PER_PAGE, null, null);
+        assertEquals(HOT_PAGES, hot.numPages());
+        assertEquals(SCAN_PAGES, big.numPages());
+    }
+
+    /** Fetches every hot page ROUNDS times and returns the hit rate. */
+    private double hotSetHitRate(TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        long hits = bp.getHitCount();
+        long misses = bp.getMissCount();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int p = 0; p < HOT_PAGES; p++)
+                bp.getPage(tid, new HeapPageId(hot.getId(), p), Permissions.READ_ONLY);
+        }
+        hits = bp.getHitCount() - hits;
+        misses = bp.getMissCount() - misses;
+        return (double) hits / (hits + misses);
+    }
+
+    private void scanBigTable() throws IOException, DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, big.getId(), "");
+        scan.open();
+        while (scan.hasNext())
+            scan.next();
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The hot set keeps its hit rate across a scan, whatever the policy. */
+    @Test public void hotSetSurvivesScan() throws Exception {
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            Database.resetBufferPool(POOL_PAGES, kind);
+            TransactionId tid = new TransactionId();
+            hotSetHitRate(tid); // warm up
+            double before = hotSetHitRate(tid);
+            scanBigTable();
+            double after = hotSetHitRate(tid);
+
+            assertEquals(kind.toString(), 1.0, before, 0);
+            assertEquals(kind.toString(), before, after, 0);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** Without the sequential hint, the same access pattern loses the hot set under LRU. */
+    @Test public void hotSetLostWithoutHint() throws Exception {
+        Database.resetBufferPool(POOL_PAGES, ReplacementPolicy.Kind.LRU);
+        TransactionId tid = new TransactionId();
+        hotSetHitRate(tid);
+        double before = hotSetHitRate(tid);
+        BufferPool bp = Database.getBufferPool();
+        for (int p = 0; p < SCAN_PAGES; p++)
+            bp.getPage(tid, new HeapPageId(big.getId(), p), Permissions.READ_ONLY);
+        double after = hotSetHitRate(tid);
+
+        assertEquals(1.0, before, 0);
+        assertTrue(after < before);
+        bp.transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ScanResistanceTest.class);
+    }
+}
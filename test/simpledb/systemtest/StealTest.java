@@ -0,0 +1,144 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that in STEAL mode uncommitted pages can reach disk before commit,
+ * and that aborting undoes them from the log.
+ */
+public class StealTest extends SimpleDbTestBase {
+    private static final int PAGES = 10;
+
+    private HeapFile f;
+    private byte[] original;
+
+    @Before public void setUp() throws Exception {
+        // one free slot, so that inserts do not grow the file
+        f = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES - 1, null, null);
+        original = contents(f.getFile());
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().stopFlusher();
+    }
+
+    private static byte[] contents(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            return data;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private int count(Transaction t) throws Exception {
+        SeqScan scan = new SeqScan(t.getId(), f.getId(), "");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        return n;
+    }
+
+    /** Uncommitted pages written out by a flush are restored on abort. */
+    @Test public void abortUndoesStolenPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setSteal(true);
+
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        bp.flushAllPages();
+        assertFalse(Arrays.equals(original, contents(f.getFile())));
+
+        t.transactionComplete(true);
+        assertTrue(Arrays.equals(original, contents(f.getFile())));
+
+        t = new Transaction();
+        t.start();
+        assertFalse(EvictionTest.findMagicTuple(f, t));
+        t.commit();
+    }
+
+    /** The flusher writes a running transaction's pages without waiting for commit. */
+    @Test public void flusherWritesBeforeCommit() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setSteal(true);
+        bp.startFlusher(10);
+
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (Arrays.equals(original, contents(f.getFile()))
+               && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertFalse(Arrays.equals(original, contents(f.getFile())));
+        t.commit();
+        bp.stopFlusher();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        t = new Transaction();
+        t.start();
+        assertTrue(EvictionTest.findMagicTuple(f, t));
+        t.commit();
+    }
+
+    /**
+     * A transaction may dirty more pages than the pool holds; the pool
+     * writes them out to make room, and abort still undoes all of them.
+     */
+    @Test public void dirtyMoreThanPoolHolds() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        bp.setSteal(true);
+
+        Transaction t = new Transaction();
+        t.start();
+        ArrayList<Tuple> firsts = new ArrayList<Tuple>();
+        SeqScan scan = new SeqScan(t.getId(), f.getId(), "");
+        scan.open();
+        int lastPage = -1;
+        while (scan.hasNext()) {
+            Tuple tup = scan.next();
+            int pgNo = tup.getRecordId().getPageId().pageNumber();
+            if (pgNo != lastPage)
+                firsts.add(tup);
+            lastPage = pgNo;
+        }
+        scan.close();
+        assertEquals(PAGES, firsts.size());
+
+        for (Tuple tup : firsts)
+            bp.deleteTuple(t.getId(), tup);
+        assertEquals(504 * PAGES - 1 - PAGES, count(t));
+        t.transactionComplete(true);
+
+        assertTrue(Arrays.equals(original, contents(f.getFile())));
+        t = new Transaction();
+        t.start();
+        assertEquals(504 * PAGES - 1, count(t));
+        t.commit();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StealTest.class);
+    }
+}